@@ -0,0 +1,116 @@
+package viterbi.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import viterbi.CompiledViterbiModel;
+import viterbi.Viterbi.ViterbiMachine;
+import viterbi.Viterbi.ViterbiModel;
+import viterbi.VectorViterbiDecoder;
+import viterbi.ViterbiDecoder;
+
+// a synthetic random log-space model and observation sequence; log space keeps long sequences from underflowing
+final class Fixture<S extends Enum<S>, T extends Enum<T>> {
+	private final ViterbiModel.Builder<S, T> builder;
+	// validated by compiling it
+	final ViterbiModel<S, T> model;
+	final CompiledViterbiModel<S, T> compiled;
+	final ViterbiDecoder<S, T> decoder;
+	final VectorViterbiDecoder<S, T> vectorDecoder;
+	final ImmutableList<T> observations;
+
+	private Fixture(Class<S> stateType, Class<T> observationType, int sequenceLength, double density, long seed) {
+		final Random random = new Random(seed);
+		final S[] states = stateType.getEnumConstants();
+		final T[] symbols = observationType.getEnumConstants();
+
+		builder = ViterbiModel.<S, T>builder().withLogSpace(true);
+		final double[] initial = randomRow(random, states.length, 1.0);
+		final ImmutableMap.Builder<S, Double> initialDistributions = ImmutableMap.builder();
+		for (S state : states) {
+			initialDistributions.put(state, initial[state.ordinal()]);
+		}
+		builder.withInitialDistributions(initialDistributions.build());
+		for (S src : states) {
+			final double[] row = randomRow(random, states.length, density);
+			for (S dest : states) {
+				if (row[dest.ordinal()] > 0.0) {
+					builder.withTransitionProbability(src, dest, row[dest.ordinal()]);
+				}
+			}
+		}
+		for (S state : states) {
+			final double[] row = randomRow(random, symbols.length, 1.0);
+			for (T symbol : symbols) {
+				builder.withEmissionProbability(state, symbol, row[symbol.ordinal()]);
+			}
+		}
+		model = builder.build();
+		compiled = CompiledViterbiModel.compile(model);
+		decoder = new ViterbiDecoder<>(compiled);
+		vectorDecoder = new VectorViterbiDecoder<>(compiled);
+
+		final ImmutableList.Builder<T> observations = ImmutableList.builder();
+		for (int i = 0; i < sequenceLength; ++i) {
+			observations.add(symbols[random.nextInt(symbols.length)]);
+		}
+		this.observations = observations.build();
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static Fixture<?, ?> create(int stateCount, int alphabetSize, int sequenceLength, double density, long seed) {
+		return new Fixture((Class) BenchmarkEnums.states(stateCount), (Class) BenchmarkEnums.observations(alphabetSize), sequenceLength, density, seed);
+	}
+
+	ViterbiMachine<S, T> newMachine() {
+		return new ViterbiMachine<>(model, observations);
+	}
+
+	// constructs a machine on a model with the same content that no machine has validated yet; the model is built
+	// right away, so that only the construction is left to the supplier
+	Supplier<ViterbiMachine<S, T>> unvalidatedMachine() {
+		final ViterbiModel<S, T> fresh = builder.build();
+		return () -> new ViterbiMachine<>(fresh, observations);
+	}
+
+	ViterbiMachine<S, T> newFinishedMachine() {
+		final ViterbiMachine<S, T> machine = newMachine();
+		for (int i = 0; i < observations.size() - 1; ++i) {
+			machine.nextStep();
+		}
+		return machine;
+	}
+
+	List<S> calculateCompiled() {
+		return compiled.newMachine(observations).calculate();
+	}
+
+	List<S> decode() {
+		return decoder.decode(observations);
+	}
+
+	List<S> decodeVector() {
+		return vectorDecoder.decode(observations);
+	}
+
+	// keeps every entry with probability density, but at least one per row
+	private static double[] randomRow(Random random, int length, double density) {
+		final double[] row = new double[length];
+		final int kept = random.nextInt(length);
+		double sum = 0.0;
+		for (int i = 0; i < length; ++i) {
+			if (i == kept || random.nextDouble() < density) {
+				row[i] = 0.05 + random.nextDouble();
+				sum += row[i];
+			}
+		}
+		for (int i = 0; i < length; ++i) {
+			row[i] /= sum;
+		}
+		return row;
+	}
+}
@@ -0,0 +1,52 @@
+package viterbi.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// the scalar compiled kernel against the simd one on dense models (density 1.0 compiles to dense storage);
+// needs java 17+, on older jvms the forks do not start
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class VectorViterbiDecoderBenchmark {
+	@Param({ "16", "64", "256" })
+	int stateCount;
+
+	@Param({ "256" })
+	int sequenceLength;
+
+	Fixture<?, ?> fixture;
+
+	@Setup
+	public void setUp() {
+		fixture = Fixture.create(stateCount, 32, sequenceLength, 1.0, 42);
+		if (!fixture.vectorDecoder.isVectorized()) {
+			throw new IllegalStateException("jdk.incubator.vector is not available");
+		}
+	}
+
+	@Benchmark
+	public List<?> scalarDecode() {
+		return fixture.decode();
+	}
+
+	@Benchmark
+	public List<?> vectorDecode() {
+		return fixture.decodeVector();
+	}
+}
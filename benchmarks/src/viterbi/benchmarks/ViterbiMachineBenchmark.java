@@ -0,0 +1,113 @@
+package viterbi.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import viterbi.Viterbi.ViterbiMachine;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ViterbiMachineBenchmark {
+	@Param({ "4", "16", "64", "256" })
+	int stateCount;
+
+	@Param({ "4", "32" })
+	int alphabetSize;
+
+	@Param({ "16", "256" })
+	int sequenceLength;
+
+	// ratio of non-zero transitions
+	@Param({ "1.0", "0.1" })
+	double density;
+
+	Fixture<?, ?> fixture;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		fixture = Fixture.create(stateCount, alphabetSize, sequenceLength, density, 42);
+	}
+
+	@State(Scope.Thread)
+	public static class FreshModel {
+		Supplier<? extends ViterbiMachine<?, ?>> machine;
+
+		@Setup(Level.Invocation)
+		public void setUp(ViterbiMachineBenchmark benchmark) {
+			machine = benchmark.fixture.unvalidatedMachine();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class FreshMachine {
+		ViterbiMachine<?, ?> machine;
+
+		@Setup(Level.Invocation)
+		public void setUp(ViterbiMachineBenchmark benchmark) {
+			machine = benchmark.fixture.newMachine();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class FinishedMachine {
+		ViterbiMachine<?, ?> machine;
+
+		@Setup(Level.Invocation)
+		public void setUp(ViterbiMachineBenchmark benchmark) {
+			machine = benchmark.fixture.newFinishedMachine();
+		}
+	}
+
+	// validate() and initialize(), on a model no machine has validated yet
+	@Benchmark
+	public ViterbiMachine<?, ?> construct(FreshModel state) {
+		return state.machine.get();
+	}
+
+	// every nextStep() of one sequence
+	@Benchmark
+	public ViterbiMachine<?, ?> nextSteps(FreshMachine state) {
+		for (int i = 0; i < sequenceLength - 1; ++i) {
+			state.machine.nextStep();
+		}
+		return state.machine;
+	}
+
+	@Benchmark
+	public List<?> finish(FinishedMachine state) {
+		return state.machine.finish();
+	}
+
+	@Benchmark
+	public List<?> calculate() {
+		return fixture.newMachine().calculate();
+	}
+
+	@Benchmark
+	public List<?> compiledCalculate() {
+		return fixture.calculateCompiled();
+	}
+
+	@Benchmark
+	public List<?> decoderDecode() {
+		return fixture.decode();
+	}
+}
@@ -0,0 +1,68 @@
+package viterbi;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// compiled by the java 17 profile only. every lane keeps its own running max and the first src reaching it (src indices
+// are held as doubles, exact far beyond any state count, so both vectors have the same shape); the lanes are then reduced
+// to the lowest src among the ones holding the max, and the tail is finished scalar. products and sums are the same
+// per-element operations as in the scalar kernel, so the results and ties are identical
+final class VectorMaxProductKernel extends MaxProductKernel {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final DoubleVector LANE_INDICES;
+
+	static {
+		final double[] indices = new double[SPECIES.length()];
+		for (int lane = 0; lane < indices.length; ++lane) {
+			indices[lane] = lane;
+		}
+		LANE_INDICES = DoubleVector.fromArray(SPECIES, indices, 0);
+	}
+
+	@Override
+	void maxProduct(boolean logSpace, double[] previous, double[] transposed, int stateCount, double[] current, int[] backPointers, int offset) {
+		final double zeroProb = logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+		final int lanes = SPECIES.length();
+		final int bound = SPECIES.loopBound(stateCount);
+		final DoubleVector zero = DoubleVector.broadcast(SPECIES, zeroProb);
+		final DoubleVector none = DoubleVector.broadcast(SPECIES, Double.MAX_VALUE);
+		for (int state = 0; state < stateCount; ++state) {
+			final int column = state * stateCount;
+			double maxProb = zeroProb;
+			int prevStateWithMaxProb = ViterbiKernel.NO_STATE;
+			if (bound > 0) {
+				DoubleVector best = zero;
+				DoubleVector bestIndices = none;
+				for (int state2 = 0; state2 < bound; state2 += lanes) {
+					final DoubleVector prev = DoubleVector.fromArray(SPECIES, previous, state2);
+					final DoubleVector trans = DoubleVector.fromArray(SPECIES, transposed, column + state2);
+					final DoubleVector prob = logSpace ? prev.add(trans) : prev.mul(trans);
+					final VectorMask<Double> better = prob.compare(VectorOperators.GT, best);
+					best = best.blend(prob, better);
+					bestIndices = bestIndices.blend(LANE_INDICES.add(state2), better);
+				}
+				final double laneMax = best.reduceLanes(VectorOperators.MAX);
+				if (laneMax > zeroProb) {
+					maxProb = laneMax;
+					prevStateWithMaxProb = (int) bestIndices.blend(none, best.compare(VectorOperators.NE, laneMax)).reduceLanes(VectorOperators.MIN);
+				}
+			}
+			for (int state2 = bound; state2 < stateCount; ++state2) {
+				final double prob = logSpace ? previous[state2] + transposed[column + state2] : previous[state2] * transposed[column + state2];
+				if (prob > maxProb) {
+					maxProb = prob;
+					prevStateWithMaxProb = state2;
+				}
+			}
+			current[state] = maxProb;
+			backPointers[offset + state] = prevStateWithMaxProb;
+		}
+	}
+
+	@Override
+	boolean isVectorized() {
+		return true;
+	}
+}
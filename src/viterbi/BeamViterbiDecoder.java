@@ -0,0 +1,229 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// approximate decoding: after every step only the best beamWidth states, within beamThreshold (a log-probability
+// difference) of the best state, are kept as predecessors for the next step
+public class BeamViterbiDecoder<S, T> {
+	private final CompiledViterbiModel<S, T> model;
+	private final int beamWidth;
+	private final double beamThreshold;
+
+	public static class Result<S> {
+		private final List<S> states;
+		private final long evaluatedCells;
+		private final long prunedCells;
+
+		Result(List<S> states, long evaluatedCells, long prunedCells) {
+			this.states = states;
+			this.evaluatedCells = evaluatedCells;
+			this.prunedCells = prunedCells;
+		}
+
+		public List<S> getStates() {
+			return states;
+		}
+
+		// reachable trellis cells that were kept as predecessors
+		public long getEvaluatedCells() {
+			return evaluatedCells;
+		}
+
+		// reachable trellis cells that fell out of the beam
+		public long getPrunedCells() {
+			return prunedCells;
+		}
+
+		public double getPrunedRatio() {
+			final long reachable = evaluatedCells + prunedCells;
+			return reachable == 0 ? 0.0 : (double) prunedCells / reachable;
+		}
+	}
+
+	// use beamWidth = number of states and beamThreshold = Double.POSITIVE_INFINITY to disable either limit
+	public BeamViterbiDecoder(CompiledViterbiModel<S, T> model, int beamWidth, double beamThreshold) {
+		this.model = checkNotNull(model);
+		if (beamWidth < 1) {
+			throw new IllegalArgumentException("beamWidth should be positive, was " + beamWidth);
+		}
+		if (!(beamThreshold >= 0.0)) {
+			throw new IllegalArgumentException("beamThreshold should not be negative, was " + beamThreshold);
+		}
+		this.beamWidth = beamWidth;
+		this.beamThreshold = beamThreshold;
+	}
+
+	public Result<S> decode(List<T> observations) {
+		checkNotNull(observations);
+		final int length = observations.size();
+		if (length < 1) {
+			throw new IllegalArgumentException("at least one observation should be provided, " + length + " given");
+		}
+
+		final int stateCount = model.stateCount;
+		final double zeroProb = model.logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+		double[] previous = new double[stateCount];
+		double[] current = new double[stateCount];
+		final int[] backPointers = new int[ViterbiKernel.trellisCells(length, stateCount)];
+		final int[] active = new int[stateCount];
+		final double[] heap = new double[Math.min(beamWidth, stateCount)];
+		long evaluatedCells = 0;
+		long prunedCells = 0;
+
+		ViterbiKernel.initialize(model, model.observation(observations.get(0)), current);
+		final int initialReachableCount = reachable(current, zeroProb);
+		int activeCount = prune(current, active, heap, zeroProb);
+		evaluatedCells += activeCount;
+		prunedCells += initialReachableCount - activeCount;
+
+		for (int step = 1; step < length; ++step) {
+			final double[] tmp = previous;
+			previous = current;
+			current = tmp;
+			Arrays.fill(current, zeroProb);
+			final int offset = step * stateCount;
+			Arrays.fill(backPointers, offset, offset + stateCount, ViterbiKernel.NO_STATE);
+			scatter(previous, current, backPointers, offset, active, activeCount);
+			emit(current, model.observation(observations.get(step)), zeroProb);
+
+			final int reachableCount = reachable(current, zeroProb);
+			activeCount = prune(current, active, heap, zeroProb);
+			evaluatedCells += activeCount;
+			prunedCells += reachableCount - activeCount;
+		}
+
+		final int[] path = new int[length];
+		ViterbiKernel.traceBack(backPointers, stateCount, length, ViterbiKernel.argMax(current, stateCount), path);
+		final List<S> states = new ArrayList<>(length);
+		for (int state : path) {
+			states.add(model.state(state));
+		}
+		return new Result<>(states, evaluatedCells, prunedCells);
+	}
+
+	// pushes every active src state to its successors; srcs are visited in ascending order, so ties resolve like the full kernels
+	private void scatter(double[] previous, double[] current, int[] backPointers, int offset, int[] active, int activeCount) {
+		final int stateCount = model.stateCount;
+		final boolean logSpace = model.logSpace;
+		if (model.transitionProbabilities == null) {
+			final int[] successorOffsets = model.successorOffsets;
+			final int[] successors = model.successors;
+			final double[] successorProbabilities = model.successorProbabilities;
+			for (int i = 0; i < activeCount; ++i) {
+				final int src = active[i];
+				final double prevProb = previous[src];
+				final int end = successorOffsets[src + 1];
+				for (int k = successorOffsets[src]; k < end; ++k) {
+					final int dest = successors[k];
+					final double prob = logSpace ? prevProb + successorProbabilities[k] : prevProb * successorProbabilities[k];
+					if (prob > current[dest]) {
+						current[dest] = prob;
+						backPointers[offset + dest] = src;
+					}
+				}
+			}
+		} else {
+			final double[] transitionProbabilities = model.transitionProbabilities;
+			for (int i = 0; i < activeCount; ++i) {
+				final int src = active[i];
+				final double prevProb = previous[src];
+				final int row = src * stateCount;
+				for (int dest = 0; dest < stateCount; ++dest) {
+					final double prob = logSpace ? prevProb + transitionProbabilities[row + dest] : prevProb * transitionProbabilities[row + dest];
+					if (prob > current[dest]) {
+						current[dest] = prob;
+						backPointers[offset + dest] = src;
+					}
+				}
+			}
+		}
+	}
+
+	private void emit(double[] current, int observation, double zeroProb) {
+		final double[] emissionColumns = model.emissionColumns;
+		final int column = observation * model.stateCount;
+		for (int state = 0; state < model.stateCount; ++state) {
+			if (current[state] > zeroProb) {
+				final double emissionProb = emissionColumns[column + state];
+				current[state] = model.logSpace ? current[state] + emissionProb : current[state] * emissionProb;
+			}
+		}
+	}
+
+	private int reachable(double[] row, double zeroProb) {
+		int count = 0;
+		for (int state = 0; state < model.stateCount; ++state) {
+			if (row[state] > zeroProb) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	// zeroes the cells outside the beam and lists the remaining states in ascending order
+	private int prune(double[] row, int[] active, double[] heap, double zeroProb) {
+		final int stateCount = model.stateCount;
+		double best = zeroProb;
+		for (int state = 0; state < stateCount; ++state) {
+			best = Math.max(best, row[state]);
+		}
+		if (best == zeroProb) {
+			return 0;
+		}
+
+		double cutoff = model.logSpace ? best - beamThreshold : best * Math.exp(-beamThreshold);
+		if (beamWidth < stateCount) {
+			cutoff = Math.max(cutoff, kthLargest(row, heap, zeroProb));
+		}
+
+		int activeCount = 0;
+		for (int state = 0; state < stateCount; ++state) {
+			if (row[state] > zeroProb && row[state] >= cutoff && activeCount < beamWidth) {
+				active[activeCount++] = state;
+			} else {
+				row[state] = zeroProb;
+			}
+		}
+		return activeCount;
+	}
+
+	// the beamWidth-th largest value of row, through a min-heap of the best values seen so far
+	private static double kthLargest(double[] row, double[] heap, double zeroProb) {
+		int size = 0;
+		for (double value : row) {
+			if (value <= zeroProb) {
+				continue;
+			}
+			if (size < heap.length) {
+				int i = size++;
+				while (i > 0 && heap[(i - 1) / 2] > value) {
+					heap[i] = heap[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+				heap[i] = value;
+			} else if (value > heap[0]) {
+				int i = 0;
+				while (true) {
+					int child = 2 * i + 1;
+					if (child >= size) {
+						break;
+					}
+					if (child + 1 < size && heap[child + 1] < heap[child]) {
+						++child;
+					}
+					if (heap[child] >= value) {
+						break;
+					}
+					heap[i] = heap[child];
+					i = child;
+				}
+				heap[i] = value;
+			}
+		}
+		return size < heap.length ? zeroProb : heap[0];
+	}
+}
@@ -0,0 +1,94 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// memory-bounded decoding: the forward pass keeps only a score row every checkpointInterval positions (about sqrt(N) by default),
+// the traceback recomputes the backpointers one segment at a time from those rows, so memory is O(sqrt(N) * states)
+// instead of O(N * states) for about twice the work
+public class CheckpointedViterbiDecoder<S, T> {
+	private final CompiledViterbiModel<S, T> model;
+	// 0 means sqrt(N)
+	private final int checkpointInterval;
+
+	public CheckpointedViterbiDecoder(CompiledViterbiModel<S, T> model) {
+		this.model = checkNotNull(model);
+		this.checkpointInterval = 0;
+	}
+
+	public CheckpointedViterbiDecoder(CompiledViterbiModel<S, T> model, int checkpointInterval) {
+		this.model = checkNotNull(model);
+		if (checkpointInterval < 1) {
+			throw new IllegalArgumentException("checkpointInterval should be positive, was " + checkpointInterval);
+		}
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	public List<S> decode(List<T> observations) {
+		checkNotNull(observations);
+		final int length = observations.size();
+		if (length < 1) {
+			throw new IllegalArgumentException("at least one observation should be provided, " + length + " given");
+		}
+		final int[] symbols = model.toIndices(observations);
+		final int stateCount = model.stateCount;
+		final int interval = checkpointInterval > 0 ? checkpointInterval : Math.max(1, (int) Math.ceil(Math.sqrt(length)));
+		final int segmentCount = (length + interval - 1) / interval;
+
+		// checkpoints[k] is the score row at position k * interval - 1, the one segment k starts from
+		final double[][] checkpoints = new double[segmentCount][];
+		final int[] segmentBackPointers = new int[ViterbiKernel.trellisCells(interval, stateCount)];
+		double[] previous = new double[stateCount];
+		double[] current = new double[stateCount];
+
+		ViterbiKernel.initialize(model, symbols[0], current);
+		for (int position = 1; position < length; ++position) {
+			if (position % interval == 0) {
+				checkpoints[position / interval] = current.clone();
+			}
+			final double[] tmp = previous;
+			previous = current;
+			current = tmp;
+			ViterbiKernel.step(model, previous, current, segmentBackPointers, 0, symbols[position]);
+		}
+
+		final int[] path = new int[length];
+		int state = ViterbiKernel.argMax(current, stateCount);
+		for (int segment = segmentCount - 1; segment >= 0; --segment) {
+			final int from = segment * interval;
+			final int to = Math.min(from + interval, length);
+
+			// recompute the backpointer columns [from, to) of this segment, column from - 1 is never needed
+			final int firstStep;
+			if (segment == 0) {
+				ViterbiKernel.initialize(model, symbols[0], current);
+				firstStep = 1;
+			} else {
+				System.arraycopy(checkpoints[segment], 0, current, 0, stateCount);
+				firstStep = from;
+			}
+			for (int position = firstStep; position < to; ++position) {
+				final double[] tmp = previous;
+				previous = current;
+				current = tmp;
+				ViterbiKernel.step(model, previous, current, segmentBackPointers, (position - from) * stateCount, symbols[position]);
+			}
+
+			for (int position = to - 1; position >= from; --position) {
+				path[position] = state;
+				if (state != ViterbiKernel.NO_STATE && position > 0) {
+					state = segmentBackPointers[(position - from) * stateCount + state];
+				}
+			}
+			checkpoints[segment] = null;
+		}
+
+		final List<S> result = new ArrayList<>(length);
+		for (int i : path) {
+			result.add(model.state(i));
+		}
+		return result;
+	}
+}
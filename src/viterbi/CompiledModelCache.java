@@ -0,0 +1,106 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import viterbi.Viterbi.ViterbiModel;
+
+// a bounded, least recently used cache of compiled models keyed by content hash: models built or loaded separately with
+// the same content share one validated, compiled instance, so any number of decoders can share its arrays
+public class CompiledModelCache {
+	private final int maxEntries;
+	// table models are keyed by their own content hash, which covers their transition storage setting, compiled models
+	// by their content hash combined with their storage; both map to the shared instance
+	private final LinkedHashMap<HashCode, CachedModel> entries;
+
+	public CompiledModelCache(int maxEntries) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries should be positive, was " + maxEntries);
+		}
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<HashCode, CachedModel>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<HashCode, CachedModel> eldest) {
+				return size() > CompiledModelCache.this.maxEntries;
+			}
+		};
+	}
+
+	// a compiled model with the model it was made for, so that a hash collision is told from a hit
+	private static final class CachedModel {
+		final Object source;
+		final CompiledViterbiModel<?, ?> compiled;
+
+		CachedModel(Object source, CompiledViterbiModel<?, ?> compiled) {
+			this.source = source;
+			this.compiled = compiled;
+		}
+
+		boolean matches(Object model) {
+			if (source instanceof ViterbiModel && model instanceof ViterbiModel) {
+				return ((ViterbiModel<?, ?>) source).hasSameContent((ViterbiModel<?, ?>) model);
+			}
+			if (source instanceof CompiledViterbiModel && model instanceof CompiledViterbiModel) {
+				return ((CompiledViterbiModel<?, ?>) source).hasSameContent((CompiledViterbiModel<?, ?>) model);
+			}
+			return false;
+		}
+	}
+
+	// the compiled form of a model with the same content, compiled (and validated) on a miss
+	public <S extends Enum<S>, T extends Enum<T>> CompiledViterbiModel<S, T> compile(ViterbiModel<S, T> model) {
+		final HashCode key = checkNotNull(model).contentHash();
+		final CompiledViterbiModel<S, T> cached = get(key, model);
+		if (cached != null) {
+			return cached;
+		}
+		final CompiledViterbiModel<S, T> compiled = intern(CompiledViterbiModel.compile(model));
+		return putIfAbsent(key, model, compiled);
+	}
+
+	// a cached model with the same content and transition storage as model, or model itself, which is cached from then on
+	public <S, T> CompiledViterbiModel<S, T> intern(CompiledViterbiModel<S, T> model) {
+		final HashCode key = Hashing.murmur3_128().newHasher()
+				.putBytes(checkNotNull(model).contentHash().asBytes())
+				.putBoolean(model.isSparse())
+				.hash();
+		return putIfAbsent(key, model, model);
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	// an entry that matches model has the labels, so the type arguments, of model
+	@SuppressWarnings("unchecked")
+	private synchronized <S, T> CompiledViterbiModel<S, T> get(HashCode key, Object model) {
+		final CachedModel entry = entries.get(key);
+		return entry != null && entry.matches(model) ? (CompiledViterbiModel<S, T>) entry.compiled : null;
+	}
+
+	// a colliding model of other content is returned uncached, the entry that holds its key stays
+	@SuppressWarnings("unchecked")
+	private synchronized <S, T> CompiledViterbiModel<S, T> putIfAbsent(HashCode key, Object model, CompiledViterbiModel<S, T> compiled) {
+		final CachedModel entry = entries.get(key);
+		if (entry != null) {
+			return entry.matches(model) ? (CompiledViterbiModel<S, T>) entry.compiled : compiled;
+		}
+		entries.put(key, new CachedModel(model, compiled));
+		return compiled;
+	}
+}
@@ -0,0 +1,135 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class CompiledViterbiMachine<S, T> {
+	// below this many states a step is cheaper than forking it
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 256;
+
+	private final CompiledViterbiModel<S, T> model;
+	private final int[] observations;
+
+	// null when every step runs on the calling thread
+	private final ForkJoinPool pool;
+	private final int parallelThreshold;
+
+	private final ViterbiMetrics metrics;
+
+	private double[] previous;
+	private double[] current;
+	// [step * stateCount + state], the first column is never read
+	private final int[] backPointers;
+
+	private int step;
+
+	public CompiledViterbiMachine(CompiledViterbiModel<S, T> model, List<T> observations) {
+		this(model, observations, null, DEFAULT_PARALLEL_THRESHOLD, ViterbiMetrics.NONE);
+	}
+
+	public CompiledViterbiMachine(CompiledViterbiModel<S, T> model, List<T> observations, ViterbiMetrics metrics) {
+		this(model, observations, null, DEFAULT_PARALLEL_THRESHOLD, metrics);
+	}
+
+	public CompiledViterbiMachine(CompiledViterbiModel<S, T> model, List<T> observations, ForkJoinPool pool) {
+		this(model, observations, checkNotNull(pool), DEFAULT_PARALLEL_THRESHOLD, ViterbiMetrics.NONE);
+	}
+
+	// splits each step's dest states across pool for models with at least parallelThreshold states
+	public CompiledViterbiMachine(CompiledViterbiModel<S, T> model, List<T> observations, ForkJoinPool pool, int parallelThreshold) {
+		this(model, observations, pool, parallelThreshold, ViterbiMetrics.NONE);
+	}
+
+	public CompiledViterbiMachine(CompiledViterbiModel<S, T> model, List<T> observations, ForkJoinPool pool, int parallelThreshold, ViterbiMetrics metrics) {
+		this.model = checkNotNull(model);
+		checkNotNull(observations);
+		if (observations.size() < 1) {
+			throw new IllegalArgumentException("at least one observation should be provided, " + observations.size() + " given");
+		}
+		if (parallelThreshold < 1) {
+			throw new IllegalArgumentException("parallelThreshold should be positive, was " + parallelThreshold);
+		}
+		this.observations = model.toIndices(observations);
+		this.pool = pool;
+		this.parallelThreshold = parallelThreshold;
+		this.metrics = checkNotNull(metrics);
+
+		previous = new double[model.stateCount];
+		current = new double[model.stateCount];
+		backPointers = new int[ViterbiKernel.trellisCells(this.observations.length, model.stateCount)];
+
+		initialize();
+	}
+
+	private void initialize() {
+		final long start = metrics == ViterbiMetrics.NONE ? 0 : System.nanoTime();
+		ViterbiKernel.initialize(model, observations[0], current);
+		step = 1;
+		if (metrics != ViterbiMetrics.NONE) {
+			metrics.initialized(System.nanoTime() - start);
+		}
+	}
+
+	public void nextStep() {
+		if (step >= observations.length) {
+			throw new IllegalStateException("already finished last step");
+		}
+
+		final long start = metrics == ViterbiMetrics.NONE ? 0 : System.nanoTime();
+		final double[] tmp = previous;
+		previous = current;
+		current = tmp;
+		ViterbiKernel.step(pool, parallelThreshold, model, previous, current, backPointers, step * model.stateCount, observations[step]);
+		if (metrics != ViterbiMetrics.NONE) {
+			metrics.stepped(1, System.nanoTime() - start, ViterbiKernel.cellsPerStep(model), ViterbiKernel.zeroCells(model, current));
+		}
+
+		++step;
+	}
+
+	public List<S> finish() {
+		final int[] path = traceBack();
+		final List<S> result = new ArrayList<>(path.length);
+		for (int state : path) {
+			result.add(model.state(state));
+		}
+		return result;
+	}
+
+	// the path with its log score, and with the log score of every prefix if stepScores is set
+	public ViterbiResult<S> finishResult(boolean stepScores) {
+		final int[] path = traceBack();
+		return ViterbiResult.of(model, observations, path, path.length, stepScores);
+	}
+
+	private int[] traceBack() {
+		if (step != observations.length) {
+			throw new IllegalStateException("step = " + step);
+		}
+
+		final long start = metrics == ViterbiMetrics.NONE ? 0 : System.nanoTime();
+		final int[] path = new int[observations.length];
+		ViterbiKernel.traceBack(backPointers, model.stateCount, observations.length, ViterbiKernel.argMax(current, model.stateCount), path);
+		if (metrics != ViterbiMetrics.NONE) {
+			metrics.finished(System.nanoTime() - start, observations.length, 4L * backPointers.length + 8L * (previous.length + current.length));
+		}
+		return path;
+	}
+
+	public List<S> calculate() {
+		for (int i = 0; i < observations.length - 1; ++i) {
+			nextStep();
+		}
+		return finish();
+	}
+
+	public ViterbiResult<S> calculateResult(boolean stepScores) {
+		for (int i = 0; i < observations.length - 1; ++i) {
+			nextStep();
+		}
+		return finishResult(stepScores);
+	}
+}
@@ -0,0 +1,501 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Table.Cell;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import viterbi.Viterbi.ViterbiMachine;
+import viterbi.Viterbi.ViterbiModel;
+import viterbi.Viterbi.ViterbiModel.TransitionStorage;
+
+public final class CompiledViterbiModel<S, T> {
+	// TransitionStorage.AUTO compiles to sparse storage at or below this ratio of non-zero transitions
+	public static final double SPARSE_DENSITY_THRESHOLD = 0.25;
+
+	private final Vocabulary<S> states;
+	private final Vocabulary<T> observations;
+
+	final int stateCount;
+	final int observationCount;
+	// when set, the matrices below hold natural logarithms of the probabilities
+	final boolean logSpace;
+
+	// indexed by state index
+	final double[] initialDistributions;
+	// row-major, [src * stateCount + dest], null for sparse models
+	final double[] transitionProbabilities;
+	// the column of each symbol, [observation * stateCount + state]
+	final double[] emissionColumns;
+
+	// sparse models only: the non-zero predecessors of dest are
+	// predecessors[predecessorOffsets[dest] .. predecessorOffsets[dest + 1]) in ascending order,
+	// with the matching transition probabilities in predecessorProbabilities
+	final int[] predecessorOffsets;
+	final int[] predecessors;
+	final double[] predecessorProbabilities;
+	// sparse models only: the same transitions grouped by src state
+	final int[] successorOffsets;
+	final int[] successors;
+	final double[] successorProbabilities;
+
+	// derived from the emissions: the states that can emit each symbol,
+	// emittingStates[emittingOffsets[observation] .. emittingOffsets[observation + 1]) ascending
+	final int[] emittingOffsets;
+	final int[] emittingStates;
+
+	private volatile HashCode contentHash;
+
+	CompiledViterbiModel(Vocabulary<S> states, Vocabulary<T> observations, boolean logSpace,
+			double[] initialDistributions, double[] transitionProbabilities, double[] emissionColumns,
+			int[] predecessorOffsets, int[] predecessors, double[] predecessorProbabilities,
+			int[] successorOffsets, int[] successors, double[] successorProbabilities) {
+		this.states = states;
+		this.observations = observations;
+		this.stateCount = states.size();
+		this.observationCount = observations.size();
+		this.logSpace = logSpace;
+		this.initialDistributions = initialDistributions;
+		this.transitionProbabilities = transitionProbabilities;
+		this.emissionColumns = emissionColumns;
+		this.predecessorOffsets = predecessorOffsets;
+		this.predecessors = predecessors;
+		this.predecessorProbabilities = predecessorProbabilities;
+		this.successorOffsets = successorOffsets;
+		this.successors = successors;
+		this.successorProbabilities = successorProbabilities;
+
+		final double zeroProb = logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+		this.emittingOffsets = new int[observationCount + 1];
+		int emitting = 0;
+		for (int observation = 0; observation < observationCount; ++observation) {
+			for (int state = 0; state < stateCount; ++state) {
+				if (emissionColumns[observation * stateCount + state] != zeroProb) {
+					++emitting;
+				}
+			}
+			emittingOffsets[observation + 1] = emitting;
+		}
+		this.emittingStates = new int[emitting];
+		for (int observation = 0, i = 0; observation < observationCount; ++observation) {
+			for (int state = 0; state < stateCount; ++state) {
+				if (emissionColumns[observation * stateCount + state] != zeroProb) {
+					emittingStates[i++] = state;
+				}
+			}
+		}
+	}
+
+	// the enum adapter: validates the table model like ViterbiMachine does, then compiles it through the int-indexed builder;
+	// the result is kept by the model, so every later call returns the same instance
+	public static <S extends Enum<S>, T extends Enum<T>> CompiledViterbiModel<S, T> compile(ViterbiModel<S, T> model) {
+		checkNotNull(model);
+		final CompiledViterbiModel<S, T> compiled = model.compiled;
+		if (compiled != null) {
+			return compiled;
+		}
+
+		final ImmutableList<S> stateList;
+		try {
+			stateList = ImmutableList.copyOf(ViterbiMachine.getEnumsFromIterator(model.initialDistributions.keySet().iterator()));
+		} catch (IllegalStateException ise) {
+			throw new IllegalArgumentException("empty states enum, or no explicit initial distribution provided", ise);
+		}
+		ViterbiMachine.validateModel(model, stateList);
+		final Vocabulary<S> states = Vocabulary.ofEnum(stateList.get(0).getDeclaringClass());
+		final Vocabulary<T> observations = Vocabulary.ofEnum(ViterbiMachine.getEnumsFromIterator(model.emissionProbabilities.columnKeySet().iterator())[0].getDeclaringClass());
+
+		final Builder<S, T> builder = builder(states, observations)
+				.withLogSpace(model.logSpace)
+				.withTransitionStorage(model.transitionStorage);
+		for (Map.Entry<S, Double> entry : model.initialDistributions.entrySet()) {
+			builder.withInitialDistribution(entry.getKey().ordinal(), entry.getValue());
+		}
+		for (Cell<S, S, Double> cell : model.transitionProbabilities.cellSet()) {
+			builder.withTransitionProbability(cell.getRowKey().ordinal(), cell.getColumnKey().ordinal(), cell.getValue());
+		}
+		for (Cell<S, T, Double> cell : model.emissionProbabilities.cellSet()) {
+			builder.withEmissionProbability(cell.getRowKey().ordinal(), cell.getColumnKey().ordinal(), cell.getValue());
+		}
+		final CompiledViterbiModel<S, T> ret = builder.assemble();
+		model.compiled = ret;
+		return ret;
+	}
+
+	public static <S, T> Builder<S, T> builder(Vocabulary<S> states, Vocabulary<T> observations) {
+		return new Builder<>(checkNotNull(states), checkNotNull(observations));
+	}
+
+	// builds a model straight from int indices, for alphabets only known at runtime; probabilities are given
+	// in probability space, log-space models take their logarithms when built
+	public static final class Builder<S, T> {
+		private final Vocabulary<S> states;
+		private final Vocabulary<T> observations;
+		private final int stateCount;
+		private final int observationCount;
+		private final double[] initialDistributions;
+		// [observation * stateCount + state], like the compiled model
+		private final double[] emissionColumns;
+		// the non-zero transitions in the order they were added
+		private int[] sources = new int[16];
+		private int[] destinations = new int[16];
+		private double[] values = new double[16];
+		private int transitionCount;
+		private boolean logSpace;
+		private TransitionStorage transitionStorage = TransitionStorage.AUTO;
+
+		private Builder(Vocabulary<S> states, Vocabulary<T> observations) {
+			this.states = states;
+			this.observations = observations;
+			this.stateCount = states.size();
+			this.observationCount = observations.size();
+			this.initialDistributions = new double[stateCount];
+			this.emissionColumns = new double[ViterbiKernel.tableCells("an emission table", observationCount, stateCount)];
+		}
+
+		public Builder<S, T> withInitialDistribution(int state, double prob) {
+			initialDistributions[checkElementIndex(state, stateCount, "state")] = checkProbability("initial distribution", prob);
+			return this;
+		}
+
+		// zero transitions are left out, they are the default
+		public Builder<S, T> withTransitionProbability(int src, int dest, double prob) {
+			checkElementIndex(src, stateCount, "src");
+			checkElementIndex(dest, stateCount, "dest");
+			if (checkProbability("transition probability", prob) > 0.0) {
+				if (transitionCount == sources.length) {
+					final int capacity = ViterbiKernel.grow(transitionCount, transitionCount + 1);
+					sources = Arrays.copyOf(sources, capacity);
+					destinations = Arrays.copyOf(destinations, capacity);
+					values = Arrays.copyOf(values, capacity);
+				}
+				sources[transitionCount] = src;
+				destinations[transitionCount] = dest;
+				values[transitionCount] = prob;
+				++transitionCount;
+			}
+			return this;
+		}
+
+		public Builder<S, T> withEmissionProbability(int state, int observation, double prob) {
+			checkElementIndex(state, stateCount, "state");
+			checkElementIndex(observation, observationCount, "observation");
+			emissionColumns[observation * stateCount + state] = checkProbability("emission probability", prob);
+			return this;
+		}
+
+		// NaN would pass the sum checks unnoticed, a negative probability could be made up for by another one of its row
+		private static double checkProbability(String name, double prob) {
+			if (prob < 0.0 || Double.isNaN(prob)) {
+				throw new IllegalArgumentException(name + " should not be negative or NaN, was " + prob);
+			}
+			return prob;
+		}
+
+		public Builder<S, T> withLogSpace(boolean logSpace) {
+			this.logSpace = logSpace;
+			return this;
+		}
+
+		public Builder<S, T> withTransitionStorage(TransitionStorage transitionStorage) {
+			this.transitionStorage = checkNotNull(transitionStorage);
+			return this;
+		}
+
+		public CompiledViterbiModel<S, T> build() {
+			final int[] order = sortTransitions();
+			double sumInitProbs = 0.0;
+			for (double prob : initialDistributions) {
+				sumInitProbs += prob;
+			}
+			if (!ViterbiMachine.doublesEqual(sumInitProbs, 1.0)) {
+				throw new IllegalArgumentException("the sum of initial distributions should be 1.0, was " + sumInitProbs);
+			}
+			final double[] rowSums = new double[stateCount];
+			for (int i = 0; i < transitionCount; ++i) {
+				rowSums[sources[i]] += values[i];
+			}
+			for (int state = 0; state < stateCount; ++state) {
+				if (!ViterbiMachine.doublesEqual(rowSums[state], 1.0)) {
+					throw new IllegalArgumentException("sum of transition probabilities for each state should be one, was " + rowSums[state] + " for state " + states.get(state));
+				}
+			}
+			for (int state = 0; state < stateCount; ++state) {
+				double sumRowProbs = 0.0;
+				for (int observation = 0; observation < observationCount; ++observation) {
+					sumRowProbs += emissionColumns[observation * stateCount + state];
+				}
+				if (!ViterbiMachine.doublesEqual(sumRowProbs, 1.0)) {
+					throw new IllegalArgumentException("sum of emission probabilities for each state should be one, was " + sumRowProbs + " for state " + states.get(state));
+				}
+			}
+			return assemble(order);
+		}
+
+		CompiledViterbiModel<S, T> assemble() {
+			return assemble(sortTransitions());
+		}
+
+		// the transitions ordered by (src, dest), through two stable counting sorts: by dest, then by src
+		private int[] sortTransitions() {
+			final int[] bySrcAndDest = countingSort(sources, countingSort(destinations, identity(transitionCount)));
+			for (int i = 1; i < transitionCount; ++i) {
+				final int a = bySrcAndDest[i - 1];
+				final int b = bySrcAndDest[i];
+				if (sources[a] == sources[b] && destinations[a] == destinations[b]) {
+					throw new IllegalArgumentException("duplicate transition from " + states.get(sources[b]) + " to " + states.get(destinations[b]));
+				}
+			}
+			return bySrcAndDest;
+		}
+
+		// lays the transitions out dense or as predecessor and successor lists, without validating the probabilities
+		private CompiledViterbiModel<S, T> assemble(int[] bySrcAndDest) {
+			final boolean sparse = transitionStorage == TransitionStorage.SPARSE
+					|| (transitionStorage == TransitionStorage.AUTO && transitionCount <= (long) stateCount * stateCount * SPARSE_DENSITY_THRESHOLD);
+
+			final double[] initial = initialDistributions.clone();
+			final double[] emissions = emissionColumns.clone();
+			double[] transitionProbabilities = null;
+			int[] predecessorOffsets = null;
+			int[] predecessors = null;
+			double[] predecessorProbabilities = null;
+			int[] successorOffsets = null;
+			int[] successors = null;
+			double[] successorProbabilities = null;
+			if (sparse) {
+				successorOffsets = new int[stateCount + 1];
+				successors = new int[transitionCount];
+				successorProbabilities = new double[transitionCount];
+				for (int i = 0; i < transitionCount; ++i) {
+					final int transition = bySrcAndDest[i];
+					++successorOffsets[sources[transition] + 1];
+					successors[i] = destinations[transition];
+					successorProbabilities[i] = values[transition];
+				}
+				for (int src = 0; src < stateCount; ++src) {
+					successorOffsets[src + 1] += successorOffsets[src];
+				}
+
+				// sorting the (src, dest) order stably by dest keeps every predecessor list in ascending order, as the dense kernel scans them
+				final int[] byDestAndSrc = countingSort(destinations, bySrcAndDest);
+				predecessorOffsets = new int[stateCount + 1];
+				predecessors = new int[transitionCount];
+				predecessorProbabilities = new double[transitionCount];
+				for (int i = 0; i < transitionCount; ++i) {
+					final int transition = byDestAndSrc[i];
+					++predecessorOffsets[destinations[transition] + 1];
+					predecessors[i] = sources[transition];
+					predecessorProbabilities[i] = values[transition];
+				}
+				for (int dest = 0; dest < stateCount; ++dest) {
+					predecessorOffsets[dest + 1] += predecessorOffsets[dest];
+				}
+			} else {
+				transitionProbabilities = new double[ViterbiKernel.tableCells("a transition table", stateCount, stateCount)];
+				for (int i = 0; i < transitionCount; ++i) {
+					transitionProbabilities[sources[i] * stateCount + destinations[i]] = values[i];
+				}
+			}
+
+			if (logSpace) {
+				toLogSpace(initial);
+				toLogSpace(emissions);
+				if (sparse) {
+					toLogSpace(predecessorProbabilities);
+					toLogSpace(successorProbabilities);
+				} else {
+					toLogSpace(transitionProbabilities);
+				}
+			}
+
+			return new CompiledViterbiModel<>(states, observations, logSpace, initial, transitionProbabilities, emissions,
+					predecessorOffsets, predecessors, predecessorProbabilities,
+					successorOffsets, successors, successorProbabilities);
+		}
+
+		private int[] identity(int length) {
+			final int[] ret = new int[length];
+			for (int i = 0; i < length; ++i) {
+				ret[i] = i;
+			}
+			return ret;
+		}
+
+		// the transitions of order, stably sorted by keys[transition]
+		private int[] countingSort(int[] keys, int[] order) {
+			final int[] starts = new int[stateCount + 1];
+			for (int transition : order) {
+				++starts[keys[transition] + 1];
+			}
+			for (int key = 0; key < stateCount; ++key) {
+				starts[key + 1] += starts[key];
+			}
+			final int[] ret = new int[order.length];
+			for (int transition : order) {
+				ret[starts[keys[transition]]++] = transition;
+			}
+			return ret;
+		}
+	}
+
+	private static void toLogSpace(double[] probabilities) {
+		for (int i = 0; i < probabilities.length; ++i) {
+			probabilities[i] = Math.log(probabilities[i]);
+		}
+	}
+
+	public ImmutableList<S> getStates() {
+		return states.getLabels();
+	}
+
+	public ImmutableList<T> getObservations() {
+		return observations.getLabels();
+	}
+
+	public Vocabulary<S> getStateVocabulary() {
+		return states;
+	}
+
+	public Vocabulary<T> getObservationVocabulary() {
+		return observations;
+	}
+
+	public int getStateCount() {
+		return stateCount;
+	}
+
+	public int getObservationCount() {
+		return observationCount;
+	}
+
+	public boolean isLogSpace() {
+		return logSpace;
+	}
+
+	public boolean isSparse() {
+		return transitionProbabilities == null;
+	}
+
+	// a hash of the labels, settings and non-zero probabilities, stable across runs and the same for dense and sparse storage
+	public HashCode contentHash() {
+		HashCode ret = contentHash;
+		if (ret == null) {
+			final double zeroProb = logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+			final Hasher hasher = Hashing.murmur3_128().newHasher().putBoolean(logSpace);
+			putLabels(hasher, states);
+			putLabels(hasher, observations);
+			for (double prob : initialDistributions) {
+				hasher.putDouble(prob);
+			}
+			// the non-zero transitions in src-major order, which both storages give
+			if (transitionProbabilities != null) {
+				for (int src = 0; src < stateCount; ++src) {
+					for (int dest = 0; dest < stateCount; ++dest) {
+						final double prob = transitionProbabilities[src * stateCount + dest];
+						if (prob != zeroProb) {
+							hasher.putInt(src).putInt(dest).putDouble(prob);
+						}
+					}
+				}
+			} else {
+				for (int src = 0; src < stateCount; ++src) {
+					for (int i = successorOffsets[src]; i < successorOffsets[src + 1]; ++i) {
+						hasher.putInt(src).putInt(successors[i]).putDouble(successorProbabilities[i]);
+					}
+				}
+			}
+			hasher.putInt(-1);
+			for (int state = 0; state < stateCount; ++state) {
+				for (int observation = 0; observation < observationCount; ++observation) {
+					hasher.putDouble(emissionColumns[observation * stateCount + state]);
+				}
+			}
+			ret = hasher.hash();
+			contentHash = ret;
+		}
+		return ret;
+	}
+
+	// whether other has the same labels, settings, probabilities and transition storage, compared exactly rather than by hash
+	boolean hasSameContent(CompiledViterbiModel<?, ?> other) {
+		return logSpace == other.logSpace
+				&& states.getLabels().equals(other.states.getLabels())
+				&& observations.getLabels().equals(other.observations.getLabels())
+				&& Arrays.equals(initialDistributions, other.initialDistributions)
+				&& Arrays.equals(emissionColumns, other.emissionColumns)
+				&& Arrays.equals(transitionProbabilities, other.transitionProbabilities)
+				&& Arrays.equals(successorOffsets, other.successorOffsets)
+				&& Arrays.equals(successors, other.successors)
+				&& Arrays.equals(successorProbabilities, other.successorProbabilities);
+	}
+
+	private static void putLabels(Hasher hasher, Vocabulary<?> vocabulary) {
+		hasher.putInt(vocabulary.size());
+		for (Object label : vocabulary.getLabels()) {
+			putString(hasher, label.getClass().getName());
+			putString(hasher, label.toString());
+		}
+	}
+
+	private static void putString(Hasher hasher, String value) {
+		hasher.putInt(value.length()).putString(value, StandardCharsets.UTF_8);
+	}
+
+	// the getters below return log-probabilities for log-space models
+
+	public double getInitialDistribution(S state) {
+		return initialDistributions[states.indexOf(state)];
+	}
+
+	public double getTransitionProbability(S src, S dest) {
+		return transitionProbability(states.indexOf(src), states.indexOf(dest));
+	}
+
+	public double getEmissionProbability(S state, T observation) {
+		return emissionColumns[observations.indexOf(observation) * stateCount + states.indexOf(state)];
+	}
+
+	double transitionProbability(int src, int dest) {
+		if (transitionProbabilities != null) {
+			return transitionProbabilities[src * stateCount + dest];
+		}
+		final int index = Arrays.binarySearch(predecessors, predecessorOffsets[dest], predecessorOffsets[dest + 1], src);
+		if (index < 0) {
+			return logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+		}
+		return predecessorProbabilities[index];
+	}
+
+	public CompiledViterbiMachine<S, T> newMachine(List<T> observations) {
+		return new CompiledViterbiMachine<>(this, observations);
+	}
+
+	public CompiledViterbiMachine<S, T> newMachine(List<T> observations, ForkJoinPool pool) {
+		return new CompiledViterbiMachine<>(this, observations, pool);
+	}
+
+	int[] toIndices(List<T> observations) {
+		final int[] ret = new int[observations.size()];
+		this.observations.toIndices(observations, ret);
+		return ret;
+	}
+
+	int observation(T observation) {
+		return observations.indexOf(observation);
+	}
+
+	S state(int index) {
+		return index < 0 ? null : states.get(index);
+	}
+}
@@ -0,0 +1,53 @@
+package viterbi;
+
+// per-thread working memory of a decode, grown on demand and reused across sequences
+final class DecoderScratch {
+	// shared per-thread scratch drops backpointer matrices above this many cells after a decode, so one long sequence
+	// does not pin its trellis to a pool thread for good
+	static final int RETAINED_CELLS = 1 << 22;
+
+	double[] previous;
+	double[] current;
+	int[] observations;
+	int[] backPointers;
+	int[] path;
+	// the transitions among the states emitting runSymbol of runModel, gathered by ViterbiKernel for runs of the symbol
+	double[] runTransitions;
+	CompiledViterbiModel<?, ?> runModel;
+	int runSymbol;
+
+	DecoderScratch(int stateCount) {
+		previous = new double[stateCount];
+		current = new double[stateCount];
+		observations = new int[0];
+		backPointers = new int[0];
+		path = new int[0];
+		runTransitions = new double[0];
+	}
+
+	void ensureCapacity(int length, int stateCount) {
+		final int cells = ViterbiKernel.trellisCells(length, stateCount);
+		if (observations.length < length) {
+			final int capacity = ViterbiKernel.grow(observations.length, length);
+			observations = new int[capacity];
+			path = new int[capacity];
+		}
+		if (backPointers.length < cells) {
+			backPointers = new int[ViterbiKernel.grow(backPointers.length, cells)];
+		}
+	}
+
+	void trim() {
+		if (backPointers.length > RETAINED_CELLS) {
+			backPointers = new int[0];
+		}
+		if (observations.length > RETAINED_CELLS) {
+			observations = new int[0];
+			path = new int[0];
+		}
+		if (runTransitions.length > RETAINED_CELLS) {
+			runTransitions = new double[0];
+			runModel = null;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+
+// a reusable single-threaded decode: reset() loads an observation sequence, decode() writes its path into a caller-supplied
+// int[] or List. the scratch arrays only grow, so once they fit the longest sequence a decode allocates nothing
+public class DecoderSession<S, T> implements AutoCloseable {
+	private final CompiledViterbiModel<S, T> model;
+	private final ViterbiMetrics metrics;
+	private final DecoderScratch scratch;
+	// the pool this session returns to on close(), null for standalone sessions
+	private final DecoderSessionPool<S, T> pool;
+	// pooled sessions only: set while checked out of the pool
+	boolean inUse;
+
+	private int length;
+
+	public DecoderSession(CompiledViterbiModel<S, T> model) {
+		this(model, ViterbiMetrics.NONE, null);
+	}
+
+	DecoderSession(CompiledViterbiModel<S, T> model, ViterbiMetrics metrics, DecoderSessionPool<S, T> pool) {
+		this.model = checkNotNull(model);
+		this.metrics = checkNotNull(metrics);
+		this.pool = pool;
+		this.scratch = new DecoderScratch(model.stateCount);
+	}
+
+	public CompiledViterbiModel<S, T> getModel() {
+		return model;
+	}
+
+	public DecoderSession<S, T> reset(List<T> observations) {
+		checkNotNull(observations);
+		final int length = checkLength(observations.size());
+		scratch.ensureCapacity(length, model.stateCount);
+		model.getObservationVocabulary().toIndices(observations, scratch.observations);
+		this.length = length;
+		return this;
+	}
+
+	// observations[0 .. length) are vocabulary indices
+	public DecoderSession<S, T> reset(int[] observations, int length) {
+		checkNotNull(observations);
+		checkLength(length);
+		if (length > observations.length) {
+			throw new IllegalArgumentException("length = " + length + ", but only " + observations.length + " observations given");
+		}
+		for (int i = 0; i < length; ++i) {
+			checkElementIndex(observations[i], model.observationCount, "observation");
+		}
+		scratch.ensureCapacity(length, model.stateCount);
+		System.arraycopy(observations, 0, scratch.observations, 0, length);
+		this.length = length;
+		return this;
+	}
+
+	private static int checkLength(int length) {
+		if (length < 1) {
+			throw new IllegalArgumentException("at least one observation should be provided, " + length + " given");
+		}
+		return length;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	// writes the state indices of the path to path[0 .. getLength()), -1 where no state is possible
+	public void decode(int[] path) {
+		checkNotNull(path);
+		run();
+		if (path.length < length) {
+			throw new IllegalArgumentException("path should hold at least " + length + " states, has " + path.length);
+		}
+		System.arraycopy(scratch.path, 0, path, 0, length);
+	}
+
+	// replaces the contents of path with the decoded states
+	public void decode(List<? super S> path) {
+		checkNotNull(path);
+		run();
+		path.clear();
+		for (int i = 0; i < length; ++i) {
+			path.add(model.state(scratch.path[i]));
+		}
+	}
+
+	private void run() {
+		if (length == 0) {
+			throw new IllegalStateException("reset() should be called before decode()");
+		}
+		ViterbiKernel.decode(model, length, scratch, metrics);
+	}
+
+	// returns pooled sessions to their pool, the session should not be used afterwards
+	@Override
+	public void close() {
+		if (pool != null) {
+			if (!inUse) {
+				throw new IllegalStateException("session already returned to its pool");
+			}
+			inUse = false;
+			length = 0;
+			pool.release(this);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// hands out at most maxSessions sessions of one model, created on demand and reused after close();
+// when every session is in use acquire() blocks, which bounds both the memory and the concurrency of decoding
+public class DecoderSessionPool<S, T> {
+	private final CompiledViterbiModel<S, T> model;
+	private final ViterbiMetrics metrics;
+	private final int maxSessions;
+	private final ArrayBlockingQueue<DecoderSession<S, T>> idle;
+	private final AtomicInteger created = new AtomicInteger();
+
+	public DecoderSessionPool(CompiledViterbiModel<S, T> model, int maxSessions) {
+		this(model, maxSessions, ViterbiMetrics.NONE);
+	}
+
+	public DecoderSessionPool(CompiledViterbiModel<S, T> model, int maxSessions, ViterbiMetrics metrics) {
+		this.model = checkNotNull(model);
+		this.metrics = checkNotNull(metrics);
+		if (maxSessions < 1) {
+			throw new IllegalArgumentException("maxSessions should be positive, was " + maxSessions);
+		}
+		this.maxSessions = maxSessions;
+		this.idle = new ArrayBlockingQueue<>(maxSessions);
+	}
+
+	public DecoderSession<S, T> acquire() throws InterruptedException {
+		final DecoderSession<S, T> session = tryCreate();
+		return checkOut(session != null ? session : idle.take());
+	}
+
+	// null if no session became free within timeout
+	public DecoderSession<S, T> tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+		final DecoderSession<S, T> session = tryCreate();
+		return checkOut(session != null ? session : idle.poll(timeout, unit));
+	}
+
+	private DecoderSession<S, T> checkOut(DecoderSession<S, T> session) {
+		if (session != null) {
+			session.inUse = true;
+		}
+		return session;
+	}
+
+	// an idle session, or a new one while fewer than maxSessions exist
+	private DecoderSession<S, T> tryCreate() {
+		final DecoderSession<S, T> session = idle.poll();
+		if (session != null) {
+			return session;
+		}
+		int count;
+		while ((count = created.get()) < maxSessions) {
+			if (created.compareAndSet(count, count + 1)) {
+				return new DecoderSession<>(model, metrics, this);
+			}
+		}
+		return null;
+	}
+
+	void release(DecoderSession<S, T> session) {
+		idle.offer(session);
+	}
+
+	public int getMaxSessions() {
+		return maxSessions;
+	}
+
+	public int getIdleCount() {
+		return idle.size();
+	}
+}
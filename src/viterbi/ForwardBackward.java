@@ -0,0 +1,408 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.google.common.collect.ImmutableList;
+
+// per-position state posteriors of a compiled model, thread-safe like ViterbiDecoder.
+// every forward row is normalized to sum to one, the log-likelihood is the sum of the logs of those scales;
+// this keeps long sequences in range without an exp or a log per cell, log-space models are exponentiated once here
+public class ForwardBackward<S, T> {
+	// a fork-join task is split until it holds at most this many sequences per worker and split level
+	private static final int TASKS_PER_THREAD = 4;
+
+	private final CompiledViterbiModel<S, T> model;
+	private final ForkJoinPool pool;
+	private final ThreadLocal<Scratch> scratch;
+
+	// probability-space copies of the model's matrices, the model's own arrays when it is not in log-space
+	private final double[] initialDistributions;
+	private final double[] transitionProbabilities;
+	// [observation * stateCount + state]
+	private final double[] emissionColumns;
+	private final double[] predecessorProbabilities;
+	private final double[] successorProbabilities;
+
+	public static class Posteriors<S> {
+		private final Vocabulary<S> states;
+		private final int length;
+		private final double[] probabilities;
+		private final double logLikelihood;
+
+		Posteriors(Vocabulary<S> states, int length, double[] probabilities, double logLikelihood) {
+			this.states = states;
+			this.length = length;
+			this.probabilities = probabilities;
+			this.logLikelihood = logLikelihood;
+		}
+
+		public int getLength() {
+			return length;
+		}
+
+		// row-major, [position * stateCount + state index], every row sums to one
+		public double[] getProbabilities() {
+			return probabilities;
+		}
+
+		public double getProbability(int position, S state) {
+			return probabilities[position * states.size() + states.indexOf(state)];
+		}
+
+		// natural logarithm of the probability of the observations, negative infinity when they are impossible
+		public double getLogLikelihood() {
+			return logLikelihood;
+		}
+
+		// the most probable state of every position on its own, which need not be a possible path as a whole
+		public List<S> getPath() {
+			final int stateCount = states.size();
+			final List<S> path = new ArrayList<>(length);
+			for (int position = 0; position < length; ++position) {
+				final int offset = position * stateCount;
+				int best = ViterbiKernel.NO_STATE;
+				double bestProb = 0.0;
+				for (int state = 0; state < stateCount; ++state) {
+					if (probabilities[offset + state] > bestProb) {
+						bestProb = probabilities[offset + state];
+						best = state;
+					}
+				}
+				path.add(best == ViterbiKernel.NO_STATE ? null : states.get(best));
+			}
+			return path;
+		}
+	}
+
+	public ForwardBackward(CompiledViterbiModel<S, T> model) {
+		this(model, ForkJoinPool.commonPool());
+	}
+
+	public ForwardBackward(CompiledViterbiModel<S, T> model, ForkJoinPool pool) {
+		this.model = checkNotNull(model);
+		this.pool = checkNotNull(pool);
+		final int stateCount = model.stateCount;
+		this.scratch = ThreadLocal.withInitial(() -> new Scratch(stateCount));
+
+		initialDistributions = probabilities(model.initialDistributions);
+		transitionProbabilities = probabilities(model.transitionProbabilities);
+		emissionColumns = probabilities(model.emissionColumns);
+		predecessorProbabilities = probabilities(model.predecessorProbabilities);
+		successorProbabilities = probabilities(model.successorProbabilities);
+	}
+
+	private double[] probabilities(double[] values) {
+		if (values == null || !model.logSpace) {
+			return values;
+		}
+		final double[] ret = new double[values.length];
+		for (int i = 0; i < values.length; ++i) {
+			ret[i] = Math.exp(values[i]);
+		}
+		return ret;
+	}
+
+	public CompiledViterbiModel<S, T> getModel() {
+		return model;
+	}
+
+	public Posteriors<S> posteriors(List<T> observations) {
+		checkNotNull(observations);
+		final double[] probabilities = new double[ViterbiKernel.trellisCells(observations.size(), model.stateCount)];
+		final double logLikelihood = posteriors(observations, probabilities);
+		return new Posteriors<>(model.getStateVocabulary(), observations.size(), probabilities, logLikelihood);
+	}
+
+	// allocation-free variant: writes the posteriors to probabilities[position * stateCount + state] and returns the log-likelihood;
+	// impossible observations leave every posterior at zero
+	public double posteriors(List<T> observations, double[] probabilities) {
+		checkNotNull(observations);
+		checkNotNull(probabilities);
+		final int length = observations.size();
+		if (length < 1) {
+			throw new IllegalArgumentException("at least one observation should be provided, " + length + " given");
+		}
+		final int stateCount = model.stateCount;
+		final int cells = ViterbiKernel.trellisCells(length, stateCount);
+		if (probabilities.length < cells) {
+			throw new IllegalArgumentException("probabilities should hold at least " + cells + " values, has " + probabilities.length);
+		}
+
+		final Scratch scratch = this.scratch.get();
+		scratch.ensureCapacity(length);
+		model.getObservationVocabulary().toIndices(observations, scratch.observations);
+
+		final double logLikelihood = forward(scratch, length, probabilities);
+		if (logLikelihood == Double.NEGATIVE_INFINITY) {
+			Arrays.fill(probabilities, 0, cells, 0.0);
+		} else {
+			backward(scratch, length, probabilities, null);
+		}
+		return logLikelihood;
+	}
+
+	// the e-step of baum-welch: adds the expected initial, transition and emission counts of observations and returns
+	// their log-likelihood, impossible observations add nothing
+	double accumulate(int[] observations, int length, double[] initialCounts, double[] transitionCounts, double[] emissionCounts) {
+		final Scratch scratch = this.scratch.get();
+		scratch.ensureCapacity(length);
+		System.arraycopy(observations, 0, scratch.observations, 0, length);
+		scratch.ensureAlpha(ViterbiKernel.trellisCells(length, model.stateCount));
+		try {
+			return accumulate(scratch, observations, length, scratch.alpha, initialCounts, transitionCounts, emissionCounts);
+		} finally {
+			scratch.trim();
+		}
+	}
+
+	private double accumulate(Scratch scratch, int[] observations, int length, double[] gamma, double[] initialCounts, double[] transitionCounts, double[] emissionCounts) {
+		final int stateCount = model.stateCount;
+		final int observationCount = model.observationCount;
+		final double logLikelihood = forward(scratch, length, gamma);
+		if (logLikelihood == Double.NEGATIVE_INFINITY) {
+			return logLikelihood;
+		}
+		backward(scratch, length, gamma, transitionCounts);
+		for (int state = 0; state < stateCount; ++state) {
+			initialCounts[state] += gamma[state];
+		}
+		for (int position = 0; position < length; ++position) {
+			final int offset = position * stateCount;
+			final int observation = observations[position];
+			for (int state = 0; state < stateCount; ++state) {
+				emissionCounts[state * observationCount + observation] += gamma[offset + state];
+			}
+		}
+		return logLikelihood;
+	}
+
+	public double logLikelihood(List<T> observations) {
+		checkNotNull(observations);
+		final int length = observations.size();
+		if (length < 1) {
+			throw new IllegalArgumentException("at least one observation should be provided, " + length + " given");
+		}
+		final Scratch scratch = this.scratch.get();
+		scratch.ensureCapacity(length);
+		model.getObservationVocabulary().toIndices(observations, scratch.observations);
+		scratch.ensureAlpha(ViterbiKernel.trellisCells(length, model.stateCount));
+		final double logLikelihood = forward(scratch, length, scratch.alpha);
+		scratch.trim();
+		return logLikelihood;
+	}
+
+	// computes the posteriors of every sequence on the fork-join pool, results are in the iteration order of sequences
+	public List<Posteriors<S>> posteriorsAll(Collection<? extends List<T>> sequences) {
+		final List<? extends List<T>> sequenceList = ImmutableList.copyOf(checkNotNull(sequences));
+		if (sequenceList.isEmpty()) {
+			return ImmutableList.of();
+		}
+		// every task sets its own elements only
+		final List<Posteriors<S>> results = new ArrayList<>(Collections.nCopies(sequenceList.size(), null));
+		final int threshold = Math.max(1, results.size() / (pool.getParallelism() * TASKS_PER_THREAD));
+		pool.invoke(new PosteriorsAllTask(sequenceList, results, 0, results.size(), threshold));
+		return results;
+	}
+
+	// scaled forward pass into alpha, the scales go to scratch.scales; negative infinity as soon as a row sums to zero
+	private double forward(Scratch scratch, int length, double[] alpha) {
+		final int stateCount = model.stateCount;
+		final int[] observations = scratch.observations;
+		final double[] scales = scratch.scales;
+
+		double logLikelihood = 0.0;
+		for (int position = 0; position < length; ++position) {
+			final int offset = position * stateCount;
+			final int observation = observations[position];
+			if (position == 0) {
+				for (int state = 0; state < stateCount; ++state) {
+					alpha[state] = initialDistributions[state];
+				}
+			} else if (transitionProbabilities == null) {
+				final int[] predecessorOffsets = model.predecessorOffsets;
+				final int[] predecessors = model.predecessors;
+				final int previousOffset = offset - stateCount;
+				for (int dest = 0; dest < stateCount; ++dest) {
+					double sum = 0.0;
+					final int end = predecessorOffsets[dest + 1];
+					for (int k = predecessorOffsets[dest]; k < end; ++k) {
+						sum += alpha[previousOffset + predecessors[k]] * predecessorProbabilities[k];
+					}
+					alpha[offset + dest] = sum;
+				}
+			} else {
+				Arrays.fill(alpha, offset, offset + stateCount, 0.0);
+				final int previousOffset = offset - stateCount;
+				for (int src = 0; src < stateCount; ++src) {
+					final double prevProb = alpha[previousOffset + src];
+					if (prevProb == 0.0) {
+						continue;
+					}
+					final int row = src * stateCount;
+					for (int dest = 0; dest < stateCount; ++dest) {
+						alpha[offset + dest] += prevProb * transitionProbabilities[row + dest];
+					}
+				}
+			}
+
+			double scale = 0.0;
+			final int column = observation * stateCount;
+			for (int state = 0; state < stateCount; ++state) {
+				final double prob = alpha[offset + state] * emissionColumns[column + state];
+				alpha[offset + state] = prob;
+				scale += prob;
+			}
+			if (scale == 0.0) {
+				return Double.NEGATIVE_INFINITY;
+			}
+			final double inverse = 1.0 / scale;
+			for (int state = 0; state < stateCount; ++state) {
+				alpha[offset + state] *= inverse;
+			}
+			scales[position] = scale;
+			logLikelihood += Math.log(scale);
+		}
+		return logLikelihood;
+	}
+
+	// scaled backward pass, multiplies every beta row into the matching alpha row of probabilities
+	// with transitionCounts, also adds the expected number of times every transition is taken, laid out like the model's
+	// transitions: [src * stateCount + dest] for dense models, the successor index for sparse ones
+	private void backward(Scratch scratch, int length, double[] probabilities, double[] transitionCounts) {
+		final int stateCount = model.stateCount;
+		final int[] observations = scratch.observations;
+		final double[] scales = scratch.scales;
+		double[] beta = scratch.beta;
+		double[] next = scratch.next;
+		final double[] weighted = scratch.weighted;
+
+		Arrays.fill(beta, 1.0);
+		for (int position = length - 2; position >= 0; --position) {
+			final double[] tmp = next;
+			next = beta;
+			beta = tmp;
+
+			// weighted[dest] = e(dest, o[position + 1]) * beta[position + 1][dest] / c[position + 1]
+			final int column = observations[position + 1] * stateCount;
+			final double inverse = 1.0 / scales[position + 1];
+			for (int dest = 0; dest < stateCount; ++dest) {
+				weighted[dest] = emissionColumns[column + dest] * next[dest] * inverse;
+			}
+
+			if (transitionProbabilities == null) {
+				final int[] successorOffsets = model.successorOffsets;
+				final int[] successors = model.successors;
+				for (int src = 0; src < stateCount; ++src) {
+					double sum = 0.0;
+					final int end = successorOffsets[src + 1];
+					for (int k = successorOffsets[src]; k < end; ++k) {
+						sum += successorProbabilities[k] * weighted[successors[k]];
+					}
+					beta[src] = sum;
+					if (transitionCounts != null) {
+						// xi(src, dest) = alpha(src) * a(src, dest) * weighted(dest), probabilities still holds alpha here
+						final double alpha = probabilities[position * stateCount + src];
+						for (int k = successorOffsets[src]; k < end; ++k) {
+							transitionCounts[k] += alpha * successorProbabilities[k] * weighted[successors[k]];
+						}
+					}
+				}
+			} else {
+				for (int src = 0; src < stateCount; ++src) {
+					double sum = 0.0;
+					final int row = src * stateCount;
+					for (int dest = 0; dest < stateCount; ++dest) {
+						sum += transitionProbabilities[row + dest] * weighted[dest];
+					}
+					beta[src] = sum;
+					if (transitionCounts != null) {
+						final double alpha = probabilities[position * stateCount + src];
+						for (int dest = 0; dest < stateCount; ++dest) {
+							transitionCounts[row + dest] += alpha * transitionProbabilities[row + dest] * weighted[dest];
+						}
+					}
+				}
+			}
+
+			final int offset = position * stateCount;
+			for (int state = 0; state < stateCount; ++state) {
+				probabilities[offset + state] *= beta[state];
+			}
+		}
+	}
+
+	// per-thread working memory, grown on demand and reused across sequences
+	private static final class Scratch {
+		int[] observations = new int[0];
+		double[] scales = new double[0];
+		double[] alpha = new double[0];
+		final double[] beta;
+		final double[] next;
+		final double[] weighted;
+
+		Scratch(int stateCount) {
+			beta = new double[stateCount];
+			next = new double[stateCount];
+			weighted = new double[stateCount];
+		}
+
+		void ensureCapacity(int length) {
+			if (observations.length < length) {
+				final int capacity = ViterbiKernel.grow(observations.length, length);
+				observations = new int[capacity];
+				scales = new double[capacity];
+			}
+		}
+
+		void ensureAlpha(int size) {
+			if (alpha.length < size) {
+				alpha = new double[ViterbiKernel.grow(alpha.length, size)];
+			}
+		}
+
+		void trim() {
+			if (alpha.length > DecoderScratch.RETAINED_CELLS) {
+				alpha = new double[0];
+			}
+		}
+	}
+
+	private final class PosteriorsAllTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<? extends List<T>> sequences;
+		private final List<Posteriors<S>> results;
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		PosteriorsAllTask(List<? extends List<T>> sequences, List<Posteriors<S>> results, int from, int to, int threshold) {
+			this.sequences = sequences;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= threshold) {
+				for (int i = from; i < to; ++i) {
+					results.set(i, posteriors(sequences.get(i)));
+				}
+			} else {
+				final int middle = (from + to) >>> 1;
+				invokeAll(new PosteriorsAllTask(sequences, results, from, middle, threshold),
+						new PosteriorsAllTask(sequences, results, middle, to, threshold));
+			}
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// keeps the whole trellis of a sequence that changes by appends and point edits. an edit recomputes columns from the
+// edited position onward and stops as soon as a recomputed column equals the stored one, since every later column only
+// depends on its predecessor and its own observation. columns are stored normalized by their best score (a power of
+// two in probability space, which is exact), so a column that differs from the old one only by a constant still matches.
+// paths whose scores tie within the comparison tolerance may be resolved differently than a full decode would
+public class IncrementalViterbiDecoder<S, T> {
+	private static final int INITIAL_CAPACITY = 64;
+	// log-space columns are compared within this relative tolerance, subtracting the best score rounds differently after an edit
+	private static final double TOLERANCE = 1e-12;
+
+	private final CompiledViterbiModel<S, T> model;
+	private final int stateCount;
+	private final double zeroProb;
+
+	private int[] observations;
+	// [position * stateCount + state], normalized scores and backpointers; the first backpointer column is never read
+	private double[] scores;
+	private int[] backPointers;
+	private int[] path;
+	private int length;
+
+	// the path is up to date before this position
+	private int pathValidTo;
+	private int lastRecomputedColumns;
+
+	private final double[] previous;
+	private final double[] current;
+	private final int[] currentBackPointers;
+
+	public IncrementalViterbiDecoder(CompiledViterbiModel<S, T> model) {
+		this.model = checkNotNull(model);
+		this.stateCount = model.stateCount;
+		this.zeroProb = model.logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+		observations = new int[INITIAL_CAPACITY];
+		scores = new double[INITIAL_CAPACITY * stateCount];
+		backPointers = new int[INITIAL_CAPACITY * stateCount];
+		path = new int[INITIAL_CAPACITY];
+		previous = new double[stateCount];
+		current = new double[stateCount];
+		currentBackPointers = new int[stateCount];
+	}
+
+	public int size() {
+		return length;
+	}
+
+	public void append(T observation) {
+		final int symbol = model.observation(checkNotNull(observation));
+		ensureCapacity(length + 1);
+		observations[length] = symbol;
+		++length;
+		recompute(length - 1, length - 1);
+	}
+
+	public void appendAll(List<T> observations) {
+		checkNotNull(observations);
+		if (observations.isEmpty()) {
+			lastRecomputedColumns = 0;
+			return;
+		}
+		final int from = length;
+		ensureCapacity(length + observations.size());
+		for (T observation : observations) {
+			this.observations[length++] = model.observation(checkNotNull(observation));
+		}
+		recompute(from, from);
+	}
+
+	public void set(int position, T observation) {
+		checkElementIndex(position, length, "position");
+		observations[position] = model.observation(checkNotNull(observation));
+		recompute(position, length);
+	}
+
+	// the best path for the current observations
+	public List<S> getPath() {
+		if (length == 0) {
+			throw new IllegalStateException("no observations yet");
+		}
+		traceBack();
+		final List<S> ret = new ArrayList<>(length);
+		for (int i = 0; i < length; ++i) {
+			ret.add(model.state(path[i]));
+		}
+		return ret;
+	}
+
+	// number of trellis columns the last append, appendAll or set computed
+	public int getLastRecomputedColumns() {
+		return lastRecomputedColumns;
+	}
+
+	// columns before oldLength have a stored version to compare with, the ones after it are new
+	private void recompute(int from, int oldLength) {
+		int position = from;
+		for (; position < length; ++position) {
+			if (position == 0) {
+				ViterbiKernel.initialize(model, observations[0], current);
+				Arrays.fill(currentBackPointers, ViterbiKernel.NO_STATE);
+			} else {
+				System.arraycopy(scores, (position - 1) * stateCount, previous, 0, stateCount);
+				ViterbiKernel.step(model, previous, current, currentBackPointers, 0, observations[position]);
+			}
+			normalize(current);
+
+			final int offset = position * stateCount;
+			final boolean unchanged = position < oldLength && sameColumn(offset);
+			System.arraycopy(current, 0, scores, offset, stateCount);
+			System.arraycopy(currentBackPointers, 0, backPointers, offset, stateCount);
+			if (unchanged) {
+				++position;
+				break;
+			}
+		}
+		lastRecomputedColumns = position - from;
+		pathValidTo = Math.min(pathValidTo, from);
+	}
+
+	private void normalize(double[] row) {
+		double max = zeroProb;
+		for (int state = 0; state < stateCount; ++state) {
+			max = Math.max(max, row[state]);
+		}
+		if (max == zeroProb || Double.isInfinite(max)) {
+			return;
+		}
+		if (model.logSpace) {
+			for (int state = 0; state < stateCount; ++state) {
+				row[state] -= max;
+			}
+		} else {
+			final int exponent = -Math.getExponent(max);
+			for (int state = 0; state < stateCount; ++state) {
+				row[state] = Math.scalb(row[state], exponent);
+			}
+		}
+	}
+
+	private boolean sameColumn(int offset) {
+		for (int state = 0; state < stateCount; ++state) {
+			if (currentBackPointers[state] != backPointers[offset + state]) {
+				return false;
+			}
+			final double stored = scores[offset + state];
+			final double value = current[state];
+			if (value != stored && !(Math.abs(value - stored) <= TOLERANCE * Math.max(1.0, Math.abs(stored)))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// traces back from the end, stopping where the trace rejoins the old path before the first recomputed column
+	private void traceBack() {
+		int state = ViterbiKernel.argMax(scores, (length - 1) * stateCount, stateCount);
+		for (int position = length - 1; position >= 0; --position) {
+			if (position < pathValidTo && path[position] == state) {
+				break;
+			}
+			path[position] = state;
+			if (state != ViterbiKernel.NO_STATE && position > 0) {
+				state = backPointers[position * stateCount + state];
+			}
+		}
+		pathValidTo = length;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (observations.length >= capacity) {
+			return;
+		}
+		ViterbiKernel.trellisCells(capacity, stateCount);
+		final int newCapacity = Math.max(capacity, Math.min(ViterbiKernel.grow(observations.length, capacity), ViterbiKernel.MAX_ARRAY_SIZE / stateCount));
+		observations = Arrays.copyOf(observations, newCapacity);
+		scores = Arrays.copyOf(scores, newCapacity * stateCount);
+		backPointers = Arrays.copyOf(backPointers, newCapacity * stateCount);
+		path = Arrays.copyOf(path, newCapacity);
+	}
+}
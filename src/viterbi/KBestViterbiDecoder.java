@@ -0,0 +1,179 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.google.common.primitives.Ints;
+
+// list viterbi: every trellis cell keeps its k best partial paths, as scores and packed (src * k + rank) backpointers,
+// so the k best complete paths end in the last column. the forward pass is eager, the paths are traced back one at a
+// time as the caller asks for them, best first; ties resolve like the other kernels, so the first path is the viterbi path
+public class KBestViterbiDecoder<S, T> {
+	private final CompiledViterbiModel<S, T> model;
+	private final int k;
+
+	public static class ScoredPath<S> {
+		private final List<S> states;
+		private final double score;
+
+		ScoredPath(List<S> states, double score) {
+			this.states = states;
+			this.score = score;
+		}
+
+		public List<S> getStates() {
+			return states;
+		}
+
+		// natural log of the joint probability of the path and the observations, for probability-space models too
+		public double getScore() {
+			return score;
+		}
+	}
+
+	public KBestViterbiDecoder(CompiledViterbiModel<S, T> model, int k) {
+		this.model = checkNotNull(model);
+		if (k < 1) {
+			throw new IllegalArgumentException("k should be positive, was " + k);
+		}
+		this.k = k;
+	}
+
+	// at most k paths, fewer when fewer paths have a non-zero probability
+	public Iterator<ScoredPath<S>> decode(List<T> observations) {
+		checkNotNull(observations);
+		final int length = observations.size();
+		if (length < 1) {
+			throw new IllegalArgumentException("at least one observation should be provided, " + length + " given");
+		}
+
+		final int stateCount = model.stateCount;
+		final int columnSize = ViterbiKernel.trellisCells(stateCount, k);
+		final double zeroProb = model.logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+		double[] previous = new double[columnSize];
+		double[] current = new double[columnSize];
+		// [(position * stateCount + state) * k + rank], the first column is never read
+		final int[] backPointers = new int[ViterbiKernel.trellisCells(length, columnSize)];
+		final int[] observationIndices = new int[length];
+		for (int position = 0; position < length; ++position) {
+			observationIndices[position] = model.observation(observations.get(position));
+		}
+
+		ViterbiKernel.initialize(model, observationIndices[0], current);
+		// spread the single entry of every state to rank 0 of its list, from the back so nothing is overwritten
+		for (int state = stateCount - 1; state >= 0; --state) {
+			final double prob = current[state];
+			for (int rank = k - 1; rank >= 0; --rank) {
+				current[state * k + rank] = rank == 0 ? prob : zeroProb;
+			}
+		}
+
+		for (int position = 1; position < length; ++position) {
+			final double[] tmp = previous;
+			previous = current;
+			current = tmp;
+			step(previous, current, backPointers, position * columnSize, observationIndices[position], zeroProb);
+		}
+
+		// order the entries of the last column best first, ties by state and rank as argMax does
+		final double[] last = current;
+		final List<Integer> ends = new ArrayList<>();
+		for (int entry = 0; entry < columnSize; ++entry) {
+			if (last[entry] > zeroProb) {
+				ends.add(entry);
+			}
+		}
+		ends.sort((a, b) -> last[a] != last[b] ? Double.compare(last[b], last[a]) : Integer.compare(a, b));
+		final int[] order = Ints.toArray(ends.subList(0, Math.min(k, ends.size())));
+
+		return new Iterator<ScoredPath<S>>() {
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return next < order.length;
+			}
+
+			@Override
+			public ScoredPath<S> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				final int[] path = traceBack(backPointers, length, order[next++]);
+				// summed along the path like the other engines, rather than read from the trellis, which can underflow
+				final double score = ViterbiKernel.pathLogScore(model, observationIndices, path, length, null);
+				final List<S> states = new ArrayList<>(length);
+				for (int state : path) {
+					states.add(model.state(state));
+				}
+				return new ScoredPath<>(states, score);
+			}
+		};
+	}
+
+	// merges the k best lists of the predecessors of every dest state, then applies the emission
+	private void step(double[] previous, double[] current, int[] backPointers, int offset, int observation, double zeroProb) {
+		final int stateCount = model.stateCount;
+		final boolean logSpace = model.logSpace;
+		for (int dest = 0; dest < stateCount; ++dest) {
+			final int base = dest * k;
+			for (int rank = 0; rank < k; ++rank) {
+				current[base + rank] = zeroProb;
+				backPointers[offset + base + rank] = ViterbiKernel.NO_STATE;
+			}
+
+			if (model.transitionProbabilities == null) {
+				final int end = model.predecessorOffsets[dest + 1];
+				for (int i = model.predecessorOffsets[dest]; i < end; ++i) {
+					merge(previous, current, backPointers, offset, base, model.predecessors[i], model.predecessorProbabilities[i], logSpace);
+				}
+			} else {
+				for (int src = 0; src < stateCount; ++src) {
+					merge(previous, current, backPointers, offset, base, src, model.transitionProbabilities[src * stateCount + dest], logSpace);
+				}
+			}
+
+			final double emissionProb = model.emissionColumns[observation * stateCount + dest];
+			for (int rank = 0; rank < k && current[base + rank] > zeroProb; ++rank) {
+				current[base + rank] = logSpace ? current[base + rank] + emissionProb : current[base + rank] * emissionProb;
+			}
+		}
+	}
+
+	// inserts the extensions of src's sorted list into dest's sorted list at base; strict comparisons keep earlier srcs first on ties
+	private void merge(double[] previous, double[] current, int[] backPointers, int offset, int base, int src, double transitionProb, boolean logSpace) {
+		for (int rank = 0; rank < k; ++rank) {
+			final double prevProb = previous[src * k + rank];
+			final double prob = logSpace ? prevProb + transitionProb : prevProb * transitionProb;
+			if (!(prob > current[base + k - 1])) {
+				// the rest of src's list is no better
+				return;
+			}
+			int slot = k - 1;
+			while (slot > 0 && prob > current[base + slot - 1]) {
+				current[base + slot] = current[base + slot - 1];
+				backPointers[offset + base + slot] = backPointers[offset + base + slot - 1];
+				--slot;
+			}
+			current[base + slot] = prob;
+			backPointers[offset + base + slot] = src * k + rank;
+		}
+	}
+
+	private int[] traceBack(int[] backPointers, int length, int end) {
+		final int columnSize = model.stateCount * k;
+		final int[] path = new int[length];
+		int entry = end;
+		for (int position = length - 1; position >= 0; --position) {
+			path[position] = entry / k;
+			if (position > 0) {
+				entry = backPointers[position * columnSize + entry];
+			}
+		}
+		return path;
+	}
+}
@@ -0,0 +1,22 @@
+package viterbi;
+
+// the max-product inner loop of a dense step over a transposed (dest-major) transition matrix, so the predecessors of
+// a dest state are contiguous. best() picks the jdk.incubator.vector implementation when the module is available
+abstract class MaxProductKernel {
+	private static final String VECTOR_KERNEL = "viterbi.VectorMaxProductKernel";
+
+	// for every dest: current[dest] = max over src of previous[src] (+ in log space, * otherwise) transposed[dest * stateCount + src],
+	// backPointers[offset + dest] = the first src reaching it, or NO_STATE and the zero probability if none beats it
+	abstract void maxProduct(boolean logSpace, double[] previous, double[] transposed, int stateCount, double[] current, int[] backPointers, int offset);
+
+	abstract boolean isVectorized();
+
+	static MaxProductKernel best() {
+		try {
+			return (MaxProductKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+			// built without the vector sources, running before java 17, or started without --add-modules jdk.incubator.vector
+			return new ScalarMaxProductKernel();
+		}
+	}
+}
@@ -0,0 +1,366 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// viterbi in log space with float or fixed-point int scores and byte or short backpointers when the state count allows,
+// which shrinks the backpointer matrix, the dominant allocation of a decode, to a quarter or a half. every column is
+// shifted so that its best score is zero, so the scores never lose precision to their magnitude on long sequences.
+// paths whose scores differ by less than the precision may be resolved differently than a double precision decode would.
+// thread-safe
+public class ReducedPrecisionViterbiDecoder<S, T> {
+	public enum Precision {
+		// 32-bit float log probabilities
+		FLOAT,
+		// log probabilities rounded to multiples of 1 / QUANTIZED_SCALE
+		QUANTIZED
+	}
+
+	static final int QUANTIZED_SCALE = 1 << 16;
+	// the quantized score of an impossible cell; scores further below the best score of their column are treated as
+	// impossible too. the sum of three scores never overflows an int
+	static final int IMPOSSIBLE = -(1 << 29);
+
+	private final CompiledViterbiModel<S, T> model;
+	private final Precision precision;
+	private final int stateCount;
+	// dense models: [dest * stateCount + src], sparse models: aligned with model.predecessors
+	private final float[] floatTransitions;
+	private final float[] floatInitial;
+	// [observation * stateCount + state]
+	private final float[] floatEmissions;
+	private final int[] quantizedTransitions;
+	private final int[] quantizedInitial;
+	private final int[] quantizedEmissions;
+
+	public ReducedPrecisionViterbiDecoder(CompiledViterbiModel<S, T> model, Precision precision) {
+		this.model = checkNotNull(model);
+		this.precision = checkNotNull(precision);
+		this.stateCount = model.stateCount;
+		final double[] transitions;
+		if (model.transitionProbabilities == null) {
+			transitions = log(model, model.predecessorProbabilities);
+		} else {
+			transitions = new double[stateCount * stateCount];
+			for (int src = 0; src < stateCount; ++src) {
+				for (int dest = 0; dest < stateCount; ++dest) {
+					transitions[dest * stateCount + src] = model.transitionProbabilities[src * stateCount + dest];
+				}
+			}
+			logInPlace(model, transitions);
+		}
+		final double[] initial = log(model, model.initialDistributions);
+		final double[] emissions = log(model, model.emissionColumns);
+		if (precision == Precision.FLOAT) {
+			floatTransitions = toFloat(transitions);
+			floatInitial = toFloat(initial);
+			floatEmissions = toFloat(emissions);
+			quantizedTransitions = null;
+			quantizedInitial = null;
+			quantizedEmissions = null;
+		} else {
+			floatTransitions = null;
+			floatInitial = null;
+			floatEmissions = null;
+			quantizedTransitions = quantize(transitions);
+			quantizedInitial = quantize(initial);
+			quantizedEmissions = quantize(emissions);
+		}
+	}
+
+	private static double[] log(CompiledViterbiModel<?, ?> model, double[] values) {
+		final double[] ret = values.clone();
+		logInPlace(model, ret);
+		return ret;
+	}
+
+	private static void logInPlace(CompiledViterbiModel<?, ?> model, double[] values) {
+		if (!model.logSpace) {
+			for (int i = 0; i < values.length; ++i) {
+				values[i] = Math.log(values[i]);
+			}
+		}
+	}
+
+	private static float[] toFloat(double[] values) {
+		final float[] ret = new float[values.length];
+		for (int i = 0; i < values.length; ++i) {
+			ret[i] = (float) values[i];
+		}
+		return ret;
+	}
+
+	private static int[] quantize(double[] values) {
+		final int[] ret = new int[values.length];
+		for (int i = 0; i < values.length; ++i) {
+			ret[i] = quantize(values[i]);
+		}
+		return ret;
+	}
+
+	// possible log probabilities stay above IMPOSSIBLE however small they are
+	static int quantize(double logProb) {
+		if (logProb == Double.NEGATIVE_INFINITY) {
+			return IMPOSSIBLE;
+		}
+		return (int) Math.max(IMPOSSIBLE + 1, Math.round(logProb * QUANTIZED_SCALE));
+	}
+
+	public CompiledViterbiModel<S, T> getModel() {
+		return model;
+	}
+
+	public Precision getPrecision() {
+		return precision;
+	}
+
+	// bytes per backpointer: 1 up to 128 states, 2 up to 32768 states, 4 above
+	int backPointerBytes() {
+		return BackPointers.bytesFor(stateCount);
+	}
+
+	public List<S> decode(List<T> observations) {
+		checkNotNull(observations);
+		final int[] indices = new int[checkLength(observations.size())];
+		model.getObservationVocabulary().toIndices(observations, indices);
+		final int[] path = run(indices);
+		final List<S> ret = new ArrayList<>(path.length);
+		for (int state : path) {
+			ret.add(model.state(state));
+		}
+		return ret;
+	}
+
+	// the int-indexed api: observations and the returned path are vocabulary indices, -1 where no state is possible
+	public int[] decode(int[] observations) {
+		checkNotNull(observations);
+		checkLength(observations.length);
+		for (int observation : observations) {
+			checkElementIndex(observation, model.observationCount, "observation");
+		}
+		return run(observations);
+	}
+
+	private static int checkLength(int length) {
+		if (length < 1) {
+			throw new IllegalArgumentException("at least one observation should be provided, " + length + " given");
+		}
+		return length;
+	}
+
+	private int[] run(int[] observations) {
+		final int length = observations.length;
+		final BackPointers backPointers = new BackPointers(ViterbiKernel.trellisCells(length, stateCount), stateCount);
+		final int lastState = precision == Precision.FLOAT ? runFloat(observations, backPointers) : runQuantized(observations, backPointers);
+		final int[] path = new int[length];
+		int state = lastState;
+		for (int i = length - 1; i >= 0; --i) {
+			path[i] = state;
+			state = state == ViterbiKernel.NO_STATE || i == 0 ? ViterbiKernel.NO_STATE : backPointers.get(i * stateCount + state);
+		}
+		return path;
+	}
+
+	// the first best state of the last column. impossible columns are stepped like the full kernels step them, so an
+	// impossible sequence traces back the same path as in every other engine
+	private int runFloat(int[] observations, BackPointers backPointers) {
+		float[] previous = new float[stateCount];
+		float[] current = new float[stateCount];
+		final int firstColumn = observations[0] * stateCount;
+		for (int state = 0; state < stateCount; ++state) {
+			current[state] = floatInitial[state] + floatEmissions[firstColumn + state];
+		}
+		normalize(current);
+		for (int i = 1; i < observations.length; ++i) {
+			final float[] swap = previous;
+			previous = current;
+			current = swap;
+			if (model.transitionProbabilities == null) {
+				stepFloatSparse(previous, current, backPointers, i * stateCount, observations[i] * stateCount);
+			} else {
+				stepFloatDense(previous, current, backPointers, i * stateCount, observations[i] * stateCount);
+			}
+			normalize(current);
+		}
+		for (int state = 0; state < stateCount; ++state) {
+			if (current[state] == 0.0f) {
+				return state;
+			}
+		}
+		return 0;
+	}
+
+	private void stepFloatDense(float[] previous, float[] current, BackPointers backPointers, int offset, int column) {
+		final float[] transitions = floatTransitions;
+		for (int dest = 0; dest < stateCount; ++dest) {
+			final int row = dest * stateCount;
+			float maxScore = Float.NEGATIVE_INFINITY;
+			int prevStateWithMaxScore = ViterbiKernel.NO_STATE;
+			for (int src = 0; src < stateCount; ++src) {
+				final float score = previous[src] + transitions[row + src];
+				if (score > maxScore) {
+					maxScore = score;
+					prevStateWithMaxScore = src;
+				}
+			}
+			current[dest] = maxScore + floatEmissions[column + dest];
+			backPointers.set(offset + dest, prevStateWithMaxScore);
+		}
+	}
+
+	private void stepFloatSparse(float[] previous, float[] current, BackPointers backPointers, int offset, int column) {
+		final int[] predecessorOffsets = model.predecessorOffsets;
+		final int[] predecessors = model.predecessors;
+		final float[] transitions = floatTransitions;
+		for (int dest = 0; dest < stateCount; ++dest) {
+			float maxScore = Float.NEGATIVE_INFINITY;
+			int prevStateWithMaxScore = ViterbiKernel.NO_STATE;
+			final int end = predecessorOffsets[dest + 1];
+			for (int i = predecessorOffsets[dest]; i < end; ++i) {
+				final float score = previous[predecessors[i]] + transitions[i];
+				if (score > maxScore) {
+					maxScore = score;
+					prevStateWithMaxScore = predecessors[i];
+				}
+			}
+			current[dest] = maxScore + floatEmissions[column + dest];
+			backPointers.set(offset + dest, prevStateWithMaxScore);
+		}
+	}
+
+	// shifts row so that its best score is zero, a row of impossible cells is left as it is
+	private static void normalize(float[] row) {
+		float max = Float.NEGATIVE_INFINITY;
+		for (float score : row) {
+			max = Math.max(max, score);
+		}
+		if (max == Float.NEGATIVE_INFINITY) {
+			return;
+		}
+		for (int state = 0; state < row.length; ++state) {
+			row[state] -= max;
+		}
+	}
+
+	private int runQuantized(int[] observations, BackPointers backPointers) {
+		int[] previous = new int[stateCount];
+		int[] current = new int[stateCount];
+		final int firstColumn = observations[0] * stateCount;
+		for (int state = 0; state < stateCount; ++state) {
+			current[state] = Math.max(IMPOSSIBLE, quantizedInitial[state] + quantizedEmissions[firstColumn + state]);
+		}
+		normalize(current);
+		for (int i = 1; i < observations.length; ++i) {
+			final int[] swap = previous;
+			previous = current;
+			current = swap;
+			if (model.transitionProbabilities == null) {
+				stepQuantizedSparse(previous, current, backPointers, i * stateCount, observations[i] * stateCount);
+			} else {
+				stepQuantizedDense(previous, current, backPointers, i * stateCount, observations[i] * stateCount);
+			}
+			normalize(current);
+		}
+		for (int state = 0; state < stateCount; ++state) {
+			if (current[state] == 0) {
+				return state;
+			}
+		}
+		return 0;
+	}
+
+	private void stepQuantizedDense(int[] previous, int[] current, BackPointers backPointers, int offset, int column) {
+		final int[] transitions = quantizedTransitions;
+		for (int dest = 0; dest < stateCount; ++dest) {
+			final int row = dest * stateCount;
+			int maxScore = IMPOSSIBLE;
+			int prevStateWithMaxScore = ViterbiKernel.NO_STATE;
+			for (int src = 0; src < stateCount; ++src) {
+				final int score = previous[src] + transitions[row + src];
+				if (score > maxScore) {
+					maxScore = score;
+					prevStateWithMaxScore = src;
+				}
+			}
+			current[dest] = Math.max(IMPOSSIBLE, maxScore + quantizedEmissions[column + dest]);
+			backPointers.set(offset + dest, prevStateWithMaxScore);
+		}
+	}
+
+	private void stepQuantizedSparse(int[] previous, int[] current, BackPointers backPointers, int offset, int column) {
+		final int[] predecessorOffsets = model.predecessorOffsets;
+		final int[] predecessors = model.predecessors;
+		final int[] transitions = quantizedTransitions;
+		for (int dest = 0; dest < stateCount; ++dest) {
+			int maxScore = IMPOSSIBLE;
+			int prevStateWithMaxScore = ViterbiKernel.NO_STATE;
+			final int end = predecessorOffsets[dest + 1];
+			for (int i = predecessorOffsets[dest]; i < end; ++i) {
+				final int score = previous[predecessors[i]] + transitions[i];
+				if (score > maxScore) {
+					maxScore = score;
+					prevStateWithMaxScore = predecessors[i];
+				}
+			}
+			current[dest] = Math.max(IMPOSSIBLE, maxScore + quantizedEmissions[column + dest]);
+			backPointers.set(offset + dest, prevStateWithMaxScore);
+		}
+	}
+
+	// possible scores are all at most zero, so shifting them up by the best one cannot overflow
+	private static void normalize(int[] row) {
+		int max = IMPOSSIBLE;
+		for (int score : row) {
+			max = Math.max(max, score);
+		}
+		if (max == IMPOSSIBLE) {
+			return;
+		}
+		for (int state = 0; state < row.length; ++state) {
+			if (row[state] != IMPOSSIBLE) {
+				row[state] -= max;
+			}
+		}
+	}
+
+	// the narrowest array that holds every state index and NO_STATE
+	private static final class BackPointers {
+		private final byte[] bytes;
+		private final short[] shorts;
+		private final int[] ints;
+
+		BackPointers(int cells, int stateCount) {
+			final int width = bytesFor(stateCount);
+			bytes = width == Byte.BYTES ? new byte[cells] : null;
+			shorts = width == Short.BYTES ? new short[cells] : null;
+			ints = width == Integer.BYTES ? new int[cells] : null;
+		}
+
+		static int bytesFor(int stateCount) {
+			if (stateCount <= Byte.MAX_VALUE + 1) {
+				return Byte.BYTES;
+			}
+			return stateCount <= Short.MAX_VALUE + 1 ? Short.BYTES : Integer.BYTES;
+		}
+
+		void set(int index, int state) {
+			if (bytes != null) {
+				bytes[index] = (byte) state;
+			} else if (shorts != null) {
+				shorts[index] = (short) state;
+			} else {
+				ints[index] = state;
+			}
+		}
+
+		int get(int index) {
+			if (bytes != null) {
+				return bytes[index];
+			}
+			return shorts != null ? shorts[index] : ints[index];
+		}
+	}
+}
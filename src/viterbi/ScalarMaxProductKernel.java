@@ -0,0 +1,28 @@
+package viterbi;
+
+final class ScalarMaxProductKernel extends MaxProductKernel {
+
+	@Override
+	void maxProduct(boolean logSpace, double[] previous, double[] transposed, int stateCount, double[] current, int[] backPointers, int offset) {
+		final double zeroProb = logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+		for (int state = 0; state < stateCount; ++state) {
+			final int column = state * stateCount;
+			double maxProb = zeroProb;
+			int prevStateWithMaxProb = ViterbiKernel.NO_STATE;
+			for (int state2 = 0; state2 < stateCount; ++state2) {
+				final double prob = logSpace ? previous[state2] + transposed[column + state2] : previous[state2] * transposed[column + state2];
+				if (prob > maxProb) {
+					maxProb = prob;
+					prevStateWithMaxProb = state2;
+				}
+			}
+			current[state] = maxProb;
+			backPointers[offset + state] = prevStateWithMaxProb;
+		}
+	}
+
+	@Override
+	boolean isVectorized() {
+		return false;
+	}
+}
@@ -0,0 +1,154 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// viterbi over (previous state, state) pairs in log space: stateCount^3 cells per step instead of the stateCount^4 of a
+// first-order model over hand-expanded pair states. the second-order transitions are scanned dest-innermost, so every
+// cell reads them contiguously; ties keep the first prev2, like the first-order kernels. thread-safe
+public class SecondOrderViterbiDecoder<S, T> {
+	private final SecondOrderViterbiModel<S, T> model;
+	private final int stateCount;
+	private final int observationCount;
+	private final int pairCount;
+	private final double[] initialDistributions;
+	private final double[] firstTransitions;
+	private final double[] transitions;
+	// [observation * stateCount + state]
+	private final double[] emissionColumns;
+
+	public SecondOrderViterbiDecoder(SecondOrderViterbiModel<S, T> model) {
+		this.model = checkNotNull(model);
+		final CompiledViterbiModel<S, T> firstOrder = model.firstOrder;
+		this.stateCount = firstOrder.stateCount;
+		this.observationCount = firstOrder.observationCount;
+		this.pairCount = ViterbiKernel.tableCells("a transition table", stateCount, stateCount);
+		this.initialDistributions = log(firstOrder, firstOrder.initialDistributions);
+		this.firstTransitions = new double[pairCount];
+		for (int src = 0; src < stateCount; ++src) {
+			for (int dest = 0; dest < stateCount; ++dest) {
+				firstTransitions[src * stateCount + dest] = firstOrder.transitionProbability(src, dest);
+			}
+		}
+		logInPlace(firstOrder, firstTransitions);
+		this.transitions = model.transitionProbabilities.clone();
+		for (int i = 0; i < transitions.length; ++i) {
+			transitions[i] = Math.log(transitions[i]);
+		}
+		this.emissionColumns = log(firstOrder, firstOrder.emissionColumns);
+	}
+
+	private static double[] log(CompiledViterbiModel<?, ?> model, double[] values) {
+		final double[] ret = values.clone();
+		logInPlace(model, ret);
+		return ret;
+	}
+
+	private static void logInPlace(CompiledViterbiModel<?, ?> model, double[] values) {
+		if (!model.logSpace) {
+			for (int i = 0; i < values.length; ++i) {
+				values[i] = Math.log(values[i]);
+			}
+		}
+	}
+
+	public SecondOrderViterbiModel<S, T> getModel() {
+		return model;
+	}
+
+	public List<S> decode(List<T> observations) {
+		checkNotNull(observations);
+		final int[] path = decode(model.firstOrder.toIndices(observations));
+		final List<S> ret = new ArrayList<>(path.length);
+		for (int state : path) {
+			ret.add(model.firstOrder.state(state));
+		}
+		return ret;
+	}
+
+	// observations and the returned path are vocabulary indices, all -1 if no path can emit the observations
+	public int[] decode(int[] observations) {
+		checkNotNull(observations);
+		final int length = observations.length;
+		if (length < 1) {
+			throw new IllegalArgumentException("at least one observation should be provided, " + length + " given");
+		}
+		for (int observation : observations) {
+			checkElementIndex(observation, observationCount, "observation");
+		}
+
+		final int[] path = new int[length];
+		final double[] first = new double[stateCount];
+		for (int state = 0; state < stateCount; ++state) {
+			first[state] = initialDistributions[state] + emissionColumns[observations[0] * stateCount + state];
+		}
+		if (length == 1) {
+			path[0] = ViterbiKernel.argMax(first, stateCount);
+			if (first[path[0]] == Double.NEGATIVE_INFINITY) {
+				path[0] = ViterbiKernel.NO_STATE;
+			}
+			return path;
+		}
+
+		// [(prev1 * stateCount + state)], the score of the best path ending in prev1, state
+		double[] previous = new double[pairCount];
+		double[] current = new double[pairCount];
+		// [position * pairCount + prev1 * stateCount + state] = prev2, the first two columns are never read
+		final int[] backPointers = new int[ViterbiKernel.trellisCells(length, pairCount)];
+		for (int prev1 = 0; prev1 < stateCount; ++prev1) {
+			for (int state = 0; state < stateCount; ++state) {
+				current[prev1 * stateCount + state] = first[prev1] + firstTransitions[prev1 * stateCount + state] + emissionColumns[observations[1] * stateCount + state];
+			}
+		}
+		for (int position = 2; position < length; ++position) {
+			final double[] tmp = previous;
+			previous = current;
+			current = tmp;
+			step(previous, current, backPointers, position * pairCount, observations[position]);
+		}
+
+		final int last = ViterbiKernel.argMax(current, pairCount);
+		if (current[last] == Double.NEGATIVE_INFINITY) {
+			// a tie of impossible pairs has no path to trace back
+			Arrays.fill(path, ViterbiKernel.NO_STATE);
+			return path;
+		}
+		// every cell on a possible path has a predecessor
+		path[length - 1] = last % stateCount;
+		path[length - 2] = last / stateCount;
+		for (int position = length - 1; position >= 2; --position) {
+			path[position - 2] = backPointers[position * pairCount + path[position - 1] * stateCount + path[position]];
+		}
+		return path;
+	}
+
+	private void step(double[] previous, double[] current, int[] backPointers, int offset, int observation) {
+		Arrays.fill(current, Double.NEGATIVE_INFINITY);
+		Arrays.fill(backPointers, offset, offset + pairCount, ViterbiKernel.NO_STATE);
+		for (int prev1 = 0; prev1 < stateCount; ++prev1) {
+			final int cells = prev1 * stateCount;
+			for (int prev2 = 0; prev2 < stateCount; ++prev2) {
+				final double prevProb = previous[prev2 * stateCount + prev1];
+				if (prevProb == Double.NEGATIVE_INFINITY) {
+					continue;
+				}
+				final int row = (prev2 * stateCount + prev1) * stateCount;
+				for (int state = 0; state < stateCount; ++state) {
+					final double prob = prevProb + transitions[row + state];
+					if (prob > current[cells + state]) {
+						current[cells + state] = prob;
+						backPointers[offset + cells + state] = prev2;
+					}
+				}
+			}
+			final int column = observation * stateCount;
+			for (int state = 0; state < stateCount; ++state) {
+				current[cells + state] += emissionColumns[column + state];
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import viterbi.Viterbi.ViterbiMachine;
+
+// a second-order hmm: the first state and the first transition come from a first-order model, which also holds the
+// vocabularies and emissions; every later transition depends on the two previous states
+public class SecondOrderViterbiModel<S, T> {
+	final CompiledViterbiModel<S, T> firstOrder;
+	final int stateCount;
+	// [(prev2 * stateCount + prev1) * stateCount + dest], in probability space
+	final double[] transitionProbabilities;
+
+	private SecondOrderViterbiModel(CompiledViterbiModel<S, T> firstOrder, double[] transitionProbabilities) {
+		this.firstOrder = firstOrder;
+		this.stateCount = firstOrder.stateCount;
+		this.transitionProbabilities = transitionProbabilities;
+	}
+
+	public static <S, T> Builder<S, T> builder(CompiledViterbiModel<S, T> firstOrder) {
+		return new Builder<>(checkNotNull(firstOrder));
+	}
+
+	public CompiledViterbiModel<S, T> getFirstOrderModel() {
+		return firstOrder;
+	}
+
+	public double getTransitionProbability(S prev2, S prev1, S dest) {
+		final Vocabulary<S> states = firstOrder.getStateVocabulary();
+		return transitionProbabilities[(states.indexOf(prev2) * stateCount + states.indexOf(prev1)) * stateCount + states.indexOf(dest)];
+	}
+
+	public static final class Builder<S, T> {
+		private final CompiledViterbiModel<S, T> firstOrder;
+		private final int stateCount;
+		private final double[] transitionProbabilities;
+
+		private Builder(CompiledViterbiModel<S, T> firstOrder) {
+			this.firstOrder = firstOrder;
+			this.stateCount = firstOrder.stateCount;
+			this.transitionProbabilities = new double[ViterbiKernel.tableCells("a second-order transition table", (long) stateCount * stateCount, stateCount)];
+		}
+
+		public Builder<S, T> withTransitionProbability(int prev2, int prev1, int dest, double prob) {
+			checkElementIndex(prev2, stateCount, "prev2");
+			checkElementIndex(prev1, stateCount, "prev1");
+			checkElementIndex(dest, stateCount, "dest");
+			transitionProbabilities[(prev2 * stateCount + prev1) * stateCount + dest] = prob;
+			return this;
+		}
+
+		public SecondOrderViterbiModel<S, T> build() {
+			final Vocabulary<S> states = firstOrder.getStateVocabulary();
+			for (int prev2 = 0; prev2 < stateCount; ++prev2) {
+				for (int prev1 = 0; prev1 < stateCount; ++prev1) {
+					final int row = (prev2 * stateCount + prev1) * stateCount;
+					double sumRowProbs = 0.0;
+					for (int dest = 0; dest < stateCount; ++dest) {
+						sumRowProbs += transitionProbabilities[row + dest];
+					}
+					if (!ViterbiMachine.doublesEqual(sumRowProbs, 1.0)) {
+						throw new IllegalArgumentException("sum of transition probabilities for each state pair should be one, was " + sumRowProbs
+								+ " for states " + states.get(prev2) + ", " + states.get(prev1));
+					}
+				}
+			}
+			return new SecondOrderViterbiModel<>(firstOrder, transitionProbabilities.clone());
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// segmental viterbi in log space: for every position and state, the best segment of that state ending there, over every
+// duration up to maxDuration. segment emissions come from per-state prefix sums of the log emissions, so a position
+// costs stateCount^2 (entering a segment) + stateCount * maxDuration instead of the cost of a first-order model over
+// states expanded by hand into one per duration. ties keep the shortest duration and the first predecessor. thread-safe
+public class SemiMarkovViterbiDecoder<S, T> {
+	private final SemiMarkovViterbiModel<S, T> model;
+	private final int stateCount;
+	private final int observationCount;
+	private final int maxDuration;
+	private final double[] initialDistributions;
+	// [src * stateCount + dest]
+	private final double[] transitions;
+	// [observation * stateCount + state]
+	private final double[] emissionColumns;
+	// [state * maxDuration + duration - 1]
+	private final double[] durations;
+
+	public SemiMarkovViterbiDecoder(SemiMarkovViterbiModel<S, T> model) {
+		this.model = checkNotNull(model);
+		final CompiledViterbiModel<S, T> firstOrder = model.firstOrder;
+		this.stateCount = firstOrder.stateCount;
+		this.observationCount = firstOrder.observationCount;
+		this.maxDuration = model.maxDuration;
+		this.initialDistributions = log(firstOrder.logSpace, firstOrder.initialDistributions.clone());
+		final double[] transitions = new double[ViterbiKernel.tableCells("a transition table", stateCount, stateCount)];
+		for (int src = 0; src < stateCount; ++src) {
+			for (int dest = 0; dest < stateCount; ++dest) {
+				transitions[src * stateCount + dest] = firstOrder.transitionProbability(src, dest);
+			}
+		}
+		this.transitions = log(firstOrder.logSpace, transitions);
+		this.emissionColumns = log(firstOrder.logSpace, firstOrder.emissionColumns.clone());
+		this.durations = log(false, model.durationProbabilities.clone());
+	}
+
+	private static double[] log(boolean logSpace, double[] values) {
+		if (!logSpace) {
+			for (int i = 0; i < values.length; ++i) {
+				values[i] = Math.log(values[i]);
+			}
+		}
+		return values;
+	}
+
+	public SemiMarkovViterbiModel<S, T> getModel() {
+		return model;
+	}
+
+	public List<S> decode(List<T> observations) {
+		checkNotNull(observations);
+		final int[] path = decode(model.firstOrder.toIndices(observations));
+		final List<S> ret = new ArrayList<>(path.length);
+		for (int state : path) {
+			ret.add(model.firstOrder.state(state));
+		}
+		return ret;
+	}
+
+	// observations and the returned path are vocabulary indices, all -1 if no segmentation can emit the observations
+	public int[] decode(int[] observations) {
+		checkNotNull(observations);
+		final int length = observations.length;
+		if (length < 1) {
+			throw new IllegalArgumentException("at least one observation should be provided, " + length + " given");
+		}
+		for (int observation : observations) {
+			checkElementIndex(observation, observationCount, "observation");
+		}
+
+		// [position * stateCount + state] over positions 0 .. length: the sum of the finite log emissions of the state
+		// before position, and the number of zero emissions among them
+		final int prefixCells = ViterbiKernel.trellisCells(length + 1L, stateCount);
+		final double[] emitted = new double[prefixCells];
+		final int[] impossible = new int[prefixCells];
+		for (int position = 0; position < length; ++position) {
+			final int column = observations[position] * stateCount;
+			for (int state = 0; state < stateCount; ++state) {
+				final int cell = position * stateCount + state;
+				final double emissionProb = emissionColumns[column + state];
+				final boolean zero = emissionProb == Double.NEGATIVE_INFINITY;
+				emitted[cell + stateCount] = emitted[cell] + (zero ? 0.0 : emissionProb);
+				impossible[cell + stateCount] = impossible[cell] + (zero ? 1 : 0);
+			}
+		}
+
+		// [position * stateCount + state]: the best score of a segment of state starting at position, before its own
+		// duration and emissions, with the state of the previous segment; and the best score of a segment of state
+		// ending at position, with its duration
+		final int cells = ViterbiKernel.trellisCells(length, stateCount);
+		final double[] entered = new double[cells];
+		final int[] enteredFrom = new int[cells];
+		final double[] ended = new double[cells];
+		final int[] endedDuration = new int[cells];
+		System.arraycopy(initialDistributions, 0, entered, 0, stateCount);
+		Arrays.fill(enteredFrom, 0, stateCount, ViterbiKernel.NO_STATE);
+		for (int position = 0; position < length; ++position) {
+			if (position > 0) {
+				enter(ended, (position - 1) * stateCount, entered, enteredFrom, position * stateCount);
+			}
+			for (int state = 0; state < stateCount; ++state) {
+				double maxProb = Double.NEGATIVE_INFINITY;
+				int durationWithMaxProb = 0;
+				final int end = (position + 1) * stateCount + state;
+				for (int duration = 1; duration <= maxDuration && duration <= position + 1; ++duration) {
+					final int start = (position + 1 - duration) * stateCount + state;
+					if (impossible[end] != impossible[start]) {
+						// every longer segment contains the same zero emission
+						break;
+					}
+					final double prob = entered[start] + durations[state * maxDuration + duration - 1] + (emitted[end] - emitted[start]);
+					if (prob > maxProb) {
+						maxProb = prob;
+						durationWithMaxProb = duration;
+					}
+				}
+				ended[position * stateCount + state] = maxProb;
+				endedDuration[position * stateCount + state] = durationWithMaxProb;
+			}
+		}
+
+		final int[] path = new int[length];
+		int position = length - 1;
+		int state = ViterbiKernel.argMax(ended, position * stateCount, stateCount);
+		if (ended[position * stateCount + state] == Double.NEGATIVE_INFINITY) {
+			Arrays.fill(path, ViterbiKernel.NO_STATE);
+			return path;
+		}
+		while (position >= 0) {
+			final int start = position + 1 - endedDuration[position * stateCount + state];
+			Arrays.fill(path, start, position + 1, state);
+			if (start > 0) {
+				state = enteredFrom[start * stateCount + state];
+			}
+			position = start - 1;
+		}
+		return path;
+	}
+
+	// entered[offset + dest] = max over src of ended[previous + src] + transition(src, dest)
+	private void enter(double[] ended, int previous, double[] entered, int[] enteredFrom, int offset) {
+		for (int dest = 0; dest < stateCount; ++dest) {
+			double maxProb = Double.NEGATIVE_INFINITY;
+			int prevStateWithMaxProb = ViterbiKernel.NO_STATE;
+			for (int src = 0; src < stateCount; ++src) {
+				final double prob = ended[previous + src] + transitions[src * stateCount + dest];
+				if (prob > maxProb) {
+					maxProb = prob;
+					prevStateWithMaxProb = src;
+				}
+			}
+			entered[offset + dest] = maxProb;
+			enteredFrom[offset + dest] = prevStateWithMaxProb;
+		}
+	}
+}
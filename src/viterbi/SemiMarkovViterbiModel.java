@@ -0,0 +1,82 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import viterbi.Viterbi.ViterbiMachine;
+
+// an explicit-duration (semi-markov) hmm: a state is entered like in the first-order model, stays for a duration of
+// 1 .. maxDuration observations drawn from its own distribution, then moves to another state; self transitions of the
+// first-order model should be zero, staying is expressed by the durations
+public class SemiMarkovViterbiModel<S, T> {
+	final CompiledViterbiModel<S, T> firstOrder;
+	final int maxDuration;
+	// [state * maxDuration + duration - 1], in probability space
+	final double[] durationProbabilities;
+
+	private SemiMarkovViterbiModel(CompiledViterbiModel<S, T> firstOrder, int maxDuration, double[] durationProbabilities) {
+		this.firstOrder = firstOrder;
+		this.maxDuration = maxDuration;
+		this.durationProbabilities = durationProbabilities;
+	}
+
+	public static <S, T> Builder<S, T> builder(CompiledViterbiModel<S, T> firstOrder, int maxDuration) {
+		checkNotNull(firstOrder);
+		if (maxDuration < 1) {
+			throw new IllegalArgumentException("maxDuration should be positive, was " + maxDuration);
+		}
+		return new Builder<>(firstOrder, maxDuration);
+	}
+
+	public CompiledViterbiModel<S, T> getFirstOrderModel() {
+		return firstOrder;
+	}
+
+	public int getMaxDuration() {
+		return maxDuration;
+	}
+
+	public double getDurationProbability(S state, int duration) {
+		checkElementIndex(duration - 1, maxDuration, "duration - 1");
+		return durationProbabilities[firstOrder.getStateVocabulary().indexOf(state) * maxDuration + duration - 1];
+	}
+
+	public static final class Builder<S, T> {
+		private final CompiledViterbiModel<S, T> firstOrder;
+		private final int maxDuration;
+		private final double[] durationProbabilities;
+
+		private Builder(CompiledViterbiModel<S, T> firstOrder, int maxDuration) {
+			this.firstOrder = firstOrder;
+			this.maxDuration = maxDuration;
+			this.durationProbabilities = new double[ViterbiKernel.tableCells("a duration table", firstOrder.stateCount, maxDuration)];
+		}
+
+		public Builder<S, T> withDurationProbability(int state, int duration, double prob) {
+			checkElementIndex(state, firstOrder.stateCount, "state");
+			checkElementIndex(duration - 1, maxDuration, "duration - 1");
+			durationProbabilities[state * maxDuration + duration - 1] = prob;
+			return this;
+		}
+
+		public SemiMarkovViterbiModel<S, T> build() {
+			final Vocabulary<S> states = firstOrder.getStateVocabulary();
+			final double zeroProb = firstOrder.logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+			for (int state = 0; state < firstOrder.stateCount; ++state) {
+				final double selfProb = firstOrder.transitionProbability(state, state);
+				if (selfProb != zeroProb) {
+					throw new IllegalArgumentException("self transitions should be zero in an explicit-duration model, was "
+							+ (firstOrder.logSpace ? Math.exp(selfProb) : selfProb) + " for state " + states.get(state));
+				}
+				double sumRowProbs = 0.0;
+				for (int duration = 0; duration < maxDuration; ++duration) {
+					sumRowProbs += durationProbabilities[state * maxDuration + duration];
+				}
+				if (!ViterbiMachine.doublesEqual(sumRowProbs, 1.0)) {
+					throw new IllegalArgumentException("sum of duration probabilities for each state should be one, was " + sumRowProbs + " for state " + states.get(state));
+				}
+			}
+			return new SemiMarkovViterbiModel<>(firstOrder, maxDuration, durationProbabilities.clone());
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+// the states each position of an observation sequence is restricted to, for example from labeled anchors; positions
+// without a constraint allow every state. decoders skip the cells of disallowed states entirely
+public final class StateConstraints<S> {
+	private final Vocabulary<S> states;
+	private final int length;
+	// the allowed states of position are allowedStates[allowedOffsets[position] .. allowedOffsets[position + 1]) in
+	// ascending order, an empty range stands for an unconstrained position
+	final int[] allowedOffsets;
+	final int[] allowedStates;
+
+	private StateConstraints(Vocabulary<S> states, int length, int[] allowedOffsets, int[] allowedStates) {
+		this.states = states;
+		this.length = length;
+		this.allowedOffsets = allowedOffsets;
+		this.allowedStates = allowedStates;
+	}
+
+	public static <S> Builder<S> builder(Vocabulary<S> states, int length) {
+		checkNotNull(states);
+		if (length < 1) {
+			throw new IllegalArgumentException("at least one position should be constrained, " + length + " given");
+		}
+		return new Builder<>(states, length);
+	}
+
+	public Vocabulary<S> getStateVocabulary() {
+		return states;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public boolean isConstrained(int position) {
+		checkElementIndex(position, length, "position");
+		return allowedOffsets[position + 1] > allowedOffsets[position];
+	}
+
+	public boolean isAllowed(int position, S state) {
+		checkElementIndex(position, length, "position");
+		final int index = states.indexOf(state);
+		if (!isConstrained(position)) {
+			return true;
+		}
+		for (int i = allowedOffsets[position]; i < allowedOffsets[position + 1]; ++i) {
+			if (allowedStates[i] == index) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public static final class Builder<S> {
+		private final Vocabulary<S> states;
+		private final int length;
+		private final Map<Integer, BitSet> allowed = new TreeMap<>();
+
+		private Builder(Vocabulary<S> states, int length) {
+			this.states = states;
+			this.length = length;
+		}
+
+		// restricts position to the state indices set in states; constraints on one position intersect
+		public Builder<S> allow(int position, BitSet states) {
+			checkElementIndex(position, length, "position");
+			checkNotNull(states);
+			if (states.length() > this.states.size()) {
+				throw new IndexOutOfBoundsException("state (" + (states.length() - 1) + ") must be less than size (" + this.states.size() + ")");
+			}
+			final BitSet current = allowed.get(position);
+			if (current == null) {
+				allowed.put(position, (BitSet) states.clone());
+			} else {
+				current.and(states);
+			}
+			return this;
+		}
+
+		public Builder<S> allow(int position, Collection<S> states) {
+			final BitSet indices = new BitSet(this.states.size());
+			for (S state : checkNotNull(states)) {
+				indices.set(this.states.indexOf(state));
+			}
+			return allow(position, indices);
+		}
+
+		public Builder<S> force(int position, int state) {
+			checkElementIndex(state, states.size(), "state");
+			final BitSet indices = new BitSet(states.size());
+			indices.set(state);
+			return allow(position, indices);
+		}
+
+		public Builder<S> force(int position, S state) {
+			return force(position, states.indexOf(state));
+		}
+
+		public StateConstraints<S> build() {
+			final int[] allowedOffsets = new int[length + 1];
+			int count = 0;
+			for (Map.Entry<Integer, BitSet> entry : allowed.entrySet()) {
+				if (entry.getValue().isEmpty()) {
+					throw new IllegalArgumentException("no state allowed at position " + entry.getKey());
+				}
+				count += entry.getValue().cardinality();
+			}
+			final int[] allowedStates = new int[count];
+			int i = 0;
+			for (int position = 0; position < length; ++position) {
+				allowedOffsets[position] = i;
+				final BitSet states = allowed.get(position);
+				if (states != null) {
+					for (int state = states.nextSetBit(0); state >= 0; state = states.nextSetBit(state + 1)) {
+						allowedStates[i++] = state;
+					}
+				}
+			}
+			allowedOffsets[length] = i;
+			return new StateConstraints<>(states, length, allowedOffsets, allowedStates);
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+public class StreamingViterbiDecoder<S, T> {
+	private static final int INITIAL_CAPACITY = 64;
+	// probability-space rows are rescaled by a power of two (which is exact) once their maximum drops below this
+	private static final double RESCALE_THRESHOLD = 0x1.0p-512;
+
+	private final CompiledViterbiModel<S, T> model;
+	private final int maxLag;
+	private final Consumer<? super S> sink;
+	private final ViterbiMetrics metrics;
+
+	private double[] previous;
+	private double[] current;
+
+	// ring buffer of backpointer columns, position p lives in column p % capacity
+	private int[] backPointers;
+	private int capacity;
+
+	// the cells of pending positions that a surviving path runs through form a tree: childCounts holds the number of
+	// cells of the next position whose backpointer is the cell, liveCounts the number of such cells of each position.
+	// a cell left without children is dropped with the ancestors it leaves without children, so every cell is dropped
+	// at most once, and the surviving paths have merged at a position with a single cell left. ring buffers like
+	// backPointers
+	private int[] childCounts;
+	private int[] liveCounts;
+
+	// scratch for emitting committed states
+	private int[] path;
+
+	// number of observations pushed so far, and number of states already emitted
+	private long length;
+	private long committed;
+
+	public StreamingViterbiDecoder(CompiledViterbiModel<S, T> model, Consumer<? super S> sink) {
+		this(model, 0, sink);
+	}
+
+	// maxLag = 0 means no lag bound: states are only emitted once all surviving paths merge
+	public StreamingViterbiDecoder(CompiledViterbiModel<S, T> model, int maxLag, Consumer<? super S> sink) {
+		this(model, maxLag, sink, ViterbiMetrics.NONE);
+	}
+
+	public StreamingViterbiDecoder(CompiledViterbiModel<S, T> model, int maxLag, Consumer<? super S> sink, ViterbiMetrics metrics) {
+		if (maxLag < 0) {
+			throw new IllegalArgumentException("maxLag should not be negative, was " + maxLag);
+		}
+		this.model = checkNotNull(model);
+		this.maxLag = maxLag;
+		this.sink = checkNotNull(sink);
+		this.metrics = checkNotNull(metrics);
+
+		final int stateCount = model.stateCount;
+		previous = new double[stateCount];
+		current = new double[stateCount];
+		capacity = maxLag > 0 ? maxLag + 1 : INITIAL_CAPACITY;
+		backPointers = new int[capacity * stateCount];
+		childCounts = new int[capacity * stateCount];
+		liveCounts = new int[capacity];
+		path = new int[capacity];
+	}
+
+	public void push(T observation) {
+		final int symbol = model.observation(observation);
+		final long start = metrics == ViterbiMetrics.NONE ? 0 : System.nanoTime();
+		if (length == 0) {
+			ViterbiKernel.initialize(model, symbol, current);
+			if (metrics != ViterbiMetrics.NONE) {
+				metrics.initialized(System.nanoTime() - start);
+			}
+		} else {
+			if (length - committed + 1 > capacity) {
+				grow();
+			}
+			final double[] tmp = previous;
+			previous = current;
+			current = tmp;
+			ViterbiKernel.step(model, previous, current, backPointers, column(length), symbol);
+			if (!model.logSpace) {
+				rescale();
+			}
+			if (metrics != ViterbiMetrics.NONE) {
+				metrics.stepped(1, System.nanoTime() - start, ViterbiKernel.cellsPerStep(model), ViterbiKernel.zeroCells(model, current));
+			}
+		}
+		++length;
+
+		commitConverged();
+		if (maxLag > 0 && length - committed > maxLag) {
+			commit(length - maxLag, ViterbiKernel.argMax(current, model.stateCount), length - 1);
+		}
+	}
+
+	// ends the stream: emits the remaining states along the best path and resets the decoder for a new stream
+	public void flush() {
+		final long start = metrics == ViterbiMetrics.NONE ? 0 : System.nanoTime();
+		if (length > committed) {
+			commit(length, ViterbiKernel.argMax(current, model.stateCount), length - 1);
+		}
+		if (metrics != ViterbiMetrics.NONE && length > 0) {
+			// the trellis of a stream is its ring buffer of backpointer columns
+			metrics.finished(System.nanoTime() - start, (int) Math.min(length, Integer.MAX_VALUE), 4L * backPointers.length + 8L * (previous.length + current.length));
+		}
+		length = 0;
+		committed = 0;
+	}
+
+	// observations pushed but whose state is not decided yet
+	public int getPendingCount() {
+		return (int) (length - committed);
+	}
+
+	public static <S, T> Iterator<S> decode(CompiledViterbiModel<S, T> model, int maxLag, final Iterator<? extends T> observations) {
+		checkNotNull(observations);
+		final ArrayDeque<S> decoded = new ArrayDeque<>();
+		final StreamingViterbiDecoder<S, T> decoder = new StreamingViterbiDecoder<>(model, maxLag, decoded::add);
+		return new Iterator<S>() {
+			@Override
+			public boolean hasNext() {
+				while (decoded.isEmpty() && observations.hasNext()) {
+					decoder.push(observations.next());
+					if (!observations.hasNext()) {
+						decoder.flush();
+					}
+				}
+				return !decoded.isEmpty();
+			}
+
+			@Override
+			public S next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return decoded.poll();
+			}
+		};
+	}
+
+	private void rescale() {
+		double max = 0.0;
+		for (int state = 0; state < model.stateCount; ++state) {
+			max = Math.max(max, current[state]);
+		}
+		if (max > 0.0 && max < RESCALE_THRESHOLD) {
+			final int exponent = -Math.getExponent(max);
+			for (int state = 0; state < model.stateCount; ++state) {
+				current[state] = Math.scalb(current[state], exponent);
+			}
+		}
+	}
+
+	// adds the newest column to the tree of surviving paths and drops the cells of the previous one that no survivor
+	// descends from; if the surviving paths merge at some pending position, everything up to it is decided. a push
+	// costs stateCount cells plus the cells it drops, instead of a walk back over every pending position
+	private void commitConverged() {
+		final int stateCount = model.stateCount;
+		final double zero = model.logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+		final long newest = length - 1;
+		final int offset = column(newest);
+		int survivorCount = 0;
+		int survivor = ViterbiKernel.NO_STATE;
+		for (int state = 0; state < stateCount; ++state) {
+			childCounts[offset + state] = 0;
+			if (current[state] > zero) {
+				++survivorCount;
+				survivor = state;
+				if (newest > committed) {
+					++childCounts[column(newest - 1) + backPointers[offset + state]];
+				}
+			}
+		}
+		liveCounts[slot(newest)] = survivorCount;
+		if (survivorCount == 0) {
+			// no path survives, and none ever will until the stream is flushed
+			return;
+		}
+
+		long merged = survivorCount == 1 ? newest : -1;
+		if (newest > committed) {
+			final int previousOffset = column(newest - 1);
+			for (int state = 0; state < stateCount; ++state) {
+				if (previous[state] > zero && childCounts[previousOffset + state] == 0) {
+					merged = Math.max(merged, drop(newest - 1, state));
+				}
+			}
+		}
+		if (merged >= 0) {
+			commit(merged + 1, merged == newest ? survivor : liveState(merged), merged);
+			if (metrics != ViterbiMetrics.NONE) {
+				metrics.converged(newest - merged);
+			}
+		}
+	}
+
+	// drops the cell of state at position, then the ancestors it leaves without children. with survivors left, no
+	// position runs out of cells, so the latest position left with a single cell, or -1, is where they have merged
+	private long drop(long position, int state) {
+		long merged = -1;
+		while (true) {
+			if (--liveCounts[slot(position)] == 1) {
+				merged = Math.max(merged, position);
+			}
+			if (position == committed) {
+				return merged;
+			}
+			state = backPointers[column(position) + state];
+			--position;
+			if (--childCounts[column(position) + state] > 0) {
+				return merged;
+			}
+		}
+	}
+
+	// the one cell left at a position older than the newest one
+	private int liveState(long position) {
+		final int offset = column(position);
+		int state = 0;
+		while (childCounts[offset + state] == 0) {
+			++state;
+		}
+		return state;
+	}
+
+	// emits the states of positions [committed, end) by tracing back from state at position from
+	private void commit(long end, int state, long from) {
+		for (long position = from; position >= committed; --position) {
+			if (position < end) {
+				path[(int) (position - committed)] = state;
+			}
+			if (state != ViterbiKernel.NO_STATE && position > committed) {
+				state = backPointers[column(position) + state];
+			}
+		}
+		final int count = (int) (end - committed);
+		for (int i = 0; i < count; ++i) {
+			sink.accept(model.state(path[i]));
+		}
+		committed = end;
+	}
+
+	private int column(long position) {
+		return slot(position) * model.stateCount;
+	}
+
+	private int slot(long position) {
+		return (int) (position % capacity);
+	}
+
+	private void grow() {
+		final int stateCount = model.stateCount;
+		final int newCapacity = ViterbiKernel.grow(capacity, capacity + 1);
+		final int cells = ViterbiKernel.trellisCells(newCapacity, stateCount);
+		final int[] newBackPointers = new int[cells];
+		final int[] newChildCounts = new int[cells];
+		final int[] newLiveCounts = new int[newCapacity];
+		for (long position = committed; position < length; ++position) {
+			final int newSlot = (int) (position % newCapacity);
+			System.arraycopy(backPointers, column(position), newBackPointers, newSlot * stateCount, stateCount);
+			System.arraycopy(childCounts, column(position), newChildCounts, newSlot * stateCount, stateCount);
+			newLiveCounts[newSlot] = liveCounts[slot(position)];
+		}
+		backPointers = newBackPointers;
+		childCounts = newChildCounts;
+		liveCounts = newLiveCounts;
+		capacity = newCapacity;
+		path = new int[newCapacity];
+	}
+}
@@ -0,0 +1,120 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// decodes on a dest-major copy of the transition matrix with a simd max-product kernel when jdk.incubator.vector is
+// available (java 17+, started with --add-modules jdk.incubator.vector), with the scalar kernel otherwise; either way the
+// paths are the ones ViterbiDecoder returns. the copy is dense even for sparse models, so it pays off on dense ones.
+// thread-safe like ViterbiDecoder
+public class VectorViterbiDecoder<S, T> {
+	private final CompiledViterbiModel<S, T> model;
+	private final MaxProductKernel kernel;
+	// [dest * stateCount + src]
+	private final double[] transposedTransitions;
+	private final ThreadLocal<DecoderScratch> scratch;
+
+	public VectorViterbiDecoder(CompiledViterbiModel<S, T> model) {
+		this(model, MaxProductKernel.best());
+	}
+
+	VectorViterbiDecoder(CompiledViterbiModel<S, T> model, MaxProductKernel kernel) {
+		this.model = checkNotNull(model);
+		this.kernel = checkNotNull(kernel);
+		this.transposedTransitions = transpose(model);
+		final int stateCount = model.stateCount;
+		this.scratch = ThreadLocal.withInitial(() -> new DecoderScratch(stateCount));
+	}
+
+	private static double[] transpose(CompiledViterbiModel<?, ?> model) {
+		final int stateCount = model.stateCount;
+		final double[] ret = new double[stateCount * stateCount];
+		if (model.transitionProbabilities != null) {
+			for (int src = 0; src < stateCount; ++src) {
+				for (int dest = 0; dest < stateCount; ++dest) {
+					ret[dest * stateCount + src] = model.transitionProbabilities[src * stateCount + dest];
+				}
+			}
+		} else {
+			Arrays.fill(ret, model.logSpace ? Double.NEGATIVE_INFINITY : 0.0);
+			for (int dest = 0; dest < stateCount; ++dest) {
+				for (int i = model.predecessorOffsets[dest]; i < model.predecessorOffsets[dest + 1]; ++i) {
+					ret[dest * stateCount + model.predecessors[i]] = model.predecessorProbabilities[i];
+				}
+			}
+		}
+		return ret;
+	}
+
+	public CompiledViterbiModel<S, T> getModel() {
+		return model;
+	}
+
+	// whether the simd kernel is in use
+	public boolean isVectorized() {
+		return kernel.isVectorized();
+	}
+
+	public List<S> decode(List<T> observations) {
+		checkNotNull(observations);
+		final int length = checkLength(observations.size());
+		final DecoderScratch scratch = this.scratch.get();
+		scratch.ensureCapacity(length, model.stateCount);
+		model.getObservationVocabulary().toIndices(observations, scratch.observations);
+		decode(length, scratch);
+
+		final List<S> result = new ArrayList<>(length);
+		for (int i = 0; i < length; ++i) {
+			result.add(model.state(scratch.path[i]));
+		}
+		return result;
+	}
+
+	// observations and the returned path are vocabulary indices, -1 where no state is possible
+	public int[] decode(int[] observations) {
+		checkNotNull(observations);
+		final int length = checkLength(observations.length);
+		for (int observation : observations) {
+			checkElementIndex(observation, model.observationCount, "observation");
+		}
+		final DecoderScratch scratch = this.scratch.get();
+		scratch.ensureCapacity(length, model.stateCount);
+		System.arraycopy(observations, 0, scratch.observations, 0, length);
+		decode(length, scratch);
+		return Arrays.copyOf(scratch.path, length);
+	}
+
+	private static int checkLength(int length) {
+		if (length < 1) {
+			throw new IllegalArgumentException("at least one observation should be provided, " + length + " given");
+		}
+		return length;
+	}
+
+	private void decode(int length, DecoderScratch scratch) {
+		final int stateCount = model.stateCount;
+		final boolean logSpace = model.logSpace;
+		final double[] emissionColumns = model.emissionColumns;
+		final int[] observations = scratch.observations;
+		double[] previous = scratch.previous;
+		double[] current = scratch.current;
+
+		ViterbiKernel.initialize(model, observations[0], current);
+		for (int step = 1; step < length; ++step) {
+			final double[] tmp = previous;
+			previous = current;
+			current = tmp;
+			kernel.maxProduct(logSpace, previous, transposedTransitions, stateCount, current, scratch.backPointers, step * stateCount);
+			final int column = observations[step] * stateCount;
+			for (int state = 0; state < stateCount; ++state) {
+				final double emissionProb = emissionColumns[column + state];
+				current[state] = logSpace ? current[state] + emissionProb : current[state] * emissionProb;
+			}
+		}
+		ViterbiKernel.traceBack(scratch.backPointers, stateCount, length, ViterbiKernel.argMax(current, stateCount), scratch.path);
+	}
+}
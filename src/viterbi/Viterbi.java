@@ -3,18 +3,29 @@ package viterbi;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.Maps.immutableEnumMap;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Table;
+import com.google.common.collect.Table.Cell;
+import com.google.common.collect.Tables;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 
 public class Viterbi {
@@ -23,26 +34,140 @@ public class Viterbi {
 		public final ImmutableMap<S, Double> initialDistributions;
 		public final ImmutableTable<S, S, Double> transitionProbabilities;
 		public final ImmutableTable<S, T, Double> emissionProbabilities;
+		// decode with sums of log-probabilities instead of products of probabilities, to avoid underflow on long sequences
+		public final boolean logSpace;
+		public final TransitionStorage transitionStorage;
+		
+		// models are immutable, so validateModel() passes at most once per model and compile() keeps its result
+		volatile boolean validated;
+		volatile CompiledViterbiModel<S, T> compiled;
+		private volatile HashCode contentHash;
+		// log-space models: log probabilities by ordinal, computed once per model for the machines
+		private volatile double[] logTransitions;
+		private volatile double[] logEmissions;
+		
+		// how a compiled model stores its transition matrix
+		public enum TransitionStorage {
+			// sparse when at most a quarter of the transitions are non-zero
+			AUTO,
+			DENSE,
+			// a list of non-zero predecessors per state, steps cost O(transitions) instead of O(states^2)
+			SPARSE
+		}
 		
 		private ViterbiModel(ImmutableMap<S, Double> initialDistributions, 
 				ImmutableTable<S, S, Double> transitionProbabilities,
-				ImmutableTable<S, T, Double> emissionProbabilities) {
+				ImmutableTable<S, T, Double> emissionProbabilities,
+				boolean logSpace,
+				TransitionStorage transitionStorage) {
 			this.initialDistributions = checkNotNull(initialDistributions);
 			this.transitionProbabilities = checkNotNull(transitionProbabilities);
 			this.emissionProbabilities = checkNotNull(emissionProbabilities);
+			this.logSpace = logSpace;
+			this.transitionStorage = checkNotNull(transitionStorage);
 		}
 		
 		public static <S extends Enum<S>, T extends Enum<T>> Builder<S, T> builder() {
 			return new Builder<>();
 		}
 		
+		// a hash of the enum types, settings and non-zero probabilities, stable across runs and independent of the
+		// order the probabilities were added in; an explicit zero probability hashes like an omitted one
+		public HashCode contentHash() {
+			HashCode ret = contentHash;
+			if (ret == null) {
+				final Hasher hasher = Hashing.murmur3_128().newHasher()
+						.putBoolean(logSpace)
+						.putInt(transitionStorage.ordinal());
+				putType(hasher, initialDistributions.keySet());
+				putType(hasher, emissionProbabilities.columnKeySet());
+				for (Map.Entry<S, Double> entry : initialDistributions.entrySet()) {
+					putCell(hasher, entry.getKey().ordinal(), 0, entry.getValue());
+				}
+				putCells(hasher, transitionProbabilities);
+				putCells(hasher, emissionProbabilities);
+				ret = hasher.hash();
+				contentHash = ret;
+			}
+			return ret;
+		}
+		
+		// whether other has the content contentHash() covers, compared exactly rather than by hash
+		boolean hasSameContent(ViterbiModel<?, ?> other) {
+			return logSpace == other.logSpace
+					&& transitionStorage == other.transitionStorage
+					&& nonZero(initialDistributions).equals(nonZero(other.initialDistributions))
+					&& nonZero(transitionProbabilities).equals(nonZero(other.transitionProbabilities))
+					&& nonZero(emissionProbabilities).equals(nonZero(other.emissionProbabilities));
+		}
+		
+		private static ImmutableSet<Map.Entry<?, Double>> nonZero(Map<?, Double> map) {
+			return ImmutableSet.copyOf(Iterables.filter(map.entrySet(), entry -> entry.getValue() != 0.0));
+		}
+		
+		private static ImmutableSet<Cell<?, ?, Double>> nonZero(Table<?, ?, Double> table) {
+			return ImmutableSet.copyOf(Iterables.filter(table.cellSet(), cell -> cell.getValue() != 0.0));
+		}
+		
+		// [src * stateCount + dest]
+		double[] logTransitions(int stateCount) {
+			double[] ret = logTransitions;
+			if (ret == null) {
+				ret = logTable(transitionProbabilities, stateCount, stateCount);
+				logTransitions = ret;
+			}
+			return ret;
+		}
+		
+		// [state * observationCount + observation]
+		double[] logEmissions(int stateCount, int observationCount) {
+			double[] ret = logEmissions;
+			if (ret == null) {
+				ret = logTable(emissionProbabilities, stateCount, observationCount);
+				logEmissions = ret;
+			}
+			return ret;
+		}
+		
+		private static <R extends Enum<R>, C extends Enum<C>> double[] logTable(ImmutableTable<R, C, Double> table, int rowCount, int columnCount) {
+			final double[] ret = new double[rowCount * columnCount];
+			Arrays.fill(ret, Double.NEGATIVE_INFINITY);
+			for (Cell<R, C, Double> cell : table.cellSet()) {
+				ret[cell.getRowKey().ordinal() * columnCount + cell.getColumnKey().ordinal()] = Math.log(cell.getValue());
+			}
+			return ret;
+		}
+		
+		private static void putType(Hasher hasher, Set<? extends Enum<?>> keys) {
+			final String name = keys.isEmpty() ? "" : keys.iterator().next().getDeclaringClass().getName();
+			hasher.putInt(name.length()).putString(name, StandardCharsets.UTF_8);
+		}
+		
+		private static <R extends Enum<R>, C extends Enum<C>> void putCells(Hasher hasher, ImmutableTable<R, C, Double> table) {
+			final List<Cell<R, C, Double>> cells = new ArrayList<>(table.cellSet());
+			cells.sort(Comparator.<Cell<R, C, Double>>comparingInt(cell -> cell.getRowKey().ordinal()).thenComparingInt(cell -> cell.getColumnKey().ordinal()));
+			// separates the tables
+			hasher.putInt(-1);
+			for (Cell<R, C, Double> cell : cells) {
+				putCell(hasher, cell.getRowKey().ordinal(), cell.getColumnKey().ordinal(), cell.getValue());
+			}
+		}
+		
+		private static void putCell(Hasher hasher, int row, int column, double value) {
+			if (value != 0.0) {
+				hasher.putInt(row).putInt(column).putDouble(value);
+			}
+		}
+		
 		public static class Builder<S extends Enum<S>, T extends Enum<T>> {
 			private ImmutableMap<S, Double> initialDistributions;
 			private ImmutableTable.Builder<S, S, Double> transitionProbabilities = ImmutableTable.builder();
 			private ImmutableTable.Builder<S, T, Double> emissionProbabilities = ImmutableTable.builder();
+			private boolean logSpace;
+			private TransitionStorage transitionStorage = TransitionStorage.AUTO;
 			
 			public ViterbiModel<S, T> build() {
-				return new ViterbiModel<S, T>(immutableEnumMap(initialDistributions), transitionProbabilities.build(), emissionProbabilities.build());
+				return new ViterbiModel<S, T>(immutableEnumMap(initialDistributions), transitionProbabilities.build(), emissionProbabilities.build(), logSpace, transitionStorage);
 			}
 			
 			public Builder<S, T> withInitialDistributions(ImmutableMap<S, Double> initialDistributions) {
@@ -59,10 +184,22 @@ public class Viterbi {
 				emissionProbabilities.put(state, emission, prob);
 				return this;
 			}
+
+			public Builder<S, T> withLogSpace(boolean logSpace) {
+				this.logSpace = logSpace;
+				return this;
+			}
+
+			public Builder<S, T> withTransitionStorage(TransitionStorage transitionStorage) {
+				this.transitionStorage = checkNotNull(transitionStorage);
+				return this;
+			}
 		}
 	}
 	
 	public static class ViterbiMachine<S extends Enum<S>, T extends Enum<T>> {
+		private static final int BOXED_CELL_BYTES = 64;
+		
 		private final List<S> possibleStates;
 		private final List<T> possibleObservations;
 
@@ -74,9 +211,16 @@ public class Viterbi {
 		
 		private int step;
 		
+		private final ViterbiMetrics metrics;
+		
 		public ViterbiMachine(ViterbiModel<S, T> model, ImmutableList<T> observations) {
+			this(model, observations, ViterbiMetrics.NONE);
+		}
+		
+		public ViterbiMachine(ViterbiModel<S, T> model, ImmutableList<T> observations, ViterbiMetrics metrics) {
 			this.model = checkNotNull(model);
 			this.observations = checkNotNull(observations);
+			this.metrics = checkNotNull(metrics);
 			
 			try {
 				possibleStates = ImmutableList.copyOf(getPossibleStates());
@@ -90,11 +234,32 @@ public class Viterbi {
 				throw new IllegalArgumentException("empty observations enum, or no explicit observations provided", ise);
 			}
 			
-			validate();
-			initialize();
+			if (metrics == ViterbiMetrics.NONE) {
+				validate();
+				initialize();
+			} else {
+				final long start = System.nanoTime();
+				validate();
+				final long validated = System.nanoTime();
+				initialize();
+				metrics.validated(validated - start);
+				metrics.initialized(System.nanoTime() - validated);
+			}
 		}
 
 		private void validate() {
+			if (observations.size() < 1) {
+				// should not happen (observations size already checked when retrieving possible enum values),
+				// only added for the sake of completeness
+				throw new IllegalArgumentException("at least one observation should be provided, " + observations.size() + " given");
+			}
+			validateModel(model, possibleStates);
+		}
+
+		static <S extends Enum<S>, T extends Enum<T>> void validateModel(ViterbiModel<S, T> model, List<S> possibleStates) {
+			if (model.validated) {
+				return;
+			}
 			if (model.initialDistributions.size() != possibleStates.size()) {
 				throw new IllegalArgumentException("model.initialDistributions.size() = " + model.initialDistributions.size());
 			}
@@ -105,11 +270,6 @@ public class Viterbi {
 			if (!doublesEqual(sumInitProbs, 1.0)) {
 				throw new IllegalArgumentException("the sum of initial distributions should be 1.0, was " + sumInitProbs);
 			}
-			if (observations.size() < 1) {
-				// should not happen (observations size already checked when retrieving possible enum values),
-				// only added for the sake of completeness
-				throw new IllegalArgumentException("at least one observation should be provided, " + observations.size() + " given");
-			}
 			if (model.transitionProbabilities.size() < 1) {
 				throw new IllegalArgumentException("at least one transition probability should be provided, " + model.transitionProbabilities.size() + " given");
 			}
@@ -134,6 +294,7 @@ public class Viterbi {
 					throw new IllegalArgumentException("sum of emission probabilities for each state should be one, was " + sumRowProbs + " for state " + row);
 				}
 			}
+			model.validated = true;
 		}
 		
 		private static <S, T, V> V getOrDefault(Table<S, T, V> table, S key1, T key2, V defaultValue) {
@@ -155,7 +316,13 @@ public class Viterbi {
 		private void initialize() {
 			final T firstObservation = observations.get(0);
 			for (S state : possibleStates) {
-				stateProbsForObservations.put(state, 0, model.initialDistributions.getOrDefault(state, 0.0) * getOrDefault(model.emissionProbabilities, state, firstObservation, 0.0));
+				final double initialProb = model.initialDistributions.getOrDefault(state, 0.0);
+				final double emissionProb = getOrDefault(model.emissionProbabilities, state, firstObservation, 0.0);
+				if (model.logSpace) {
+					stateProbsForObservations.put(state, 0, Math.log(initialProb) + Math.log(emissionProb));
+				} else {
+					stateProbsForObservations.put(state, 0, initialProb * emissionProb);
+				}
 				previousStatesForObservations.put(state, 0, Optional.<S>empty());
 			}
 			
@@ -166,22 +333,68 @@ public class Viterbi {
 			if (step >= observations.size()) {
 				throw new IllegalStateException("already finished last step");
 			}
+			
+			final long start = metrics == ViterbiMetrics.NONE ? 0 : System.nanoTime();
 
+			final double zeroProb = model.logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+			if (model.logSpace) {
+				nextStepLogSpace();
+			} else {
+				for (S state : possibleStates) {
+					double maxProb = zeroProb;
+					Optional<S> prevStateWithMaxProb = Optional.empty();
+					for (S state2 : possibleStates) {
+						double prevProb = getOrDefault(stateProbsForObservations, state2, step - 1, zeroProb);
+						double transitionProb = getOrDefault(model.transitionProbabilities, state2, state, 0.0);
+						double prob = prevProb * transitionProb;
+						if (prob > maxProb) {
+							maxProb = prob;
+							prevStateWithMaxProb = Optional.of(state2);
+						}
+					}
+					double emissionProb = getOrDefault(model.emissionProbabilities, state, observations.get(step), 0.0);
+					stateProbsForObservations.put(state, step, maxProb * emissionProb);
+					previousStatesForObservations.put(state, step, prevStateWithMaxProb);
+				}
+			}
+			
+			if (metrics != ViterbiMetrics.NONE) {
+				int zeroCells = 0;
+				for (double prob : stateProbsForObservations.column(step).values()) {
+					if (prob == zeroProb) {
+						++zeroCells;
+					}
+				}
+				metrics.stepped(1, System.nanoTime() - start, (long) possibleStates.size() * possibleStates.size(), zeroCells);
+			}
+			
+			++step;
+		}
+		
+		// adds the precomputed log tables, the previous column is read into an array once instead of per state pair
+		private void nextStepLogSpace() {
+			final int stateCount = possibleStates.size();
+			final double[] logTransitions = model.logTransitions(stateCount);
+			final double[] logEmissions = model.logEmissions(stateCount, possibleObservations.size());
+			final int observation = observations.get(step).ordinal();
+			final double[] previous = new double[stateCount];
+			for (S state2 : possibleStates) {
+				previous[state2.ordinal()] = getOrDefault(stateProbsForObservations, state2, step - 1, Double.NEGATIVE_INFINITY);
+			}
 			for (S state : possibleStates) {
-				double maxProb = 0.0;
+				final int dest = state.ordinal();
+				double maxProb = Double.NEGATIVE_INFINITY;
 				Optional<S> prevStateWithMaxProb = Optional.empty();
-				for (S state2 : possibleStates) {
-					double prob = getOrDefault(stateProbsForObservations, state2, step - 1, 0.0) * getOrDefault(model.transitionProbabilities, state2, state, 0.0);
+				for (int src = 0; src < stateCount; ++src) {
+					final double prob = previous[src] + logTransitions[src * stateCount + dest];
 					if (prob > maxProb) {
 						maxProb = prob;
-						prevStateWithMaxProb = Optional.of(state2);
+						prevStateWithMaxProb = Optional.of(possibleStates.get(src));
 					}
 				}
-				stateProbsForObservations.put(state, step, maxProb * getOrDefault(model.emissionProbabilities, state, observations.get(step), 0.0));
+				stateProbsForObservations.put(state, step, maxProb + logEmissions[dest * possibleObservations.size() + observation]);
 				previousStatesForObservations.put(state, step, prevStateWithMaxProb);
 			}
-			
-			++step;
 		}
 		
 		public ImmutableTable<S, Integer, Double> getProbabilitiesForObservations() {
@@ -191,12 +404,28 @@ public class Viterbi {
 		public ImmutableTable<S, Integer, Optional<S>> getPreviousStatesObservations() {
 			return ImmutableTable.copyOf(previousStatesForObservations);
 		}
+
+		// read-only views of the trellis: nothing is copied, and later steps show up in them
+		public Table<S, Integer, Double> getProbabilitiesForObservationsView() {
+			return Tables.unmodifiableTable(stateProbsForObservations);
+		}
+
+		public Table<S, Integer, Optional<S>> getPreviousStatesObservationsView() {
+			return Tables.unmodifiableTable(previousStatesForObservations);
+		}
 		
 		public List<S> finish() {
+			return finishResult(false).getPath();
+		}
+
+		// the path with its log score, and with the log score of every prefix if stepScores is set, summed along the path
+		// like the compiled kernels do, so that probability-space scores do not underflow with the trellis
+		public ViterbiResult<S> finishResult(boolean stepScores) {
 			if (step != observations.size()) {
 				throw new IllegalStateException("step = " + step);
 			}
 			
+			final long start = metrics == ViterbiMetrics.NONE ? 0 : System.nanoTime();
 			S stateWithMaxProb = possibleStates.get(0);
 			double maxProb = stateProbsForObservations.get(stateWithMaxProb, observations.size() - 1);
 			for (S state : possibleStates) {
@@ -211,17 +440,50 @@ public class Viterbi {
 			
 			for (int i = observations.size() - 1; i >= 0; --i) {
 				result.add(stateWithMaxProb);
-				stateWithMaxProb = previousStatesForObservations.get(stateWithMaxProb, i).orElse(null);
+				// a state without a predecessor ends the path, the rest of it is null as in the kernels
+				stateWithMaxProb = stateWithMaxProb == null ? null : previousStatesForObservations.get(stateWithMaxProb, i).orElse(null);
+			}
+			
+			if (metrics != ViterbiMetrics.NONE) {
+				// rough estimate: a hash entry, a boxed value and its share of the row map, in each of the two tables
+				final long trellisBytes = 2L * BOXED_CELL_BYTES * possibleStates.size() * observations.size();
+				metrics.finished(System.nanoTime() - start, observations.size(), trellisBytes);
 			}
 			
-			return Lists.reverse(result);
+			final List<S> path = Lists.reverse(result);
+			final double[] stepLogScores = stepScores ? new double[observations.size()] : null;
+			return new ViterbiResult<>(path, pathLogScore(path, stepLogScores), stepLogScores);
+		}
+
+		// natural log score of path, -Infinity from the first position without a state on
+		private double pathLogScore(List<S> path, double[] stepLogScores) {
+			double score = 0.0;
+			for (int i = 0; i < path.size(); ++i) {
+				final S state = path.get(i);
+				if (state == null || score == Double.NEGATIVE_INFINITY) {
+					score = Double.NEGATIVE_INFINITY;
+				} else {
+					final double prob = i == 0 ? model.initialDistributions.getOrDefault(state, 0.0)
+							: getOrDefault(model.transitionProbabilities, path.get(i - 1), state, 0.0);
+					score += Math.log(prob);
+					score += Math.log(getOrDefault(model.emissionProbabilities, state, observations.get(i), 0.0));
+				}
+				if (stepLogScores != null) {
+					stepLogScores[i] = score;
+				}
+			}
+			return score;
 		}
 
 		public List<S> calculate() {
+			return calculateResult(false).getPath();
+		}
+
+		public ViterbiResult<S> calculateResult(boolean stepScores) {
 			for (int i = 0; i < observations.size() - 1; ++i) {
 				nextStep();
 			}
-			return finish();
+			return finishResult(stepScores);
 		}
 		
 		private S[] getPossibleStates() {
@@ -232,7 +494,7 @@ public class Viterbi {
 			return getEnumsFromIterator(observations.iterator());
 		}
 
-		private static <X extends Enum<X>> X[] getEnumsFromIterator(Iterator<X> it) {
+		static <X extends Enum<X>> X[] getEnumsFromIterator(Iterator<X> it) {
 			if (!it.hasNext()) {
 				throw new IllegalStateException("iterator should have at least one element");
 			}
@@ -240,7 +502,7 @@ public class Viterbi {
 			return val1.getDeclaringClass().getEnumConstants();
 		}
 		
-		private static boolean doublesEqual(double d1, double d2) {
+		static boolean doublesEqual(double d1, double d2) {
 			return Math.abs(d1 - d2) < 0.0000001;
 		}
 	}
@@ -0,0 +1,187 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.google.common.collect.ImmutableList;
+
+import viterbi.Viterbi.ViterbiModel;
+
+// thread-safe: the model is validated and compiled once, every thread decodes with its own reused scratch buffers
+public class ViterbiDecoder<S, T> {
+	// a fork-join task is split until it holds at most this many sequences per worker and split level
+	private static final int TASKS_PER_THREAD = 4;
+
+	private final CompiledViterbiModel<S, T> model;
+	private final ForkJoinPool pool;
+	private final ThreadLocal<DecoderScratch> scratch;
+	private final ViterbiMetrics metrics;
+
+	// the enum adapter, the class itself is not bounded to enums since it also decodes runtime vocabularies
+	public static <S extends Enum<S>, T extends Enum<T>> ViterbiDecoder<S, T> of(ViterbiModel<S, T> model) {
+		return new ViterbiDecoder<>(CompiledViterbiModel.compile(model));
+	}
+
+	public ViterbiDecoder(CompiledViterbiModel<S, T> model) {
+		this(model, ForkJoinPool.commonPool());
+	}
+
+	public ViterbiDecoder(CompiledViterbiModel<S, T> model, ForkJoinPool pool) {
+		this(model, pool, ViterbiMetrics.NONE);
+	}
+
+	public ViterbiDecoder(CompiledViterbiModel<S, T> model, ForkJoinPool pool, ViterbiMetrics metrics) {
+		this.model = checkNotNull(model);
+		this.pool = checkNotNull(pool);
+		this.metrics = checkNotNull(metrics);
+		final int stateCount = model.stateCount;
+		this.scratch = ThreadLocal.withInitial(() -> new DecoderScratch(stateCount));
+	}
+
+	public CompiledViterbiModel<S, T> getModel() {
+		return model;
+	}
+
+	public List<S> decode(List<T> observations) {
+		final DecoderScratch scratch = load(observations);
+		ViterbiKernel.decode(model, observations.size(), scratch, metrics);
+		return path(scratch, observations.size());
+	}
+
+	// the path with its log score, and with the log score of every prefix if stepScores is set; the scores are summed
+	// along the path after the decode, which keeps only two trellis columns
+	public ViterbiResult<S> decodeWithScores(List<T> observations, boolean stepScores) {
+		final DecoderScratch scratch = load(observations);
+		ViterbiKernel.decode(model, observations.size(), scratch, metrics);
+		final ViterbiResult<S> result = ViterbiResult.of(model, scratch.observations, scratch.path, observations.size(), stepScores);
+		scratch.trim();
+		return result;
+	}
+
+	// the int-indexed api: observations and the returned path are vocabulary indices, -1 where no state is possible
+	public int[] decode(int[] observations) {
+		final DecoderScratch scratch = load(observations);
+		ViterbiKernel.decode(model, observations.length, scratch, metrics);
+		return pathIndices(scratch, observations.length);
+	}
+
+	// the best path among the ones constraints allow; the cells of disallowed states are never computed.
+	// all states are null if no allowed path can emit the observations
+	public List<S> decode(List<T> observations, StateConstraints<S> constraints) {
+		final DecoderScratch scratch = load(observations);
+		ViterbiKernel.decode(model, observations.size(), checkConstraints(constraints, observations.size()), scratch);
+		return path(scratch, observations.size());
+	}
+
+	public int[] decode(int[] observations, StateConstraints<S> constraints) {
+		final DecoderScratch scratch = load(observations);
+		ViterbiKernel.decode(model, observations.length, checkConstraints(constraints, observations.length), scratch);
+		return pathIndices(scratch, observations.length);
+	}
+
+	private DecoderScratch load(List<T> observations) {
+		checkNotNull(observations);
+		final int length = checkLength(observations.size());
+		final DecoderScratch scratch = this.scratch.get();
+		scratch.ensureCapacity(length, model.stateCount);
+		model.getObservationVocabulary().toIndices(observations, scratch.observations);
+		return scratch;
+	}
+
+	private DecoderScratch load(int[] observations) {
+		checkNotNull(observations);
+		final int length = checkLength(observations.length);
+		for (int observation : observations) {
+			checkElementIndex(observation, model.observationCount, "observation");
+		}
+		final DecoderScratch scratch = this.scratch.get();
+		scratch.ensureCapacity(length, model.stateCount);
+		System.arraycopy(observations, 0, scratch.observations, 0, length);
+		return scratch;
+	}
+
+	private static int checkLength(int length) {
+		if (length < 1) {
+			throw new IllegalArgumentException("at least one observation should be provided, " + length + " given");
+		}
+		return length;
+	}
+
+	private StateConstraints<S> checkConstraints(StateConstraints<S> constraints, int length) {
+		checkNotNull(constraints);
+		if (!constraints.getStateVocabulary().getLabels().equals(model.getStates())) {
+			throw new IllegalArgumentException("constraints are for states " + constraints.getStateVocabulary().getLabels() + ", not " + model.getStates());
+		}
+		if (constraints.getLength() != length) {
+			throw new IllegalArgumentException("constraints cover " + constraints.getLength() + " positions, " + length + " observations given");
+		}
+		return constraints;
+	}
+
+	private List<S> path(DecoderScratch scratch, int length) {
+		final List<S> result = new ArrayList<>(length);
+		for (int i = 0; i < length; ++i) {
+			result.add(model.state(scratch.path[i]));
+		}
+		scratch.trim();
+		return result;
+	}
+
+	private static int[] pathIndices(DecoderScratch scratch, int length) {
+		final int[] result = Arrays.copyOf(scratch.path, length);
+		scratch.trim();
+		return result;
+	}
+
+	// decodes every sequence on the fork-join pool, results are in the iteration order of sequences
+	public List<List<S>> decodeAll(Collection<? extends List<T>> sequences) {
+		final List<? extends List<T>> sequenceList = ImmutableList.copyOf(checkNotNull(sequences));
+		if (sequenceList.isEmpty()) {
+			return ImmutableList.of();
+		}
+		// every task sets its own elements only
+		final List<List<S>> results = new ArrayList<>(Collections.nCopies(sequenceList.size(), null));
+		final int threshold = Math.max(1, results.size() / (pool.getParallelism() * TASKS_PER_THREAD));
+		pool.invoke(new DecodeAllTask(sequenceList, results, 0, results.size(), threshold));
+		return results;
+	}
+
+	private final class DecodeAllTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<? extends List<T>> sequences;
+		private final List<List<S>> results;
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		DecodeAllTask(List<? extends List<T>> sequences, List<List<S>> results, int from, int to, int threshold) {
+			this.sequences = sequences;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= threshold) {
+				for (int i = from; i < to; ++i) {
+					results.set(i, decode(sequences.get(i)));
+				}
+			} else {
+				final int middle = (from + to) >>> 1;
+				invokeAll(new DecodeAllTask(sequences, results, from, middle, threshold),
+						new DecodeAllTask(sequences, results, middle, to, threshold));
+			}
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+// asynchronous decoding on a fixed number of threads. requests of the same model are collected into batches of at most
+// maxBatchSize sequences, a batch is handed to the threads when it is full or maxDelay after its first request, whichever
+// comes first. at most maxPendingRequests requests are accepted and not yet decoded, the futures of further requests
+// fail right away with a RejectedExecutionException, so a burst is shed instead of queueing without bound.
+// one batcher is kept per model ever submitted, so models should be long-lived, e.g. the ones of a CompiledModelCache.
+// an error such as an OutOfMemoryError fails the future of its request and is handed to the error handler as well, the
+// thread that decoded it keeps running
+public class ViterbiDecodingService implements AutoCloseable {
+	private final int maxBatchSize;
+	private final long maxDelayNanos;
+	private final int maxPendingRequests;
+	private final Semaphore pending;
+	private final ThreadPoolExecutor executor;
+	private final ScheduledExecutorService timer;
+	private final Consumer<? super Error> errorHandler;
+	private final ConcurrentHashMap<CompiledViterbiModel<?, ?>, Batcher<?, ?>> batchers = new ConcurrentHashMap<>();
+	private volatile boolean closed;
+
+	// errors are reported to the uncaught exception handler of the thread that decoded them
+	public ViterbiDecodingService(int threads, int maxBatchSize, long maxDelay, TimeUnit unit, int maxPendingRequests) {
+		this(threads, maxBatchSize, maxDelay, unit, maxPendingRequests, ViterbiDecodingService::reportUncaught);
+	}
+
+	public ViterbiDecodingService(int threads, int maxBatchSize, long maxDelay, TimeUnit unit, int maxPendingRequests, Consumer<? super Error> errorHandler) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads should be positive, was " + threads);
+		}
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("maxBatchSize should be positive, was " + maxBatchSize);
+		}
+		if (maxDelay < 0) {
+			throw new IllegalArgumentException("maxDelay should not be negative, was " + maxDelay);
+		}
+		if (maxPendingRequests < 1) {
+			throw new IllegalArgumentException("maxPendingRequests should be positive, was " + maxPendingRequests);
+		}
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelayNanos = checkNotNull(unit).toNanos(maxDelay);
+		this.maxPendingRequests = maxPendingRequests;
+		this.pending = new Semaphore(maxPendingRequests);
+		this.errorHandler = checkNotNull(errorHandler);
+		// every batch holds at least one pending request, so the queue never overflows
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.NANOSECONDS, new ArrayBlockingQueue<>(maxPendingRequests),
+				new ThreadFactoryBuilder().setNameFormat("viterbi-decoder-%d").setDaemon(true).build());
+		final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+				new ThreadFactoryBuilder().setNameFormat("viterbi-batch-timer-%d").setDaemon(true).build());
+		timer.setRemoveOnCancelPolicy(true);
+		this.timer = timer;
+	}
+
+	// the path of observations, null states where no state is possible. the future fails with the exception of the
+	// decode, e.g. an IllegalArgumentException for an unknown observation
+	public <S, T> CompletableFuture<List<S>> decode(CompiledViterbiModel<S, T> model, List<T> observations) {
+		checkNotNull(model);
+		checkNotNull(observations);
+		final CompletableFuture<List<S>> ret = new CompletableFuture<>();
+		if (closed) {
+			ret.completeExceptionally(new RejectedExecutionException("decoding service is closed"));
+		} else if (!pending.tryAcquire()) {
+			ret.completeExceptionally(new RejectedExecutionException(maxPendingRequests + " requests are already pending"));
+		} else {
+			batcher(model).add(new Request<>(observations, ret));
+		}
+		return ret;
+	}
+
+	private static void reportUncaught(Error error) {
+		final Thread thread = Thread.currentThread();
+		thread.getUncaughtExceptionHandler().uncaughtException(thread, error);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <S, T> Batcher<S, T> batcher(CompiledViterbiModel<S, T> model) {
+		return (Batcher<S, T>) batchers.computeIfAbsent(model, key -> new Batcher<>(model));
+	}
+
+	// requests accepted and not yet decoded
+	public int getPendingRequests() {
+		return maxPendingRequests - pending.availablePermits();
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	// hands the incomplete batches to the threads and lets them finish; requests made afterwards are rejected
+	@Override
+	public void close() {
+		closed = true;
+		for (Batcher<?, ?> batcher : batchers.values()) {
+			batcher.flush(null);
+		}
+		timer.shutdownNow();
+		executor.shutdown();
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	private static final class Request<S, T> {
+		final List<T> observations;
+		final CompletableFuture<List<S>> result;
+
+		Request(List<T> observations, CompletableFuture<List<S>> result) {
+			this.observations = observations;
+			this.result = result;
+		}
+	}
+
+	private final class Batcher<S, T> {
+		private final ViterbiDecoder<S, T> decoder;
+		// guarded by this
+		private List<Request<S, T>> batch;
+
+		Batcher(CompiledViterbiModel<S, T> model) {
+			this.decoder = new ViterbiDecoder<>(model);
+		}
+
+		void add(Request<S, T> request) {
+			final List<Request<S, T>> full;
+			synchronized (this) {
+				if (closed) {
+					// close() has flushed this batcher already or is about to find it empty
+					reject(request, new RejectedExecutionException("decoding service is closed"));
+					return;
+				}
+				if (batch == null) {
+					batch = new ArrayList<>(maxBatchSize);
+				}
+				batch.add(request);
+				if (batch.size() < maxBatchSize && (batch.size() > 1 || schedule(batch))) {
+					return;
+				}
+				full = batch;
+				batch = null;
+			}
+			execute(full);
+		}
+
+		// false if the timer has been shut down by a concurrent close(), the batch is then executed right away
+		private boolean schedule(List<Request<S, T>> scheduled) {
+			try {
+				timer.schedule(() -> flush(scheduled), maxDelayNanos, TimeUnit.NANOSECONDS);
+				return true;
+			} catch (RejectedExecutionException e) {
+				return false;
+			}
+		}
+
+		// hands expected to the threads if it is still the current batch, or the current batch if expected is null
+		void flush(List<Request<S, T>> expected) {
+			final List<Request<S, T>> current;
+			synchronized (this) {
+				if (batch == null || (expected != null && batch != expected)) {
+					return;
+				}
+				current = batch;
+				batch = null;
+			}
+			execute(current);
+		}
+
+		private void execute(List<Request<S, T>> requests) {
+			try {
+				executor.execute(() -> decode(requests));
+			} catch (RejectedExecutionException e) {
+				// only after close()
+				for (Request<S, T> request : requests) {
+					reject(request, e);
+				}
+			}
+		}
+
+		private void reject(Request<S, T> request, RejectedExecutionException e) {
+			pending.release();
+			request.result.completeExceptionally(e);
+		}
+
+		// every request gets its permit back and its future completed, even if decoding it fails with an error such as an
+		// OutOfMemoryError, which then goes to the error handler instead of ending the thread
+		private void decode(List<Request<S, T>> requests) {
+			for (Request<S, T> request : requests) {
+				List<S> path = null;
+				Throwable error = null;
+				try {
+					path = decoder.decode(request.observations);
+				} catch (Throwable e) {
+					error = e;
+				} finally {
+					pending.release();
+				}
+				if (error == null) {
+					request.result.complete(path);
+				} else {
+					request.result.completeExceptionally(error);
+					if (error instanceof Error) {
+						errorHandler.accept((Error) error);
+					}
+				}
+			}
+		}
+	}
+}
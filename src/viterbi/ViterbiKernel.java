@@ -0,0 +1,489 @@
+package viterbi;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+final class ViterbiKernel {
+	static final int NO_STATE = -1;
+	// the largest array every vm allocates
+	static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	// parallel steps split the dest states into about this many tasks per worker
+	private static final int TASKS_PER_THREAD = 4;
+
+	private ViterbiKernel() {
+	}
+
+	// cells of a trellis of length columns of columnSize cells, which has to fit in one array
+	static int trellisCells(long length, long columnSize) {
+		return tableCells("a trellis", length, columnSize);
+	}
+
+	// cells of a table of rows x columns cells, which has to fit in one array; table names it with its article
+	static int tableCells(String table, long rows, long columns) {
+		final long cells = rows * columns;
+		if (cells > MAX_ARRAY_SIZE) {
+			throw new IllegalArgumentException(table + " of " + rows + " x " + columns + " cells does not fit in an array");
+		}
+		return (int) cells;
+	}
+
+	// the capacity of a grown array: twice the old one, at least needed, at most MAX_ARRAY_SIZE
+	static int grow(int capacity, int needed) {
+		return (int) Math.min(MAX_ARRAY_SIZE, Math.max(needed, 2L * capacity));
+	}
+
+	static void initialize(CompiledViterbiModel<?, ?> model, int observation, double[] row) {
+		final int stateCount = model.stateCount;
+		final double[] initialDistributions = model.initialDistributions;
+		final double[] emissionColumns = model.emissionColumns;
+		final int column = observation * stateCount;
+		if (model.logSpace) {
+			for (int state = 0; state < stateCount; ++state) {
+				row[state] = initialDistributions[state] + emissionColumns[column + state];
+			}
+		} else {
+			for (int state = 0; state < stateCount; ++state) {
+				row[state] = initialDistributions[state] * emissionColumns[column + state];
+			}
+		}
+	}
+
+	// computes one trellis column: current[dest] and backPointers[offset + dest] for every dest state
+	static void step(CompiledViterbiModel<?, ?> model, double[] previous, double[] current, int[] backPointers, int offset, int observation) {
+		step(model, previous, current, backPointers, offset, observation, 0, model.stateCount);
+	}
+
+	// same as step(), only for the dest states in [from, to)
+	static void step(CompiledViterbiModel<?, ?> model, double[] previous, double[] current, int[] backPointers, int offset, int observation, int from, int to) {
+		if (model.transitionProbabilities == null) {
+			stepSparse(model, previous, current, backPointers, offset, observation, from, to);
+		} else if (model.logSpace) {
+			stepLogSpace(model, previous, current, backPointers, offset, observation, from, to);
+		} else {
+			stepProbabilities(model, previous, current, backPointers, offset, observation, from, to);
+		}
+	}
+
+	// splits the dest states of a step across the pool, models with fewer than parallelThreshold states are stepped sequentially
+	static void step(ForkJoinPool pool, int parallelThreshold, CompiledViterbiModel<?, ?> model, double[] previous, double[] current, int[] backPointers, int offset, int observation) {
+		final int stateCount = model.stateCount;
+		if (pool == null || stateCount < parallelThreshold) {
+			step(model, previous, current, backPointers, offset, observation, 0, stateCount);
+		} else {
+			final int statesPerTask = Math.max(1, stateCount / (pool.getParallelism() * TASKS_PER_THREAD));
+			pool.invoke(new StepTask(model, previous, current, backPointers, offset, observation, 0, stateCount, statesPerTask));
+		}
+	}
+
+	private static final class StepTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final CompiledViterbiModel<?, ?> model;
+		private final double[] previous;
+		private final double[] current;
+		private final int[] backPointers;
+		private final int offset;
+		private final int observation;
+		private final int from;
+		private final int to;
+		private final int statesPerTask;
+
+		StepTask(CompiledViterbiModel<?, ?> model, double[] previous, double[] current, int[] backPointers, int offset, int observation, int from, int to, int statesPerTask) {
+			this.model = model;
+			this.previous = previous;
+			this.current = current;
+			this.backPointers = backPointers;
+			this.offset = offset;
+			this.observation = observation;
+			this.from = from;
+			this.to = to;
+			this.statesPerTask = statesPerTask;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= statesPerTask) {
+				step(model, previous, current, backPointers, offset, observation, from, to);
+			} else {
+				final int middle = (from + to) >>> 1;
+				invokeAll(new StepTask(model, previous, current, backPointers, offset, observation, from, middle, statesPerTask),
+						new StepTask(model, previous, current, backPointers, offset, observation, middle, to, statesPerTask));
+			}
+		}
+	}
+
+	private static void stepProbabilities(CompiledViterbiModel<?, ?> model, double[] previous, double[] current, int[] backPointers, int offset, int observation, int from, int to) {
+		final int stateCount = model.stateCount;
+		final double[] transitionProbabilities = model.transitionProbabilities;
+		final double[] emissionColumns = model.emissionColumns;
+		final int column = observation * stateCount;
+		for (int state = from; state < to; ++state) {
+			double maxProb = 0.0;
+			int prevStateWithMaxProb = NO_STATE;
+			for (int state2 = 0; state2 < stateCount; ++state2) {
+				final double prob = previous[state2] * transitionProbabilities[state2 * stateCount + state];
+				if (prob > maxProb) {
+					maxProb = prob;
+					prevStateWithMaxProb = state2;
+				}
+			}
+			current[state] = maxProb * emissionColumns[column + state];
+			backPointers[offset + state] = prevStateWithMaxProb;
+		}
+	}
+
+	private static void stepLogSpace(CompiledViterbiModel<?, ?> model, double[] previous, double[] current, int[] backPointers, int offset, int observation, int from, int to) {
+		final int stateCount = model.stateCount;
+		final double[] transitionProbabilities = model.transitionProbabilities;
+		final double[] emissionColumns = model.emissionColumns;
+		final int column = observation * stateCount;
+		for (int state = from; state < to; ++state) {
+			double maxProb = Double.NEGATIVE_INFINITY;
+			int prevStateWithMaxProb = NO_STATE;
+			for (int state2 = 0; state2 < stateCount; ++state2) {
+				final double prob = previous[state2] + transitionProbabilities[state2 * stateCount + state];
+				if (prob > maxProb) {
+					maxProb = prob;
+					prevStateWithMaxProb = state2;
+				}
+			}
+			current[state] = maxProb + emissionColumns[column + state];
+			backPointers[offset + state] = prevStateWithMaxProb;
+		}
+	}
+
+	// decodes scratch.observations[0 .. length) into scratch.path[0 .. length)
+	static void decode(CompiledViterbiModel<?, ?> model, int length, DecoderScratch scratch, ViterbiMetrics metrics) {
+		final int stateCount = model.stateCount;
+		final int[] observations = scratch.observations;
+		final boolean measured = metrics != ViterbiMetrics.NONE;
+		double[] previous = scratch.previous;
+		double[] current = scratch.current;
+
+		long start = measured ? System.nanoTime() : 0;
+		initialize(model, observations[0], current);
+		if (measured) {
+			final long initialized = System.nanoTime();
+			metrics.initialized(initialized - start);
+			start = initialized;
+		}
+
+		long cells = 0;
+		long zeroCells = 0;
+		boolean pruned = false;
+		for (int step = 1; step < length; ++step) {
+			final double[] tmp = previous;
+			previous = current;
+			current = tmp;
+			final int previousObservation = observations[step - 1];
+			final int observation = observations[step];
+			if (model.transitionProbabilities != null && fewEmitting(model, previousObservation, observation)) {
+				if (observation == previousObservation) {
+					stepRun(model, scratch, previous, current, step * stateCount, observation);
+				} else {
+					stepEmitting(model, previous, current, scratch.backPointers, step * stateCount, previousObservation, observation);
+				}
+				pruned = true;
+				cells += (long) emittingCount(model, previousObservation) * emittingCount(model, observation);
+			} else {
+				step(model, previous, current, scratch.backPointers, step * stateCount, observation);
+				cells += cellsPerStep(model);
+			}
+			if (measured) {
+				zeroCells += zeroCells(model, current);
+			}
+		}
+		if (pruned && allZero(model, current)) {
+			// the pruned steps leave the backpointers of zero states as NO_STATE where the full kernels keep the best
+			// predecessor, so impossible (or underflowed) sequences are re-run with the full kernel to trace back the
+			// same path as every other engine
+			for (int step = 1; step < length; ++step) {
+				final double[] tmp = previous;
+				previous = current;
+				current = tmp;
+				if (step == 1) {
+					initialize(model, observations[0], previous);
+				}
+				step(model, previous, current, scratch.backPointers, step * stateCount, observations[step]);
+			}
+			cells += (length - 1) * cellsPerStep(model);
+		}
+		if (measured) {
+			final long stepped = System.nanoTime();
+			metrics.stepped(length - 1, stepped - start, cells, zeroCells);
+			start = stepped;
+		}
+
+		traceBack(scratch.backPointers, stateCount, length, argMax(current, stateCount), scratch.path);
+		if (measured) {
+			metrics.finished(System.nanoTime() - start, length, 4L * length * stateCount + 8L * 2 * stateCount);
+		}
+	}
+
+	// whether a symbol pair leaves states out of a step; inside a run of one symbol that is every step
+	private static boolean fewEmitting(CompiledViterbiModel<?, ?> model, int previousObservation, int observation) {
+		return emittingCount(model, previousObservation) < model.stateCount || emittingCount(model, observation) < model.stateCount;
+	}
+
+	private static int emittingCount(CompiledViterbiModel<?, ?> model, int observation) {
+		return model.emittingOffsets[observation + 1] - model.emittingOffsets[observation];
+	}
+
+	// dense models: only states that can emit the previous symbol have a non-zero previous score, and only states that
+	// can emit the current symbol can get a non-zero score
+	private static void stepEmitting(CompiledViterbiModel<?, ?> model, double[] previous, double[] current, int[] backPointers, int offset, int previousObservation, int observation) {
+		final int[] emittingOffsets = model.emittingOffsets;
+		stepRestricted(model, previous, current, backPointers, offset, observation,
+				model.emittingStates, emittingOffsets[previousObservation], emittingOffsets[previousObservation + 1],
+				model.emittingStates, emittingOffsets[observation], emittingOffsets[observation + 1]);
+	}
+
+	// stepEmitting() inside a run of one symbol, where the src and dest states are the same: their transitions are
+	// gathered into a dest-major block once per run, or once for consecutive runs of the symbol, and every step of the
+	// run scans its rows contiguously instead of striding through the full matrix. the pairs and the arithmetic are
+	// those of stepRestricted(), so are the scores and backpointers
+	private static void stepRun(CompiledViterbiModel<?, ?> model, DecoderScratch scratch, double[] previous, double[] current, int offset, int observation) {
+		final int stateCount = model.stateCount;
+		final boolean logSpace = model.logSpace;
+		final int[] states = model.emittingStates;
+		final int from = model.emittingOffsets[observation];
+		final int count = model.emittingOffsets[observation + 1] - from;
+		final double[] emissionColumns = model.emissionColumns;
+		final int column = observation * stateCount;
+		final int[] backPointers = scratch.backPointers;
+		final double zeroProb = logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+
+		if (scratch.runModel != model || scratch.runSymbol != observation) {
+			// count < stateCount, so the block is smaller than the transition matrix
+			if (scratch.runTransitions.length < count * count) {
+				scratch.runTransitions = new double[count * count];
+			}
+			final double[] transitionProbabilities = model.transitionProbabilities;
+			for (int i = 0; i < count; ++i) {
+				for (int j = 0; j < count; ++j) {
+					scratch.runTransitions[i * count + j] = transitionProbabilities[states[from + j] * stateCount + states[from + i]];
+				}
+			}
+			scratch.runModel = model;
+			scratch.runSymbol = observation;
+		}
+		final double[] block = scratch.runTransitions;
+
+		Arrays.fill(current, zeroProb);
+		Arrays.fill(backPointers, offset, offset + stateCount, NO_STATE);
+		for (int i = 0; i < count; ++i) {
+			final int state = states[from + i];
+			final int row = i * count;
+			double maxProb = zeroProb;
+			int prevStateWithMaxProb = NO_STATE;
+			for (int j = 0; j < count; ++j) {
+				final int state2 = states[from + j];
+				final double prob = logSpace ? previous[state2] + block[row + j] : previous[state2] * block[row + j];
+				if (prob > maxProb) {
+					maxProb = prob;
+					prevStateWithMaxProb = state2;
+				}
+			}
+			current[state] = logSpace ? maxProb + emissionColumns[column + state] : maxProb * emissionColumns[column + state];
+			backPointers[offset + state] = prevStateWithMaxProb;
+		}
+	}
+
+	// a step over the src states srcStates[srcFrom .. srcTo), the only ones with a non-zero previous score, into the dest
+	// states destStates[destFrom .. destTo), both ascending; every other dest gets the zero score. the pairs are scanned in
+	// the same order as the full kernels. the backpointers of zero states are left as NO_STATE; non-zero states only ever
+	// point to non-zero ones, so every path ending in a non-zero state is traced the same. sparse models scan the
+	// predecessor lists of the dest states, where src states with a zero score lose by themselves
+	private static void stepRestricted(CompiledViterbiModel<?, ?> model, double[] previous, double[] current, int[] backPointers, int offset, int observation,
+			int[] srcStates, int srcFrom, int srcTo, int[] destStates, int destFrom, int destTo) {
+		final int stateCount = model.stateCount;
+		final boolean logSpace = model.logSpace;
+		final double[] transitionProbabilities = model.transitionProbabilities;
+		final double[] emissionColumns = model.emissionColumns;
+		final int column = observation * stateCount;
+		final double zeroProb = logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+
+		Arrays.fill(current, zeroProb);
+		Arrays.fill(backPointers, offset, offset + stateCount, NO_STATE);
+		for (int i = destFrom; i < destTo; ++i) {
+			final int state = destStates[i];
+			double maxProb = zeroProb;
+			int prevStateWithMaxProb = NO_STATE;
+			if (transitionProbabilities != null) {
+				for (int j = srcFrom; j < srcTo; ++j) {
+					final int state2 = srcStates[j];
+					final double transitionProb = transitionProbabilities[state2 * stateCount + state];
+					final double prob = logSpace ? previous[state2] + transitionProb : previous[state2] * transitionProb;
+					if (prob > maxProb) {
+						maxProb = prob;
+						prevStateWithMaxProb = state2;
+					}
+				}
+			} else {
+				for (int j = model.predecessorOffsets[state]; j < model.predecessorOffsets[state + 1]; ++j) {
+					final int state2 = model.predecessors[j];
+					final double transitionProb = model.predecessorProbabilities[j];
+					final double prob = logSpace ? previous[state2] + transitionProb : previous[state2] * transitionProb;
+					if (prob > maxProb) {
+						maxProb = prob;
+						prevStateWithMaxProb = state2;
+					}
+				}
+			}
+			current[state] = logSpace ? maxProb + emissionColumns[column + state] : maxProb * emissionColumns[column + state];
+			backPointers[offset + state] = prevStateWithMaxProb;
+		}
+	}
+
+	// decodes scratch.observations[0 .. length) into scratch.path[0 .. length), every position restricted to the states
+	// constraints allow; unconstrained positions are restricted to the states emitting their observation, which loses
+	// nothing. the path is all NO_STATE if no allowed path can emit the observations
+	static void decode(CompiledViterbiModel<?, ?> model, int length, StateConstraints<?> constraints, DecoderScratch scratch) {
+		final int stateCount = model.stateCount;
+		final int[] observations = scratch.observations;
+		final int[] allowedOffsets = constraints.allowedOffsets;
+		final int[] allowedStates = constraints.allowedStates;
+		final int[] emittingOffsets = model.emittingOffsets;
+		final int[] emittingStates = model.emittingStates;
+		double[] previous = scratch.previous;
+		double[] current = scratch.current;
+
+		int[] srcStates = null;
+		int srcFrom = 0;
+		int srcTo = 0;
+		for (int step = 0; step < length; ++step) {
+			final int[] destStates;
+			final int destFrom;
+			final int destTo;
+			if (allowedOffsets[step + 1] > allowedOffsets[step]) {
+				destStates = allowedStates;
+				destFrom = allowedOffsets[step];
+				destTo = allowedOffsets[step + 1];
+			} else {
+				destStates = emittingStates;
+				destFrom = emittingOffsets[observations[step]];
+				destTo = emittingOffsets[observations[step] + 1];
+			}
+			final double[] tmp = previous;
+			previous = current;
+			current = tmp;
+			if (step == 0) {
+				initialize(model, observations[0], previous);
+				Arrays.fill(current, model.logSpace ? Double.NEGATIVE_INFINITY : 0.0);
+				for (int i = destFrom; i < destTo; ++i) {
+					current[destStates[i]] = previous[destStates[i]];
+				}
+			} else {
+				stepRestricted(model, previous, current, scratch.backPointers, step * stateCount, observations[step], srcStates, srcFrom, srcTo, destStates, destFrom, destTo);
+			}
+			srcStates = destStates;
+			srcFrom = destFrom;
+			srcTo = destTo;
+		}
+
+		if (allZero(model, current)) {
+			Arrays.fill(scratch.path, 0, length, NO_STATE);
+		} else {
+			traceBack(scratch.backPointers, stateCount, length, argMax(current, stateCount), scratch.path);
+		}
+	}
+
+	private static boolean allZero(CompiledViterbiModel<?, ?> model, double[] row) {
+		return zeroCells(model, row) == model.stateCount;
+	}
+
+	// scans only the non-zero predecessors of each dest state, in the same ascending order as the dense kernels
+	private static void stepSparse(CompiledViterbiModel<?, ?> model, double[] previous, double[] current, int[] backPointers, int offset, int observation, int from, int to) {
+		final boolean logSpace = model.logSpace;
+		final int column = observation * model.stateCount;
+		final int[] predecessorOffsets = model.predecessorOffsets;
+		final int[] predecessors = model.predecessors;
+		final double[] predecessorProbabilities = model.predecessorProbabilities;
+		final double[] emissionColumns = model.emissionColumns;
+		final double zeroProb = logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+		for (int state = from; state < to; ++state) {
+			double maxProb = zeroProb;
+			int prevStateWithMaxProb = NO_STATE;
+			final int end = predecessorOffsets[state + 1];
+			for (int i = predecessorOffsets[state]; i < end; ++i) {
+				final int state2 = predecessors[i];
+				final double prob = logSpace ? previous[state2] + predecessorProbabilities[i] : previous[state2] * predecessorProbabilities[i];
+				if (prob > maxProb) {
+					maxProb = prob;
+					prevStateWithMaxProb = state2;
+				}
+			}
+			final double emissionProb = emissionColumns[column + state];
+			current[state] = logSpace ? maxProb + emissionProb : maxProb * emissionProb;
+			backPointers[offset + state] = prevStateWithMaxProb;
+		}
+	}
+
+	// (src, dest) pairs a full step evaluates
+	static long cellsPerStep(CompiledViterbiModel<?, ?> model) {
+		return model.transitionProbabilities == null ? model.predecessors.length : (long) model.stateCount * model.stateCount;
+	}
+
+	static int zeroCells(CompiledViterbiModel<?, ?> model, double[] row) {
+		final double zeroProb = model.logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+		int count = 0;
+		for (int state = 0; state < model.stateCount; ++state) {
+			if (row[state] == zeroProb) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	static int argMax(double[] row, int length) {
+		return argMax(row, 0, length);
+	}
+
+	// the first best state of the row stored at trellis[offset .. offset + length)
+	static int argMax(double[] trellis, int offset, int length) {
+		int stateWithMaxProb = 0;
+		double maxProb = trellis[offset];
+		for (int state = 1; state < length; ++state) {
+			if (trellis[offset + state] > maxProb) {
+				maxProb = trellis[offset + state];
+				stateWithMaxProb = state;
+			}
+		}
+		return stateWithMaxProb;
+	}
+
+	// natural log score of path[0 .. length) emitting observations, summed along the path so that it needs no trellis and
+	// does not underflow in probability space; stepLogScores, if not null, receives the score of every prefix
+	static double pathLogScore(CompiledViterbiModel<?, ?> model, int[] observations, int[] path, int length, double[] stepLogScores) {
+		final int stateCount = model.stateCount;
+		double score = 0.0;
+		for (int i = 0; i < length; ++i) {
+			final int state = path[i];
+			if (state == NO_STATE || score == Double.NEGATIVE_INFINITY) {
+				score = Double.NEGATIVE_INFINITY;
+			} else {
+				score += log(model, i == 0 ? model.initialDistributions[state] : model.transitionProbability(path[i - 1], state));
+				score += log(model, model.emissionColumns[observations[i] * stateCount + state]);
+			}
+			if (stepLogScores != null) {
+				stepLogScores[i] = score;
+			}
+		}
+		return score;
+	}
+
+	private static double log(CompiledViterbiModel<?, ?> model, double prob) {
+		return model.logSpace ? prob : Math.log(prob);
+	}
+
+	// walks the backpointer matrix from the last column, writing state indices into path[0 .. length)
+	static void traceBack(int[] backPointers, int stateCount, int length, int lastState, int[] path) {
+		int state = lastState;
+		for (int i = length - 1; i >= 0; --i) {
+			path[i] = state;
+			state = state == NO_STATE ? NO_STATE : backPointers[i * stateCount + state];
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package viterbi;
+
+// optional instrumentation hook of the decoders, every callback defaults to doing nothing;
+// decoders skip the timing and counting entirely when given NONE
+public interface ViterbiMetrics {
+	ViterbiMetrics NONE = new ViterbiMetrics() { };
+
+	default void validated(long nanos) {
+	}
+
+	default void initialized(long nanos) {
+	}
+
+	// cells: (src, dest) pairs evaluated, zeroCells: trellis cells left at probability zero (unreachable or underflowed)
+	default void stepped(int steps, long nanos, long cells, long zeroCells) {
+	}
+
+	// trellisBytes: approximate memory held by the trellis of the finished sequence
+	default void finished(long nanos, int length, long trellisBytes) {
+	}
+
+	// lag: observations pushed after the position that has just been decided
+	default void converged(long lag) {
+	}
+}
@@ -0,0 +1,406 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// binary format of a compiled model, little-endian:
+//   int magic, int version, int flags, int stateCount, int observationCount, int transitionCount
+//   state and observation enum type names (empty for runtime vocabularies), every state label, every observation label
+//   (strings are an int length + UTF-8 bytes)
+//   padding to 8 bytes
+//   initial distributions [stateCount], emission probabilities [stateCount * observationCount] row by row of each state
+//   dense: transition probabilities [stateCount * stateCount]
+//   sparse: predecessorOffsets, predecessors, predecessorProbabilities, successorOffsets, successors, successorProbabilities
+// probability blocks are doubles, or floats with FLAG_FLOAT; every block starts on an 8 byte boundary.
+// the file is mapped only to read it: every block is copied into the heap arrays of the compiled model, floats widened
+// to doubles, so a loaded model takes the same memory as a compiled one and does not keep the file open
+public final class ViterbiModelFormat {
+	static final int MAGIC = 0x56544231; // "VTB1"
+	static final int VERSION = 1;
+
+	static final int FLAG_LOG_SPACE = 1;
+	static final int FLAG_SPARSE = 2;
+	static final int FLAG_FLOAT = 4;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	// a mapping window may not exceed Integer.MAX_VALUE bytes
+	private static final long MAX_WINDOW = 1L << 30;
+
+	private ViterbiModelFormat() {
+	}
+
+	public static void write(CompiledViterbiModel<?, ?> model, Path path) throws IOException {
+		write(model, path, false);
+	}
+
+	// singlePrecision stores the probabilities as floats, which halves the file but rounds every value
+	public static void write(CompiledViterbiModel<?, ?> model, Path path, boolean singlePrecision) throws IOException {
+		checkNotNull(model);
+		checkNotNull(path);
+		int flags = 0;
+		if (model.logSpace) {
+			flags |= FLAG_LOG_SPACE;
+		}
+		if (model.isSparse()) {
+			flags |= FLAG_SPARSE;
+		}
+		if (singlePrecision) {
+			flags |= FLAG_FLOAT;
+		}
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			final Writer writer = new Writer(channel);
+			writer.putInt(MAGIC);
+			writer.putInt(VERSION);
+			writer.putInt(flags);
+			writer.putInt(model.stateCount);
+			writer.putInt(model.observationCount);
+			writer.putInt(model.isSparse() ? model.predecessors.length : model.transitionProbabilities.length);
+			putVocabularyType(writer, model.getStateVocabulary());
+			putVocabularyType(writer, model.getObservationVocabulary());
+			putLabels(writer, model.getStateVocabulary());
+			putLabels(writer, model.getObservationVocabulary());
+			writer.align();
+
+			writer.putProbabilities(model.initialDistributions, singlePrecision);
+			writer.putProbabilities(transpose(model.emissionColumns, model.observationCount, model.stateCount), singlePrecision);
+			if (model.isSparse()) {
+				writer.putInts(model.predecessorOffsets);
+				writer.putInts(model.predecessors);
+				writer.putProbabilities(model.predecessorProbabilities, singlePrecision);
+				writer.putInts(model.successorOffsets);
+				writer.putInts(model.successors);
+				writer.putProbabilities(model.successorProbabilities, singlePrecision);
+			} else {
+				writer.putProbabilities(model.transitionProbabilities, singlePrecision);
+			}
+			writer.flush();
+		}
+	}
+
+	// enum vocabularies are written with their type name, runtime ones with an empty name; labels are written as strings
+	private static void putVocabularyType(Writer writer, Vocabulary<?> vocabulary) throws IOException {
+		writer.putString(vocabulary.isEnum() ? vocabulary.getEnumType().getName() : "");
+	}
+
+	private static void putLabels(Writer writer, Vocabulary<?> vocabulary) throws IOException {
+		for (Object label : vocabulary.getLabels()) {
+			writer.putString(label instanceof Enum ? ((Enum<?>) label).name() : label.toString());
+		}
+	}
+
+	// copies the blocks of the file into a compiled model, the enum types must match the ones the model was written with
+	public static <S extends Enum<S>, T extends Enum<T>> CompiledViterbiModel<S, T> read(Path path, Class<S> stateType, Class<T> observationType) throws IOException {
+		checkNotNull(stateType);
+		checkNotNull(observationType);
+		return read(path, (typeName, names) -> enumVocabulary(stateType, typeName, names), (typeName, names) -> enumVocabulary(observationType, typeName, names));
+	}
+
+	// reads any model file with its labels as strings, for alphabets only known at runtime
+	public static CompiledViterbiModel<String, String> read(Path path) throws IOException {
+		return read(path, (typeName, names) -> Vocabulary.of(names), (typeName, names) -> Vocabulary.of(names));
+	}
+
+	private interface VocabularyFactory<E> {
+		Vocabulary<E> create(String typeName, List<String> names);
+	}
+
+	private static <S, T> CompiledViterbiModel<S, T> read(Path path, VocabularyFactory<S> stateFactory, VocabularyFactory<T> observationFactory) throws IOException {
+		checkNotNull(path);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final Reader reader = new Reader(channel);
+			if (reader.getInt() != MAGIC) {
+				throw new IOException(path + " is not a viterbi model file");
+			}
+			final int version = reader.getInt();
+			if (version != VERSION) {
+				throw new IOException("unsupported model file version " + version + ", expected " + VERSION);
+			}
+			final int flags = reader.getInt();
+			final int stateCount = reader.getInt();
+			final int observationCount = reader.getInt();
+			final int transitionCount = reader.getInt();
+			if (stateCount < 1 || observationCount < 1 || transitionCount < 0
+					|| (long) stateCount * observationCount > Integer.MAX_VALUE || transitionCount > (long) stateCount * stateCount) {
+				throw new IOException("corrupt model file header");
+			}
+
+			final String stateTypeName = reader.getString();
+			final String observationTypeName = reader.getString();
+			final Vocabulary<S> states = stateFactory.create(stateTypeName, getStrings(reader, stateCount));
+			final Vocabulary<T> observations = observationFactory.create(observationTypeName, getStrings(reader, observationCount));
+			reader.align();
+
+			final boolean singlePrecision = (flags & FLAG_FLOAT) != 0;
+			final double[] initialDistributions = reader.getProbabilities(stateCount, singlePrecision);
+			final double[] emissionColumns = transpose(reader.getProbabilities(stateCount * observationCount, singlePrecision), stateCount, observationCount);
+			final boolean logSpace = (flags & FLAG_LOG_SPACE) != 0;
+			if ((flags & FLAG_SPARSE) != 0) {
+				final int[] predecessorOffsets = reader.getInts(stateCount + 1);
+				final int[] predecessors = reader.getInts(transitionCount);
+				final double[] predecessorProbabilities = reader.getProbabilities(transitionCount, singlePrecision);
+				final int[] successorOffsets = reader.getInts(stateCount + 1);
+				final int[] successors = reader.getInts(transitionCount);
+				final double[] successorProbabilities = reader.getProbabilities(transitionCount, singlePrecision);
+				checkOffsets(predecessorOffsets, predecessors, stateCount);
+				checkOffsets(successorOffsets, successors, stateCount);
+				return new CompiledViterbiModel<>(states, observations, logSpace, initialDistributions, null, emissionColumns,
+						predecessorOffsets, predecessors, predecessorProbabilities,
+						successorOffsets, successors, successorProbabilities);
+			}
+			if (transitionCount != (long) stateCount * stateCount) {
+				throw new IOException("corrupt model file header");
+			}
+			final double[] transitionProbabilities = reader.getProbabilities(transitionCount, singlePrecision);
+			return new CompiledViterbiModel<>(states, observations, logSpace, initialDistributions, transitionProbabilities, emissionColumns,
+					null, null, null, null, null, null);
+		}
+	}
+
+	// the compiled model keeps the emissions by symbol, the file by state
+	private static double[] transpose(double[] matrix, int rows, int columns) {
+		final double[] ret = new double[matrix.length];
+		for (int row = 0; row < rows; ++row) {
+			for (int column = 0; column < columns; ++column) {
+				ret[column * rows + row] = matrix[row * columns + column];
+			}
+		}
+		return ret;
+	}
+
+	private static List<String> getStrings(Reader reader, int count) throws IOException {
+		// every string has at least its length
+		reader.require(4L * count);
+		final List<String> ret = new ArrayList<>(count);
+		for (int i = 0; i < count; ++i) {
+			ret.add(reader.getString());
+		}
+		return ret;
+	}
+
+	// the file must list every constant of the enum in ordinal order, otherwise the indices would silently shift;
+	// files written from runtime vocabularies have no type name and are checked by the names only
+	private static <E extends Enum<E>> Vocabulary<E> enumVocabulary(Class<E> type, String typeName, List<String> names) {
+		if (!typeName.isEmpty() && !typeName.equals(type.getName())) {
+			throw new IllegalArgumentException("model file was written for " + typeName + ", not " + type.getName());
+		}
+		final E[] constants = type.getEnumConstants();
+		if (constants.length != names.size()) {
+			throw new IllegalArgumentException(type.getName() + " has " + constants.length + " constants, model file has " + names.size());
+		}
+		for (E constant : constants) {
+			final String name = names.get(constant.ordinal());
+			if (!name.equals(constant.name())) {
+				throw new IllegalArgumentException(type.getName() + " constant " + constant.ordinal() + " is " + constant.name() + ", model file has " + name);
+			}
+		}
+		return Vocabulary.ofEnum(type);
+	}
+
+	// the kernels index without bounds checks beyond the arrays', so reject lists that point outside them; the lists
+	// of every state must also be strictly ascending, for the binary search of transitionProbability()
+	private static void checkOffsets(int[] offsets, int[] indices, int stateCount) throws IOException {
+		if (offsets[0] != 0 || offsets[stateCount] != indices.length) {
+			throw new IOException("corrupt sparse transition block");
+		}
+		for (int state = 0; state < stateCount; ++state) {
+			if (offsets[state] > offsets[state + 1]) {
+				throw new IOException("corrupt sparse transition block");
+			}
+			int previous = -1;
+			for (int i = offsets[state]; i < offsets[state + 1]; ++i) {
+				if (indices[i] <= previous || indices[i] >= stateCount) {
+					throw new IOException("corrupt sparse transition block");
+				}
+				previous = indices[i];
+			}
+		}
+	}
+
+	private static final class Writer {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		private long position;
+
+		Writer(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(4);
+			buffer.putInt(value);
+			position += 4;
+		}
+
+		void putString(String value) throws IOException {
+			final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+			for (int i = 0; i < bytes.length; ) {
+				ensure(1);
+				final int count = Math.min(buffer.remaining(), bytes.length - i);
+				buffer.put(bytes, i, count);
+				i += count;
+				position += count;
+			}
+		}
+
+		void putInts(int[] values) throws IOException {
+			for (int value : values) {
+				putInt(value);
+			}
+			align();
+		}
+
+		void putProbabilities(double[] values, boolean singlePrecision) throws IOException {
+			for (double value : values) {
+				if (singlePrecision) {
+					ensure(4);
+					buffer.putFloat((float) value);
+					position += 4;
+				} else {
+					ensure(8);
+					buffer.putDouble(value);
+					position += 8;
+				}
+			}
+			align();
+		}
+
+		void align() throws IOException {
+			while (position % 8 != 0) {
+				ensure(1);
+				buffer.put((byte) 0);
+				++position;
+			}
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+
+	// reads through a window mapped over the file, remapped whenever a read would run past it
+	private static final class Reader {
+		private final FileChannel channel;
+		private final long size;
+		private MappedByteBuffer window;
+		private long windowStart;
+		private long position;
+
+		Reader(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.size = channel.size();
+			map(0);
+		}
+
+		int getInt() throws IOException {
+			ensure(4);
+			final int value = window.getInt((int) (position - windowStart));
+			position += 4;
+			return value;
+		}
+
+		String getString() throws IOException {
+			final int length = getInt();
+			if (length < 0) {
+				throw new IOException("corrupt model file header");
+			}
+			ensure(length);
+			final byte[] bytes = new byte[length];
+			window.position((int) (position - windowStart));
+			window.get(bytes);
+			position += length;
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		int[] getInts(int count) throws IOException {
+			require(4L * count);
+			final int[] values = new int[count];
+			for (int done = 0; done < count; ) {
+				ensure(4);
+				window.position((int) (position - windowStart));
+				final int chunk = Math.min(count - done, window.remaining() / 4);
+				window.asIntBuffer().get(values, done, chunk);
+				done += chunk;
+				position += 4L * chunk;
+			}
+			align();
+			return values;
+		}
+
+		double[] getProbabilities(int count, boolean singlePrecision) throws IOException {
+			require((singlePrecision ? 4L : 8L) * count);
+			final double[] values = new double[count];
+			if (singlePrecision) {
+				final float[] floats = new float[Math.min(count, BUFFER_SIZE)];
+				for (int done = 0; done < count; ) {
+					ensure(4);
+					window.position((int) (position - windowStart));
+					final int chunk = Math.min(Math.min(count - done, floats.length), window.remaining() / 4);
+					window.asFloatBuffer().get(floats, 0, chunk);
+					for (int i = 0; i < chunk; ++i) {
+						values[done + i] = floats[i];
+					}
+					done += chunk;
+					position += 4L * chunk;
+				}
+			} else {
+				for (int done = 0; done < count; ) {
+					ensure(8);
+					window.position((int) (position - windowStart));
+					final int chunk = Math.min(count - done, window.remaining() / 8);
+					window.asDoubleBuffer().get(values, done, chunk);
+					done += chunk;
+					position += 8L * chunk;
+				}
+			}
+			align();
+			return values;
+		}
+
+		void align() {
+			position = (position + 7) & ~7L;
+		}
+
+		// checked before a block is allocated, so a corrupt count fails here instead of allocating a huge array
+		void require(long bytes) throws IOException {
+			if (position + bytes > size) {
+				throw new IOException("truncated model file");
+			}
+		}
+
+		private void ensure(long bytes) throws IOException {
+			require(bytes);
+			if (position + bytes > windowStart + window.capacity()) {
+				map(position);
+			}
+		}
+
+		private void map(long start) throws IOException {
+			windowStart = start;
+			window = channel.map(MapMode.READ_ONLY, start, Math.min(size - start, MAX_WINDOW));
+			window.order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+}
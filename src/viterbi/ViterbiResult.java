@@ -0,0 +1,54 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// a decoded path with its natural log score, and optionally the log score of every prefix of the path.
+// the scores are Double.NEGATIVE_INFINITY for impossible paths, and from the position where a path has no state on
+public class ViterbiResult<S> {
+	private final List<S> path;
+	private final double logScore;
+	// null unless requested
+	private final double[] stepLogScores;
+
+	ViterbiResult(List<S> path, double logScore, double[] stepLogScores) {
+		this.path = path;
+		this.logScore = logScore;
+		this.stepLogScores = stepLogScores;
+	}
+
+	public List<S> getPath() {
+		return path;
+	}
+
+	// natural log of the joint probability of the path and the observations, for probability-space models too
+	public double getLogScore() {
+		return logScore;
+	}
+
+	public boolean hasStepLogScores() {
+		return stepLogScores != null;
+	}
+
+	// log score of the path up to and including position
+	public double getStepLogScore(int position) {
+		if (stepLogScores == null) {
+			throw new IllegalStateException("step scores were not requested");
+		}
+		checkElementIndex(position, stepLogScores.length, "position");
+		return stepLogScores[position];
+	}
+
+	// path holds state indices, NO_STATE where no state is possible
+	static <S> ViterbiResult<S> of(CompiledViterbiModel<S, ?> model, int[] observations, int[] path, int length, boolean stepScores) {
+		final double[] stepLogScores = stepScores ? new double[length] : null;
+		final double logScore = ViterbiKernel.pathLogScore(model, observations, path, length, stepLogScores);
+		final List<S> states = new ArrayList<>(length);
+		for (int i = 0; i < length; ++i) {
+			states.add(model.state(path[i]));
+		}
+		return new ViterbiResult<>(states, logScore, stepLogScores);
+	}
+}
@@ -0,0 +1,115 @@
+package viterbi;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// thread-safe ViterbiMetrics that accumulates totals, to be shared by decoders and polled by a metrics registry
+public class ViterbiStatistics implements ViterbiMetrics {
+	private final LongAdder validations = new LongAdder();
+	private final LongAdder validateNanos = new LongAdder();
+	private final LongAdder initializations = new LongAdder();
+	private final LongAdder initializeNanos = new LongAdder();
+	private final LongAdder steps = new LongAdder();
+	private final LongAdder stepNanos = new LongAdder();
+	private final LongAdder cells = new LongAdder();
+	private final LongAdder zeroCells = new LongAdder();
+	private final LongAdder finishes = new LongAdder();
+	private final LongAdder finishNanos = new LongAdder();
+	private final LongAccumulator maxTrellisBytes = new LongAccumulator(Math::max, 0);
+	private final LongAdder convergences = new LongAdder();
+	private final LongAdder convergenceLag = new LongAdder();
+	private final LongAccumulator maxConvergenceLag = new LongAccumulator(Math::max, 0);
+
+	@Override
+	public void validated(long nanos) {
+		validations.increment();
+		validateNanos.add(nanos);
+	}
+
+	@Override
+	public void initialized(long nanos) {
+		initializations.increment();
+		initializeNanos.add(nanos);
+	}
+
+	@Override
+	public void stepped(int steps, long nanos, long cells, long zeroCells) {
+		this.steps.add(steps);
+		this.stepNanos.add(nanos);
+		this.cells.add(cells);
+		this.zeroCells.add(zeroCells);
+	}
+
+	@Override
+	public void finished(long nanos, int length, long trellisBytes) {
+		finishes.increment();
+		finishNanos.add(nanos);
+		maxTrellisBytes.accumulate(trellisBytes);
+	}
+
+	@Override
+	public void converged(long lag) {
+		convergences.increment();
+		convergenceLag.add(lag);
+		maxConvergenceLag.accumulate(lag);
+	}
+
+	public long getValidations() {
+		return validations.sum();
+	}
+
+	public long getValidateTime(TimeUnit unit) {
+		return unit.convert(validateNanos.sum(), TimeUnit.NANOSECONDS);
+	}
+
+	public long getInitializations() {
+		return initializations.sum();
+	}
+
+	public long getInitializeTime(TimeUnit unit) {
+		return unit.convert(initializeNanos.sum(), TimeUnit.NANOSECONDS);
+	}
+
+	public long getSteps() {
+		return steps.sum();
+	}
+
+	public long getStepTime(TimeUnit unit) {
+		return unit.convert(stepNanos.sum(), TimeUnit.NANOSECONDS);
+	}
+
+	public double getStepsPerSecond() {
+		final long nanos = stepNanos.sum();
+		return nanos == 0 ? 0.0 : steps.sum() * 1e9 / nanos;
+	}
+
+	public long getCellsEvaluated() {
+		return cells.sum();
+	}
+
+	public long getZeroProbabilityCells() {
+		return zeroCells.sum();
+	}
+
+	public long getFinishes() {
+		return finishes.sum();
+	}
+
+	public long getFinishTime(TimeUnit unit) {
+		return unit.convert(finishNanos.sum(), TimeUnit.NANOSECONDS);
+	}
+
+	public long getMaxTrellisBytes() {
+		return maxTrellisBytes.get();
+	}
+
+	public double getMeanConvergenceLag() {
+		final long count = convergences.sum();
+		return count == 0 ? 0.0 : (double) convergenceLag.sum() / count;
+	}
+
+	public long getMaxConvergenceLag() {
+		return maxConvergenceLag.get();
+	}
+}
@@ -0,0 +1,356 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import viterbi.Viterbi.ViterbiModel;
+
+// estimates model parameters from unlabelled sequences. the corpus is read once per iteration through a fresh iterator
+// and held in memory only batchSize sequences at a time, so it may come straight from disk and be larger than the heap.
+// every batch is split across the fork-join pool, each worker thread counts into its own primitive arrays for the whole
+// iteration, and those are summed up once it is done; transitions that are zero in the starting model stay zero.
+// an iterator that is AutoCloseable is closed at the end of its iteration
+public class ViterbiTrainer<S extends Enum<S>, T extends Enum<T>> {
+	public static final int DEFAULT_BATCH_SIZE = 4096;
+
+	// a fork-join task is split until it holds at most this many sequences per worker and split level
+	private static final int TASKS_PER_THREAD = 4;
+
+	public enum Method {
+		// expected counts over all paths, from forward-backward
+		BAUM_WELCH,
+		// counts along the single best path of every sequence
+		VITERBI
+	}
+
+	private final Supplier<? extends Iterator<? extends List<T>>> corpus;
+	private final Method method;
+	private final ForkJoinPool pool;
+	private final int batchSize;
+
+	public static class Iteration<S extends Enum<S>, T extends Enum<T>> {
+		private final int index;
+		private final ViterbiModel<S, T> model;
+		private final double logLikelihood;
+		private final long sequenceCount;
+		private final long skippedSequenceCount;
+
+		Iteration(int index, ViterbiModel<S, T> model, double logLikelihood, long sequenceCount, long skippedSequenceCount) {
+			this.index = index;
+			this.model = model;
+			this.logLikelihood = logLikelihood;
+			this.sequenceCount = sequenceCount;
+			this.skippedSequenceCount = skippedSequenceCount;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		// the re-estimated model
+		public ViterbiModel<S, T> getModel() {
+			return model;
+		}
+
+		// of the corpus under the model the iteration started from: the total log-likelihood for baum-welch,
+		// the total log-probability of the best paths for viterbi training
+		public double getLogLikelihood() {
+			return logLikelihood;
+		}
+
+		public long getSequenceCount() {
+			return sequenceCount;
+		}
+
+		// sequences that have zero probability under the model the iteration started from, they do not contribute counts
+		public long getSkippedSequenceCount() {
+			return skippedSequenceCount;
+		}
+	}
+
+	public ViterbiTrainer(Supplier<? extends Iterator<? extends List<T>>> corpus, Method method) {
+		this(corpus, method, ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+	}
+
+	public ViterbiTrainer(Supplier<? extends Iterator<? extends List<T>>> corpus, Method method, ForkJoinPool pool, int batchSize) {
+		this.corpus = checkNotNull(corpus);
+		this.method = checkNotNull(method);
+		this.pool = checkNotNull(pool);
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize should be positive, was " + batchSize);
+		}
+		this.batchSize = batchSize;
+	}
+
+	// runs iterations until maxIterations or until the log-likelihood improves by less than tolerance,
+	// listener sees every iteration as it completes; returns the last re-estimated model
+	public ViterbiModel<S, T> train(ViterbiModel<S, T> model, int maxIterations, double tolerance, Consumer<? super Iteration<S, T>> listener) {
+		checkNotNull(model);
+		checkNotNull(listener);
+		if (maxIterations < 1) {
+			throw new IllegalArgumentException("maxIterations should be positive, was " + maxIterations);
+		}
+		double previousLogLikelihood = Double.NEGATIVE_INFINITY;
+		for (int index = 0; index < maxIterations; ++index) {
+			final Iteration<S, T> iteration = iterate(model, index);
+			listener.accept(iteration);
+			model = iteration.getModel();
+			if (iteration.getLogLikelihood() - previousLogLikelihood < tolerance) {
+				break;
+			}
+			previousLogLikelihood = iteration.getLogLikelihood();
+		}
+		return model;
+	}
+
+	// one pass over the corpus: counts under model, then re-estimates
+	public Iteration<S, T> iterate(ViterbiModel<S, T> model) {
+		return iterate(checkNotNull(model), 0);
+	}
+
+	private Iteration<S, T> iterate(ViterbiModel<S, T> model, int index) {
+		final CompiledViterbiModel<S, T> compiled = CompiledViterbiModel.compile(model);
+		final Counter counter = new Counter(compiled);
+
+		final Iterator<? extends List<T>> sequences = checkNotNull(corpus.get());
+		try {
+			final List<int[]> batch = new ArrayList<>(batchSize);
+			while (sequences.hasNext()) {
+				final List<T> sequence = sequences.next();
+				if (!sequence.isEmpty()) {
+					batch.add(compiled.toIndices(sequence));
+				}
+				if (batch.size() == batchSize || !sequences.hasNext()) {
+					final int threshold = Math.max(1, batch.size() / (pool.getParallelism() * TASKS_PER_THREAD));
+					pool.invoke(new CountTask(counter, batch, 0, batch.size(), threshold));
+					batch.clear();
+				}
+			}
+		} finally {
+			close(sequences);
+		}
+
+		final Counts total = new Counts(compiled);
+		for (Counts counts : counter.workerCounts) {
+			total.add(counts);
+		}
+		return new Iteration<>(index, total.estimate(model), total.logLikelihood, total.sequenceCount, total.skippedSequenceCount);
+	}
+
+	private static void close(Iterator<?> iterator) {
+		if (iterator instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) iterator).close();
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IllegalStateException("could not close the corpus", e);
+			}
+		}
+	}
+
+	// the per-model part of counting, shared by all tasks of an iteration. every thread that counts gets one Counts
+	// for the iteration, registered in workerCounts; the joins of the tasks publish them to the iterating thread
+	private final class Counter {
+		private final CompiledViterbiModel<S, T> model;
+		private final ForwardBackward<S, T> forwardBackward;
+		private final ThreadLocal<DecoderScratch> scratch;
+		private final ConcurrentLinkedQueue<Counts> workerCounts = new ConcurrentLinkedQueue<>();
+		private final ThreadLocal<Counts> counts;
+
+		Counter(CompiledViterbiModel<S, T> model) {
+			this.model = model;
+			this.forwardBackward = method == Method.BAUM_WELCH ? new ForwardBackward<>(model, pool) : null;
+			this.scratch = ThreadLocal.withInitial(() -> new DecoderScratch(model.stateCount));
+			this.counts = ThreadLocal.withInitial(() -> {
+				final Counts counts = new Counts(model);
+				workerCounts.add(counts);
+				return counts;
+			});
+		}
+
+		void count(int[] observations) {
+			final Counts counts = this.counts.get();
+			++counts.sequenceCount;
+			final double logLikelihood;
+			if (method == Method.BAUM_WELCH) {
+				logLikelihood = forwardBackward.accumulate(observations, observations.length, counts.initial, counts.transitions, counts.emissions);
+			} else {
+				logLikelihood = countBestPath(observations, counts);
+			}
+			if (logLikelihood == Double.NEGATIVE_INFINITY) {
+				++counts.skippedSequenceCount;
+			} else {
+				counts.logLikelihood += logLikelihood;
+			}
+		}
+
+		private double countBestPath(int[] observations, Counts counts) {
+			final int length = observations.length;
+			final DecoderScratch scratch = this.scratch.get();
+			scratch.ensureCapacity(length, model.stateCount);
+			System.arraycopy(observations, 0, scratch.observations, 0, length);
+			ViterbiKernel.decode(model, length, scratch, ViterbiMetrics.NONE);
+			final int[] path = scratch.path;
+			// the path of an impossible (or in probability space underflowed) sequence runs through NO_STATE anywhere
+			// along it or through a zero probability, either way it scores zero and is not counted
+			final double logProb = ViterbiKernel.pathLogScore(model, observations, path, length, null);
+			if (logProb == Double.NEGATIVE_INFINITY) {
+				return logProb;
+			}
+
+			counts.initial[path[0]] += 1.0;
+			for (int position = 0; position < length; ++position) {
+				final int state = path[position];
+				if (position > 0) {
+					counts.transitions[transitionIndex(path[position - 1], state)] += 1.0;
+				}
+				counts.emissions[state * model.observationCount + observations[position]] += 1.0;
+			}
+			return logProb;
+		}
+
+		private int transitionIndex(int src, int dest) {
+			if (model.transitionProbabilities != null) {
+				return src * model.stateCount + dest;
+			}
+			return Arrays.binarySearch(model.successors, model.successorOffsets[src], model.successorOffsets[src + 1], dest);
+		}
+	}
+
+	// transitions are laid out like the compiled model's: dense [src * stateCount + dest] or sparse by successor index
+	private final class Counts {
+		private final CompiledViterbiModel<S, T> model;
+		final double[] initial;
+		final double[] transitions;
+		final double[] emissions;
+		double logLikelihood;
+		long sequenceCount;
+		long skippedSequenceCount;
+
+		Counts(CompiledViterbiModel<S, T> model) {
+			this.model = model;
+			initial = new double[model.stateCount];
+			transitions = new double[model.transitionProbabilities == null ? model.successors.length : model.stateCount * model.stateCount];
+			emissions = new double[model.stateCount * model.observationCount];
+		}
+
+		void add(Counts other) {
+			add(initial, other.initial);
+			add(transitions, other.transitions);
+			add(emissions, other.emissions);
+			logLikelihood += other.logLikelihood;
+			sequenceCount += other.sequenceCount;
+			skippedSequenceCount += other.skippedSequenceCount;
+		}
+
+		private void add(double[] target, double[] source) {
+			for (int i = 0; i < target.length; ++i) {
+				target[i] += source[i];
+			}
+		}
+
+		// normalizes the counts row by row, rows without any count keep the values of the starting model
+		ViterbiModel<S, T> estimate(ViterbiModel<S, T> original) {
+			final ImmutableList<S> states = model.getStates();
+			final ImmutableList<T> observations = model.getObservations();
+			final int stateCount = model.stateCount;
+			final int observationCount = model.observationCount;
+			final ViterbiModel.Builder<S, T> builder = ViterbiModel.<S, T>builder()
+					.withLogSpace(original.logSpace)
+					.withTransitionStorage(original.transitionStorage);
+
+			final double initialSum = sum(initial, 0, stateCount);
+			final ImmutableMap.Builder<S, Double> initialDistributions = ImmutableMap.builder();
+			for (S state : states) {
+				initialDistributions.put(state, initialSum > 0.0 ? initial[state.ordinal()] / initialSum : original.initialDistributions.getOrDefault(state, 0.0));
+			}
+			builder.withInitialDistributions(initialDistributions.build());
+
+			for (S src : states) {
+				final int from = model.transitionProbabilities == null ? model.successorOffsets[src.ordinal()] : src.ordinal() * stateCount;
+				final int to = model.transitionProbabilities == null ? model.successorOffsets[src.ordinal() + 1] : from + stateCount;
+				final double rowSum = sum(transitions, from, to);
+				if (rowSum > 0.0) {
+					for (int i = from; i < to; ++i) {
+						if (transitions[i] > 0.0) {
+							final int dest = model.transitionProbabilities == null ? model.successors[i] : i - from;
+							builder.withTransitionProbability(src, states.get(dest), transitions[i] / rowSum);
+						}
+					}
+				} else {
+					original.transitionProbabilities.row(src).forEach((dest, prob) -> builder.withTransitionProbability(src, dest, prob));
+				}
+			}
+
+			for (S state : states) {
+				final int from = state.ordinal() * observationCount;
+				final double rowSum = sum(emissions, from, from + observationCount);
+				if (rowSum > 0.0) {
+					for (T observation : observations) {
+						final double count = emissions[from + observation.ordinal()];
+						if (count > 0.0) {
+							builder.withEmissionProbability(state, observation, count / rowSum);
+						}
+					}
+				} else {
+					original.emissionProbabilities.row(state).forEach((observation, prob) -> builder.withEmissionProbability(state, observation, prob));
+				}
+			}
+			return builder.build();
+		}
+
+		private double sum(double[] values, int from, int to) {
+			double sum = 0.0;
+			for (int i = from; i < to; ++i) {
+				sum += values[i];
+			}
+			return sum;
+		}
+	}
+
+	private final class CountTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Counter counter;
+		private final List<int[]> batch;
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		CountTask(Counter counter, List<int[]> batch, int from, int to, int threshold) {
+			this.counter = counter;
+			this.batch = batch;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= threshold) {
+				for (int i = from; i < to; ++i) {
+					counter.count(batch.get(i));
+				}
+				return;
+			}
+			final int middle = (from + to) >>> 1;
+			final CountTask left = new CountTask(counter, batch, from, middle, threshold);
+			left.fork();
+			new CountTask(counter, batch, middle, to, threshold).compute();
+			left.join();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package viterbi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+
+// the labels of a state or observation alphabet and their dense int indices, known only at runtime.
+// enum alphabets index by ordinal, so the enum adapters pay no lookup
+public final class Vocabulary<E> {
+	private final ImmutableList<E> labels;
+	// null for enum vocabularies
+	private final Map<E, Integer> indices;
+	// null for map-backed vocabularies
+	private final Class<E> enumType;
+
+	private Vocabulary(ImmutableList<E> labels, Map<E, Integer> indices, Class<E> enumType) {
+		this.labels = labels;
+		this.indices = indices;
+		this.enumType = enumType;
+	}
+
+	// indices follow the order of labels, which should not contain duplicates
+	public static <E> Vocabulary<E> of(List<E> labels) {
+		final ImmutableList<E> list = ImmutableList.copyOf(checkNotNull(labels));
+		if (list.isEmpty()) {
+			throw new IllegalArgumentException("a vocabulary should have at least one label");
+		}
+		final Map<E, Integer> indices = new HashMap<>(list.size() * 2);
+		for (int i = 0; i < list.size(); ++i) {
+			if (indices.put(list.get(i), i) != null) {
+				throw new IllegalArgumentException("duplicate label " + list.get(i));
+			}
+		}
+		return new Vocabulary<>(list, indices, null);
+	}
+
+	public static <E extends Enum<E>> Vocabulary<E> ofEnum(Class<E> type) {
+		final E[] constants = checkNotNull(type).getEnumConstants();
+		if (constants.length == 0) {
+			throw new IllegalArgumentException("a vocabulary should have at least one label");
+		}
+		return new Vocabulary<>(ImmutableList.copyOf(constants), null, type);
+	}
+
+	public int size() {
+		return labels.size();
+	}
+
+	public E get(int index) {
+		return labels.get(index);
+	}
+
+	public int indexOf(E label) {
+		checkNotNull(label);
+		if (indices == null) {
+			// an unchecked caller can still pass a constant of another enum
+			if (!enumType.isInstance(label)) {
+				throw new IllegalArgumentException("unknown label " + label);
+			}
+			return ((Enum<?>) label).ordinal();
+		}
+		final Integer index = indices.get(label);
+		if (index == null) {
+			throw new IllegalArgumentException("unknown label " + label);
+		}
+		return index;
+	}
+
+	public boolean contains(E label) {
+		return indices == null ? enumType.isInstance(label) : indices.containsKey(label);
+	}
+
+	public ImmutableList<E> getLabels() {
+		return labels;
+	}
+
+	public boolean isEnum() {
+		return indices == null;
+	}
+
+	// the enum type for enum vocabularies, null otherwise
+	Class<?> getEnumType() {
+		return enumType;
+	}
+
+	void toIndices(List<E> labels, int[] target) {
+		final int size = labels.size();
+		for (int i = 0; i < size; ++i) {
+			target[i] = indexOf(labels.get(i));
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+import viterbi.Viterbi.ViterbiModel;
+import viterbi.Viterbi.ViterbiModel.TransitionStorage;
+
+import com.google.common.collect.ImmutableList;
+
+public class BeamViterbiDecoderTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void wideBeamSamePathsAsCompiledViterbiMachine() {
+		for (long seed = 0; seed < 40; ++seed) {
+			ViterbiModel.Builder<RandomState, RandomObservation> builder = TestModels.randomBuilder(seed, seed % 2 == 0 ? 0.0 : 0.7)
+					.withLogSpace(seed % 3 == 0)
+					.withTransitionStorage(seed % 4 < 2 ? TransitionStorage.DENSE : TransitionStorage.SPARSE);
+			CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(builder.build());
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed % 60));
+
+			BeamViterbiDecoder.Result<RandomState> result = new BeamViterbiDecoder<>(model, RandomState.values().length, Double.POSITIVE_INFINITY).decode(observations);
+			assertThat(result.getStates(), is(model.newMachine(observations).calculate()));
+			assertThat(result.getPrunedCells(), is(0L));
+		}
+	}
+
+	@Test
+	public void narrowBeamPrunesCells() {
+		CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(3, 0.0, true));
+		ImmutableList<RandomObservation> observations = TestModels.randomObservations(3, 500);
+
+		BeamViterbiDecoder.Result<RandomState> result = new BeamViterbiDecoder<>(model, 2, Double.POSITIVE_INFINITY).decode(observations);
+		assertThat(result.getStates().size(), is(500));
+		assertThat(result.getStates().contains(null), is(false));
+		assertThat(result.getEvaluatedCells(), is(2L * 500));
+		assertThat(result.getPrunedCells(), is(6L * 500));
+	}
+
+	@Test
+	public void thresholdPrunesCells() {
+		CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(4, 0.0, true));
+		ImmutableList<RandomObservation> observations = TestModels.randomObservations(4, 500);
+
+		BeamViterbiDecoder.Result<RandomState> result = new BeamViterbiDecoder<>(model, RandomState.values().length, 1.0).decode(observations);
+		assertThat(result.getStates().contains(null), is(false));
+		assertThat(result.getPrunedCells(), greaterThan(0L));
+		assertThat(result.getPrunedRatio() > 0.0 && result.getPrunedRatio() < 1.0, is(true));
+	}
+
+	@Test
+	public void nonPositiveBeamWidthIsNotOk() {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("beamWidth should be positive, was 0");
+		new BeamViterbiDecoder<>(model, 0, 1.0);
+	}
+
+	@Test
+	public void negativeBeamThresholdIsNotOk() {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("beamThreshold should not be negative, was -1.0");
+		new BeamViterbiDecoder<>(model, 2, -1.0);
+	}
+}
@@ -0,0 +1,53 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+
+import com.google.common.collect.ImmutableList;
+
+public class CheckpointedViterbiDecoderTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void wikipediaSample() {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+
+		List<WikipediaState> states = new CheckpointedViterbiDecoder<>(model).decode(TestModels.wikipediaObservations());
+		final List<WikipediaState> expected = ImmutableList.of(WikipediaState.HEALTHY, WikipediaState.HEALTHY, WikipediaState.FEVER);
+		assertThat(states, is(expected));
+	}
+
+	@Test
+	public void samePathsAsCompiledViterbiMachine() {
+		for (long seed = 0; seed < 60; ++seed) {
+			CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(seed, seed % 2 == 0 ? 0.0 : 0.6, true));
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed * 7 % 300));
+
+			List<RandomState> expected = model.newMachine(observations).calculate();
+			assertThat(new CheckpointedViterbiDecoder<>(model).decode(observations), is(expected));
+			assertThat(new CheckpointedViterbiDecoder<>(model, 1 + (int) (seed % 9)).decode(observations), is(expected));
+		}
+	}
+
+	@Test
+	public void nonPositiveCheckpointIntervalIsNotOk() {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("checkpointInterval should be positive, was 0");
+		new CheckpointedViterbiDecoder<>(model, 0);
+	}
+}
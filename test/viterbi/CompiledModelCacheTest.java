@@ -0,0 +1,107 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+import viterbi.Viterbi.ViterbiModel.TransitionStorage;
+
+import com.google.common.collect.ImmutableMap;
+
+public class CompiledModelCacheTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void sameContentSharesOneCompiledModel() {
+		CompiledModelCache cache = new CompiledModelCache(4);
+
+		CompiledViterbiModel<RandomState, RandomObservation> first = cache.compile(TestModels.random(1, 0.3));
+		CompiledViterbiModel<RandomState, RandomObservation> second = cache.compile(TestModels.random(1, 0.3));
+		CompiledViterbiModel<RandomState, RandomObservation> other = cache.compile(TestModels.random(2, 0.3));
+
+		assertThat(second, is(sameInstance(first)));
+		assertThat(other, is(not(sameInstance(first))));
+		// a table model and its compiled form each have an entry
+		assertThat(cache.size(), is(4));
+	}
+
+	@Test
+	public void loadedModelsAreInterned() throws IOException {
+		CompiledModelCache cache = new CompiledModelCache(4);
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> compiled = cache.compile(TestModels.wikipedia());
+		Path path = folder.newFile().toPath();
+		ViterbiModelFormat.write(compiled, path);
+
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> loaded = ViterbiModelFormat.read(path, WikipediaState.class, WikipediaObservation.class);
+		assertThat(cache.intern(loaded), is(sameInstance(compiled)));
+
+		CompiledViterbiModel<String, String> runtime = ViterbiModelFormat.read(path);
+		assertThat(cache.intern(runtime), is(sameInstance(runtime)));
+		assertThat(cache.intern(ViterbiModelFormat.read(path)), is(sameInstance(runtime)));
+	}
+
+	@Test
+	public void denseAndSparseFormsAreNotShared() {
+		CompiledModelCache cache = new CompiledModelCache(4);
+		CompiledViterbiModel<RandomState, RandomObservation> dense = CompiledViterbiModel.compile(TestModels.randomBuilder(1, 0.5).withTransitionStorage(TransitionStorage.DENSE).build());
+		CompiledViterbiModel<RandomState, RandomObservation> sparse = CompiledViterbiModel.compile(TestModels.randomBuilder(1, 0.5).withTransitionStorage(TransitionStorage.SPARSE).build());
+
+		assertThat(cache.intern(dense), is(sameInstance(dense)));
+		assertThat(cache.intern(sparse), is(sameInstance(sparse)));
+		assertThat(cache.compile(TestModels.randomBuilder(1, 0.5).withTransitionStorage(TransitionStorage.SPARSE).build()), is(sameInstance(sparse)));
+		assertThat(cache.compile(TestModels.randomBuilder(1, 0.5).withTransitionStorage(TransitionStorage.DENSE).build()), is(sameInstance(dense)));
+	}
+
+	@Test
+	public void leastRecentlyUsedModelsAreEvicted() {
+		CompiledModelCache cache = new CompiledModelCache(2);
+		CompiledViterbiModel<RandomState, RandomObservation> first = cache.intern(CompiledViterbiModel.compile(TestModels.random(1, 0.0)));
+		CompiledViterbiModel<RandomState, RandomObservation> second = cache.intern(CompiledViterbiModel.compile(TestModels.random(2, 0.0)));
+
+		// uses the first one again, so adding a third model evicts the second
+		cache.intern(CompiledViterbiModel.compile(TestModels.random(1, 0.0)));
+		cache.intern(CompiledViterbiModel.compile(TestModels.random(3, 0.0)));
+
+		assertThat(cache.size(), is(2));
+		assertThat(cache.intern(CompiledViterbiModel.compile(TestModels.random(1, 0.0))), is(sameInstance(first)));
+		assertThat(cache.intern(CompiledViterbiModel.compile(TestModels.random(2, 0.0))), is(not(sameInstance(second))));
+	}
+
+	@Test
+	public void invalidModelsAreNotCached() {
+		CompiledModelCache cache = new CompiledModelCache(2);
+
+		try {
+			cache.compile(TestModels.randomBuilder(1, 0.0).withInitialDistributions(ImmutableMap.of(RandomState.S0, 0.5)).build());
+			fail("invalid model compiled");
+		} catch (IllegalArgumentException e) {
+			assertThat(cache.size(), is(0));
+		}
+	}
+
+	@Test
+	public void zeroEntriesIsNotOk() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("maxEntries should be positive, was 0");
+		new CompiledModelCache(0);
+	}
+}
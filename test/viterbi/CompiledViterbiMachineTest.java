@@ -0,0 +1,147 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+import viterbi.Viterbi.ViterbiMachine;
+import viterbi.Viterbi.ViterbiModel;
+import viterbi.Viterbi.ViterbiModel.TransitionStorage;
+
+import com.google.common.collect.ImmutableList;
+
+public class CompiledViterbiMachineTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void wikipediaSample() {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+
+		List<WikipediaState> states = model.newMachine(TestModels.wikipediaObservations()).calculate();
+		final List<WikipediaState> expected = ImmutableList.of(WikipediaState.HEALTHY, WikipediaState.HEALTHY, WikipediaState.FEVER);
+		assertThat(states, is(expected));
+	}
+
+	@Test
+	public void samePathsAsViterbiMachine() {
+		for (long seed = 0; seed < 50; ++seed) {
+			ViterbiModel<RandomState, RandomObservation> model = TestModels.random(seed, seed % 2 == 0 ? 0.0 : 0.6);
+			CompiledViterbiModel<RandomState, RandomObservation> compiled = CompiledViterbiModel.compile(model);
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed % 40));
+
+			List<RandomState> expected = new ViterbiMachine<>(model, observations).calculate();
+			assertThat(compiled.newMachine(observations).calculate(), is(expected));
+		}
+	}
+
+	@Test
+	public void logSpaceSamePathsAsViterbiMachine() {
+		for (long seed = 0; seed < 20; ++seed) {
+			ViterbiModel<RandomState, RandomObservation> model = TestModels.random(seed, seed % 2 == 0 ? 0.0 : 0.6, true);
+			CompiledViterbiModel<RandomState, RandomObservation> compiled = CompiledViterbiModel.compile(model);
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1000);
+
+			List<RandomState> expected = new ViterbiMachine<>(model, observations).calculate();
+			List<RandomState> states = compiled.newMachine(observations).calculate();
+			assertThat(states, is(expected));
+			assertThat(states.contains(null), is(false));
+		}
+	}
+
+	@Test
+	public void logSpaceSamePathsAsProbabilities() {
+		for (long seed = 0; seed < 20; ++seed) {
+			CompiledViterbiModel<RandomState, RandomObservation> compiled = CompiledViterbiModel.compile(TestModels.random(seed, 0.3));
+			CompiledViterbiModel<RandomState, RandomObservation> logCompiled = CompiledViterbiModel.compile(TestModels.random(seed, 0.3, true));
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 60);
+
+			// paths may differ on near ties, their probabilities may not
+			double expected = pathProbability(compiled, observations, compiled.newMachine(observations).calculate());
+			double actual = pathProbability(compiled, observations, logCompiled.newMachine(observations).calculate());
+			assertThat(Math.abs(actual - expected) <= expected * 1e-9, is(true));
+		}
+	}
+
+	private static <S extends Enum<S>, T extends Enum<T>> double pathProbability(CompiledViterbiModel<S, T> model, List<T> observations, List<S> path) {
+		double prob = model.getInitialDistribution(path.get(0)) * model.getEmissionProbability(path.get(0), observations.get(0));
+		for (int i = 1; i < path.size(); ++i) {
+			prob *= model.getTransitionProbability(path.get(i - 1), path.get(i)) * model.getEmissionProbability(path.get(i), observations.get(i));
+		}
+		return prob;
+	}
+
+	@Test
+	public void sparseSamePathsAsDense() {
+		for (long seed = 0; seed < 40; ++seed) {
+			ViterbiModel.Builder<RandomState, RandomObservation> builder = TestModels.randomBuilder(seed, 0.7).withLogSpace(seed % 2 == 0);
+			CompiledViterbiModel<RandomState, RandomObservation> dense = CompiledViterbiModel.compile(builder.withTransitionStorage(TransitionStorage.DENSE).build());
+			CompiledViterbiModel<RandomState, RandomObservation> sparse = CompiledViterbiModel.compile(builder.withTransitionStorage(TransitionStorage.SPARSE).build());
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed % 50));
+
+			assertThat(sparse.isSparse(), is(true));
+			assertThat(sparse.newMachine(observations).calculate(), is(dense.newMachine(observations).calculate()));
+		}
+	}
+
+	@Test
+	public void parallelStepsSamePathsAsSequential() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		for (long seed = 0; seed < 20; ++seed) {
+			ViterbiModel.Builder<RandomState, RandomObservation> builder = TestModels.randomBuilder(seed, 0.3).withLogSpace(seed % 2 == 0);
+			CompiledViterbiModel<RandomState, RandomObservation> compiled = CompiledViterbiModel.compile(builder.withTransitionStorage(seed % 3 == 0 ? TransitionStorage.SPARSE : TransitionStorage.DENSE).build());
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 200);
+
+			List<RandomState> expected = compiled.newMachine(observations).calculate();
+			assertThat(new CompiledViterbiMachine<>(compiled, observations, pool, 1).calculate(), is(expected));
+		}
+	}
+
+	@Test
+	public void nonPositiveParallelThresholdIsNotOk() {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("parallelThreshold should be positive, was 0");
+		new CompiledViterbiMachine<>(model, TestModels.wikipediaObservations(), ForkJoinPool.commonPool(), 0);
+	}
+
+	@Test
+	public void emptyObservationsIsNotOk() {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("at least one observation should be provided, 0 given");
+		model.newMachine(ImmutableList.<WikipediaObservation>of());
+	}
+
+	@Test
+	public void nextStepAfterLastStepIsNotOk() {
+		CompiledViterbiMachine<WikipediaState, WikipediaObservation> machine = CompiledViterbiModel.compile(TestModels.wikipedia()).newMachine(TestModels.wikipediaObservations());
+		machine.calculate();
+
+		thrown.expect(IllegalStateException.class);
+		thrown.expectMessage("already finished last step");
+		machine.nextStep();
+	}
+
+	@Test
+	public void finishBeforeLastStepIsNotOk() {
+		CompiledViterbiMachine<WikipediaState, WikipediaObservation> machine = CompiledViterbiModel.compile(TestModels.wikipedia()).newMachine(TestModels.wikipediaObservations());
+
+		thrown.expect(IllegalStateException.class);
+		thrown.expectMessage("step = 1");
+		machine.finish();
+	}
+}
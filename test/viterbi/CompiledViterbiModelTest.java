@@ -0,0 +1,297 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+import viterbi.Viterbi.ViterbiModel;
+import viterbi.Viterbi.ViterbiModel.TransitionStorage;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+public class CompiledViterbiModelTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	enum ZeroStatesState { };
+	enum ZeroStatesObservation { OBSERVATION0 };
+
+	@Test
+	public void zeroStatesIsNotOk() {
+		ViterbiModel<ZeroStatesState, ZeroStatesObservation> model = ViterbiModel.<ZeroStatesState, ZeroStatesObservation>builder()
+				.withInitialDistributions(ImmutableMap.<ZeroStatesState, Double>builder()
+						.build())
+				.build();
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("empty states enum, or no explicit initial distribution provided");
+		CompiledViterbiModel.compile(model);
+	}
+
+	enum TwoStatesState { STATE0, STATE1 };
+	enum TwoStatesObservation { OBSERVATION0 };
+
+	@Test
+	public void transitionsOmittedForOneStateIsNotOk() {
+		ViterbiModel<TwoStatesState, TwoStatesObservation> model = ViterbiModel.<TwoStatesState, TwoStatesObservation>builder()
+				.withInitialDistributions(ImmutableMap.<TwoStatesState, Double>builder()
+						.put(TwoStatesState.STATE0, 0.6)
+						.put(TwoStatesState.STATE1, 0.4)
+						.build())
+				.withTransitionProbability(TwoStatesState.STATE0, TwoStatesState.STATE0, 0.7)
+				.withTransitionProbability(TwoStatesState.STATE0, TwoStatesState.STATE1, 0.3)
+				.withEmissionProbability(TwoStatesState.STATE0, TwoStatesObservation.OBSERVATION0, 1.0)
+				.withEmissionProbability(TwoStatesState.STATE1, TwoStatesObservation.OBSERVATION0, 1.0)
+				.build();
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("sum of transition probabilities for each state should be one, was 0.0 for state STATE1");
+		CompiledViterbiModel.compile(model);
+	}
+
+	enum LeftToRightState { STATE0, STATE1, STATE2, STATE3, STATE4, STATE5, STATE6, STATE7 };
+
+	@Test
+	public void sparseTransitionsAreDetected() {
+		ViterbiModel.Builder<LeftToRightState, TwoStatesObservation> builder = ViterbiModel.<LeftToRightState, TwoStatesObservation>builder();
+		ImmutableMap.Builder<LeftToRightState, Double> initialDistributions = ImmutableMap.builder();
+		for (LeftToRightState state : LeftToRightState.values()) {
+			initialDistributions.put(state, state == LeftToRightState.STATE0 ? 1.0 : 0.0);
+			builder.withEmissionProbability(state, TwoStatesObservation.OBSERVATION0, 1.0);
+			if (state.ordinal() + 1 < LeftToRightState.values().length) {
+				builder.withTransitionProbability(state, state, 0.5)
+						.withTransitionProbability(state, LeftToRightState.values()[state.ordinal() + 1], 0.5);
+			} else {
+				builder.withTransitionProbability(state, state, 1.0);
+			}
+		}
+		CompiledViterbiModel<LeftToRightState, TwoStatesObservation> compiled = CompiledViterbiModel.compile(builder.withInitialDistributions(initialDistributions.build()).build());
+
+		assertThat(compiled.isSparse(), is(true));
+		assertThat(compiled.getTransitionProbability(LeftToRightState.STATE2, LeftToRightState.STATE3), is(0.5));
+		assertThat(compiled.getTransitionProbability(LeftToRightState.STATE3, LeftToRightState.STATE2), is(0.0));
+		assertThat(compiled.getTransitionProbability(LeftToRightState.STATE7, LeftToRightState.STATE7), is(1.0));
+	}
+
+	@Test
+	public void denseTransitionsAreNotSparse() {
+		assertThat(CompiledViterbiModel.compile(TestModels.wikipedia()).isSparse(), is(false));
+	}
+
+	@Test
+	public void denseMatricesMatchTheModel() {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> compiled = CompiledViterbiModel.compile(TestModels.wikipedia());
+
+		assertThat(compiled.getStates(), is(ImmutableList.copyOf(WikipediaState.values())));
+		assertThat(compiled.getObservations(), is(ImmutableList.copyOf(WikipediaObservation.values())));
+		assertThat(compiled.getInitialDistribution(WikipediaState.FEVER), is(0.4));
+		assertThat(compiled.getTransitionProbability(WikipediaState.HEALTHY, WikipediaState.FEVER), is(0.3));
+		assertThat(compiled.getTransitionProbability(WikipediaState.FEVER, WikipediaState.HEALTHY), is(0.4));
+		assertThat(compiled.getEmissionProbability(WikipediaState.FEVER, WikipediaObservation.DIZZY), is(0.6));
+	}
+
+	@Test
+	public void emissionColumnsAndEmittingStates() {
+		CompiledViterbiModel<String, String> compiled = CompiledViterbiModel.builder(Vocabulary.of(ImmutableList.of("a", "b", "c")), Vocabulary.of(ImmutableList.of("x", "y")))
+				.withInitialDistribution(0, 1.0)
+				.withTransitionProbability(0, 1, 1.0)
+				.withTransitionProbability(1, 2, 1.0)
+				.withTransitionProbability(2, 0, 1.0)
+				.withEmissionProbability(0, 0, 1.0)
+				.withEmissionProbability(1, 0, 0.25)
+				.withEmissionProbability(1, 1, 0.75)
+				.withEmissionProbability(2, 0, 1.0)
+				.withLogSpace(true)
+				.build();
+
+		assertThat(Arrays.equals(compiled.emissionColumns, new double[] { 0.0, Math.log(0.25), 0.0,
+				Double.NEGATIVE_INFINITY, Math.log(0.75), Double.NEGATIVE_INFINITY }), is(true));
+		assertThat(Arrays.equals(compiled.emittingOffsets, new int[] { 0, 3, 4 }), is(true));
+		assertThat(Arrays.equals(compiled.emittingStates, new int[] { 0, 1, 2, 1 }), is(true));
+	}
+
+	@Test
+	public void compileKeepsTheCompiledModel() {
+		ViterbiModel<WikipediaState, WikipediaObservation> model = TestModels.wikipedia();
+
+		assertThat(CompiledViterbiModel.compile(model), is(sameInstance(CompiledViterbiModel.compile(model))));
+	}
+
+	@Test
+	public void contentHashesAreStable() {
+		assertThat(TestModels.wikipedia().contentHash().toString(), is("7e3e63616909c2d2b4ee269201cb0a01"));
+		assertThat(CompiledViterbiModel.compile(TestModels.wikipedia()).contentHash().toString(), is("244714bd8129cc84eec74649917a4dc7"));
+	}
+
+	@Test
+	public void contentHashesFollowTheContent() {
+		// the same transitions in another order and with an explicit zero
+		ViterbiModel.Builder<RandomState, RandomObservation> reordered = TestModels.randomBuilder(1, 0.5);
+		ViterbiModel<RandomState, RandomObservation> model = TestModels.random(1, 0.5);
+		CompiledViterbiModel<RandomState, RandomObservation> compiled = CompiledViterbiModel.compile(model);
+		for (RandomState src : RandomState.values()) {
+			if (compiled.getTransitionProbability(src, RandomState.S0) == 0.0) {
+				reordered.withTransitionProbability(src, RandomState.S0, 0.0);
+			}
+		}
+		assertThat(reordered.build().contentHash(), is(model.contentHash()));
+
+		assertThat(TestModels.random(2, 0.5).contentHash(), is(not(model.contentHash())));
+		assertThat(TestModels.random(1, 0.5, true).contentHash(), is(not(model.contentHash())));
+
+		CompiledViterbiModel<RandomState, RandomObservation> dense = CompiledViterbiModel.compile(TestModels.randomBuilder(1, 0.5).withTransitionStorage(TransitionStorage.DENSE).build());
+		CompiledViterbiModel<RandomState, RandomObservation> sparse = CompiledViterbiModel.compile(TestModels.randomBuilder(1, 0.5).withTransitionStorage(TransitionStorage.SPARSE).build());
+		assertThat(sparse.contentHash(), is(dense.contentHash()));
+		assertThat(CompiledViterbiModel.compile(TestModels.random(2, 0.5)).contentHash(), is(not(dense.contentHash())));
+	}
+
+	@Test
+	public void sameContentIsComparedExactly() {
+		ViterbiModel<RandomState, RandomObservation> model = TestModels.random(1, 0.5);
+		assertThat(model.hasSameContent(TestModels.random(1, 0.5)), is(true));
+		assertThat(model.hasSameContent(TestModels.random(2, 0.5)), is(false));
+		assertThat(model.hasSameContent(TestModels.randomBuilder(1, 0.5).withTransitionStorage(TransitionStorage.DENSE).build()), is(false));
+
+		CompiledViterbiModel<RandomState, RandomObservation> dense = CompiledViterbiModel.compile(TestModels.randomBuilder(1, 0.5).withTransitionStorage(TransitionStorage.DENSE).build());
+		CompiledViterbiModel<RandomState, RandomObservation> sparse = CompiledViterbiModel.compile(TestModels.randomBuilder(1, 0.5).withTransitionStorage(TransitionStorage.SPARSE).build());
+		assertThat(dense.hasSameContent(CompiledViterbiModel.compile(TestModels.randomBuilder(1, 0.5).withTransitionStorage(TransitionStorage.DENSE).build())), is(true));
+		assertThat(dense.hasSameContent(sparse), is(false));
+		assertThat(dense.hasSameContent(CompiledViterbiModel.compile(TestModels.random(1, 0.5, true))), is(false));
+	}
+
+	@Test
+	public void invalidModelIsRejectedEveryTime() {
+		ViterbiModel<RandomState, RandomObservation> model = TestModels.randomBuilder(1, 0.0).withInitialDistributions(ImmutableMap.of(RandomState.S0, 0.5)).build();
+		for (int i = 0; i < 2; ++i) {
+			try {
+				CompiledViterbiModel.compile(model);
+				fail("invalid model compiled");
+			} catch (IllegalArgumentException e) {
+				assertThat(e.getMessage(), is("model.initialDistributions.size() = 1"));
+			}
+		}
+	}
+
+	private static CompiledViterbiModel.Builder<String, String> runtimeWikipedia() {
+		return CompiledViterbiModel.builder(Vocabulary.of(ImmutableList.of("healthy", "fever")), Vocabulary.of(ImmutableList.of("ok", "cold", "dizzy")))
+				.withInitialDistribution(0, 0.6)
+				.withInitialDistribution(1, 0.4)
+				.withTransitionProbability(0, 0, 0.7)
+				.withTransitionProbability(0, 1, 0.3)
+				.withTransitionProbability(1, 0, 0.4)
+				.withTransitionProbability(1, 1, 0.6)
+				.withEmissionProbability(0, 0, 0.5)
+				.withEmissionProbability(0, 1, 0.4)
+				.withEmissionProbability(0, 2, 0.1)
+				.withEmissionProbability(1, 0, 0.1)
+				.withEmissionProbability(1, 1, 0.3)
+				.withEmissionProbability(1, 2, 0.6);
+	}
+
+	@Test
+	public void negativeTransitionsAreNotOk() {
+		CompiledViterbiModel.Builder<String, String> builder = runtimeWikipedia();
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("transition probability should not be negative or NaN, was -0.1");
+		builder.withTransitionProbability(0, 1, -0.1);
+	}
+
+	@Test
+	public void nanEmissionsAreNotOk() {
+		CompiledViterbiModel.Builder<String, String> builder = runtimeWikipedia();
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("emission probability should not be negative or NaN, was NaN");
+		builder.withEmissionProbability(0, 1, Double.NaN);
+	}
+
+	@Test
+	public void emissionTablesBeyondAnArrayAreNotOk() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("an emission table of 50000 x 50000 cells does not fit in an array");
+		CompiledViterbiModel.builder(RandomModels.labels("s", 50000), RandomModels.labels("o", 50000));
+	}
+
+	@Test
+	public void runtimeVocabularies() {
+		for (TransitionStorage storage : TransitionStorage.values()) {
+			CompiledViterbiModel<String, String> compiled = runtimeWikipedia().withTransitionStorage(storage).build();
+
+			assertThat(compiled.getTransitionProbability("healthy", "fever"), is(0.3));
+			assertThat(compiled.getEmissionProbability("fever", "dizzy"), is(0.6));
+			List<String> expected = ImmutableList.of("healthy", "healthy", "fever");
+			assertThat(compiled.newMachine(ImmutableList.of("ok", "cold", "dizzy")).calculate(), is(expected));
+			assertThat(new ViterbiDecoder<>(compiled).decode(new int[] { 0, 1, 2 }), is(new int[] { 0, 0, 1 }));
+		}
+	}
+
+	@Test
+	public void builderMatchesCompile() {
+		for (long seed = 0; seed < 10; ++seed) {
+			CompiledViterbiModel<RandomState, RandomObservation> compiled = CompiledViterbiModel.compile(TestModels.random(seed, 0.6));
+			CompiledViterbiModel.Builder<RandomState, RandomObservation> builder = CompiledViterbiModel.builder(compiled.getStateVocabulary(), compiled.getObservationVocabulary());
+			// transitions in reverse order, the builder has to sort them
+			for (RandomState src : Lists.reverse(compiled.getStates())) {
+				builder.withInitialDistribution(src.ordinal(), compiled.getInitialDistribution(src));
+				for (RandomState dest : Lists.reverse(compiled.getStates())) {
+					builder.withTransitionProbability(src.ordinal(), dest.ordinal(), compiled.getTransitionProbability(src, dest));
+				}
+				for (RandomObservation observation : compiled.getObservations()) {
+					builder.withEmissionProbability(src.ordinal(), observation.ordinal(), compiled.getEmissionProbability(src, observation));
+				}
+			}
+			CompiledViterbiModel<RandomState, RandomObservation> built = builder.build();
+
+			assertThat(built.isSparse(), is(compiled.isSparse()));
+			assertThat(built.predecessorOffsets, is(compiled.predecessorOffsets));
+			assertThat(built.predecessors, is(compiled.predecessors));
+			assertThat(built.predecessorProbabilities, is(compiled.predecessorProbabilities));
+			assertThat(built.successors, is(compiled.successors));
+			assertThat(built.transitionProbabilities, is(compiled.transitionProbabilities));
+		}
+	}
+
+	@Test
+	public void builderTransitionsNotSummingToOneIsNotOk() {
+		CompiledViterbiModel.Builder<String, String> builder = CompiledViterbiModel.builder(Vocabulary.of(ImmutableList.of("healthy", "fever")), Vocabulary.of(ImmutableList.of("ok")))
+				.withInitialDistribution(0, 1.0)
+				.withTransitionProbability(0, 0, 1.0)
+				.withTransitionProbability(1, 0, 0.4)
+				.withEmissionProbability(0, 0, 1.0)
+				.withEmissionProbability(1, 0, 1.0);
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("sum of transition probabilities for each state should be one, was 0.4 for state fever");
+		builder.build();
+	}
+
+	@Test
+	public void builderDuplicateTransitionIsNotOk() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("duplicate transition from healthy to fever");
+		runtimeWikipedia().withTransitionProbability(0, 1, 0.3).withLogSpace(true).withTransitionStorage(TransitionStorage.SPARSE).build();
+	}
+
+	@Test
+	public void builderOutOfRangeStateIsNotOk() {
+		thrown.expect(IndexOutOfBoundsException.class);
+		runtimeWikipedia().withTransitionProbability(0, 2, 0.5);
+	}
+}
@@ -0,0 +1,35 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class DecoderScratchTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void largeBackPointersAreNotRetained() {
+		DecoderScratch scratch = new DecoderScratch(8);
+		scratch.ensureCapacity(1000, 8);
+		scratch.trim();
+		assertThat(scratch.backPointers.length, is(8000));
+
+		scratch.ensureCapacity(DecoderScratch.RETAINED_CELLS / 4, 8);
+		scratch.trim();
+		assertThat(scratch.backPointers.length, is(0));
+	}
+
+	@Test
+	public void trellisLargerThanAnArrayIsNotOk() {
+		DecoderScratch scratch = new DecoderScratch(1000);
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("a trellis of 3000000 x 1000 cells does not fit in an array");
+		scratch.ensureCapacity(3000000, 1000);
+	}
+}
@@ -0,0 +1,88 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+
+import com.google.common.collect.ImmutableList;
+
+public class DecoderSessionPoolTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void sessionsAreBoundedAndReused() throws InterruptedException {
+		DecoderSessionPool<WikipediaState, WikipediaObservation> pool = new DecoderSessionPool<>(CompiledViterbiModel.compile(TestModels.wikipedia()), 2);
+
+		DecoderSession<WikipediaState, WikipediaObservation> first = pool.acquire();
+		DecoderSession<WikipediaState, WikipediaObservation> second = pool.acquire();
+		assertThat(pool.tryAcquire(10, TimeUnit.MILLISECONDS), is(nullValue()));
+
+		first.close();
+		assertThat(pool.getIdleCount(), is(1));
+		assertThat(pool.acquire(), is(sameInstance(first)));
+		second.close();
+	}
+
+	@Test
+	public void decodeFromManyThreads() throws Exception {
+		CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(9, 0.3, true));
+		DecoderSessionPool<RandomState, RandomObservation> pool = new DecoderSessionPool<>(model, 3);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> futures = new ArrayList<>();
+			for (long seed = 0; seed < 200; ++seed) {
+				final ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed % 120));
+				futures.add(executor.submit(() -> {
+					List<RandomState> states = new ArrayList<>();
+					try (DecoderSession<RandomState, RandomObservation> session = pool.acquire()) {
+						session.reset(observations).decode(states);
+					}
+					return states.equals(model.newMachine(observations).calculate());
+				}));
+			}
+			for (Future<Boolean> future : futures) {
+				assertThat(future.get(), is(true));
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertThat(pool.getIdleCount() <= 3, is(true));
+	}
+
+	@Test
+	public void closingTwiceIsNotOk() throws InterruptedException {
+		DecoderSessionPool<WikipediaState, WikipediaObservation> pool = new DecoderSessionPool<>(CompiledViterbiModel.compile(TestModels.wikipedia()), 1);
+		DecoderSession<WikipediaState, WikipediaObservation> session = pool.acquire();
+		session.close();
+
+		thrown.expect(IllegalStateException.class);
+		thrown.expectMessage("session already returned to its pool");
+		session.close();
+	}
+
+	@Test
+	public void nonPositiveMaxSessionsIsNotOk() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("maxSessions should be positive, was 0");
+		new DecoderSessionPool<>(CompiledViterbiModel.compile(TestModels.wikipedia()), 0);
+	}
+}
@@ -0,0 +1,105 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+
+import com.google.common.collect.ImmutableList;
+
+public class DecoderSessionTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void samePathsAsCompiledViterbiMachine() {
+		CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(5, 0.5, true));
+		DecoderSession<RandomState, RandomObservation> session = new DecoderSession<>(model);
+		List<RandomState> states = new ArrayList<>();
+		int[] path = new int[300];
+
+		for (long seed = 0; seed < 60; ++seed) {
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed * 37 % 300));
+			List<RandomState> expected = model.newMachine(observations).calculate();
+
+			session.reset(observations).decode(states);
+			assertThat(states, is(expected));
+
+			session.decode(path);
+			for (int i = 0; i < observations.size(); ++i) {
+				assertThat(path[i], is(expected.get(i).ordinal()));
+			}
+		}
+	}
+
+	@Test
+	public void steadyStateDecodesDoNotAllocate() {
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+		CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(6, 0.0, true));
+		DecoderSession<RandomState, RandomObservation> session = new DecoderSession<>(model);
+		ImmutableList<RandomObservation> observations = TestModels.randomObservations(6, 200);
+		List<RandomState> states = new ArrayList<>(observations.size());
+		int[] path = new int[observations.size()];
+		for (int i = 0; i < 2000; ++i) {
+			session.reset(observations).decode(path);
+			session.decode(states);
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < 2000; ++i) {
+			session.reset(observations).decode(path);
+			session.decode(states);
+		}
+		long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+		// a few bytes of slack for the measurement itself
+		assertThat(allocated, is(lessThan(4096L)));
+	}
+
+	@Test
+	public void intObservations() {
+		DecoderSession<WikipediaState, WikipediaObservation> session = new DecoderSession<>(CompiledViterbiModel.compile(TestModels.wikipedia()));
+		int[] path = new int[3];
+
+		session.reset(new int[] { 0, 1, 2, 99 }, 3).decode(path);
+
+		assertThat(path, is(new int[] { 0, 0, 1 }));
+	}
+
+	@Test
+	public void decodeBeforeResetIsNotOk() {
+		DecoderSession<WikipediaState, WikipediaObservation> session = new DecoderSession<>(CompiledViterbiModel.compile(TestModels.wikipedia()));
+
+		thrown.expect(IllegalStateException.class);
+		thrown.expectMessage("reset() should be called before decode()");
+		session.decode(new int[3]);
+	}
+
+	@Test
+	public void tooShortPathIsNotOk() {
+		DecoderSession<WikipediaState, WikipediaObservation> session = new DecoderSession<>(CompiledViterbiModel.compile(TestModels.wikipedia()));
+		session.reset(TestModels.wikipediaObservations());
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("path should hold at least 3 states, has 2");
+		session.decode(new int[2]);
+	}
+}
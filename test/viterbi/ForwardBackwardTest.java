@@ -0,0 +1,161 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.ForwardBackward.Posteriors;
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+import viterbi.Viterbi.ViterbiModel;
+import viterbi.Viterbi.ViterbiModel.TransitionStorage;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class ForwardBackwardTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void wikipediaSample() {
+		ForwardBackward<WikipediaState, WikipediaObservation> forwardBackward = new ForwardBackward<>(CompiledViterbiModel.compile(TestModels.wikipedia()));
+
+		Posteriors<WikipediaState> posteriors = forwardBackward.posteriors(TestModels.wikipediaObservations());
+
+		assertThat(posteriors.getLogLikelihood(), is(closeTo(Math.log(0.03628), 1e-9)));
+		assertThat(posteriors.getProbability(0, WikipediaState.HEALTHY), is(closeTo(0.8765, 1e-4)));
+		assertThat(posteriors.getProbability(1, WikipediaState.HEALTHY), is(closeTo(0.6229, 1e-4)));
+		assertThat(posteriors.getProbability(2, WikipediaState.FEVER), is(closeTo(0.7879, 1e-4)));
+		final List<WikipediaState> expected = ImmutableList.of(WikipediaState.HEALTHY, WikipediaState.HEALTHY, WikipediaState.FEVER);
+		assertThat(posteriors.getPath(), is(expected));
+	}
+
+	@Test
+	public void sameAsBruteForce() {
+		for (long seed = 0; seed < 20; ++seed) {
+			ViterbiModel<RandomState, RandomObservation> model = TestModels.random(seed, seed % 2 == 0 ? 0.0 : 0.6);
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed % 4));
+			double[] expected = bruteForce(CompiledViterbiModel.compile(model), observations);
+			double likelihood = 0.0;
+			for (int state = 0; state < RandomState.values().length; ++state) {
+				likelihood += expected[state];
+			}
+
+			for (boolean logSpace : new boolean[] { false, true }) {
+				for (TransitionStorage storage : new TransitionStorage[] { TransitionStorage.DENSE, TransitionStorage.SPARSE }) {
+					CompiledViterbiModel<RandomState, RandomObservation> compiled = CompiledViterbiModel.compile(TestModels.randomBuilder(seed, seed % 2 == 0 ? 0.0 : 0.6)
+							.withLogSpace(logSpace).withTransitionStorage(storage).build());
+					Posteriors<RandomState> posteriors = new ForwardBackward<>(compiled).posteriors(observations);
+
+					assertThat(posteriors.getLogLikelihood(), is(closeTo(Math.log(likelihood), 1e-9)));
+					for (int i = 0; i < expected.length; ++i) {
+						assertThat(posteriors.getProbabilities()[i], is(closeTo(expected[i] / likelihood, 1e-9)));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void longSequencesDoNotUnderflow() {
+		CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(7, 0.3));
+		ImmutableList<RandomObservation> observations = TestModels.randomObservations(7, 5000);
+
+		Posteriors<RandomState> posteriors = new ForwardBackward<>(model).posteriors(observations);
+
+		assertThat(posteriors.getLogLikelihood() < -1000.0, is(true));
+		for (int position = 0; position < observations.size(); position += 499) {
+			double sum = 0.0;
+			for (RandomState state : RandomState.values()) {
+				sum += posteriors.getProbability(position, state);
+			}
+			assertThat(sum, is(closeTo(1.0, 1e-9)));
+		}
+	}
+
+	@Test
+	public void posteriorsAllMatchesPosteriors() {
+		ForwardBackward<RandomState, RandomObservation> forwardBackward = new ForwardBackward<>(CompiledViterbiModel.compile(TestModels.random(3, 0.5)));
+		List<List<RandomObservation>> sequences = new ArrayList<>();
+		for (long seed = 0; seed < 50; ++seed) {
+			sequences.add(TestModels.randomObservations(seed, 1 + (int) (seed * 11 % 200)));
+		}
+
+		List<Posteriors<RandomState>> all = forwardBackward.posteriorsAll(sequences);
+
+		for (int i = 0; i < sequences.size(); ++i) {
+			Posteriors<RandomState> expected = forwardBackward.posteriors(sequences.get(i));
+			assertThat(all.get(i).getProbabilities(), is(expected.getProbabilities()));
+			assertThat(all.get(i).getLogLikelihood(), is(expected.getLogLikelihood()));
+			assertThat(forwardBackward.logLikelihood(sequences.get(i)), is(expected.getLogLikelihood()));
+		}
+	}
+
+	@Test
+	public void impossibleObservations() {
+		ViterbiModel<WikipediaState, WikipediaObservation> model = ViterbiModel.<WikipediaState, WikipediaObservation>builder()
+				.withInitialDistributions(ImmutableMap.of(WikipediaState.HEALTHY, 1.0, WikipediaState.FEVER, 0.0))
+				.withTransitionProbability(WikipediaState.HEALTHY, WikipediaState.HEALTHY, 1.0)
+				.withTransitionProbability(WikipediaState.FEVER, WikipediaState.FEVER, 1.0)
+				.withEmissionProbability(WikipediaState.HEALTHY, WikipediaObservation.OK, 1.0)
+				.withEmissionProbability(WikipediaState.FEVER, WikipediaObservation.DIZZY, 1.0)
+				.build();
+
+		Posteriors<WikipediaState> posteriors = new ForwardBackward<>(CompiledViterbiModel.compile(model))
+				.posteriors(ImmutableList.of(WikipediaObservation.OK, WikipediaObservation.DIZZY));
+
+		assertThat(posteriors.getLogLikelihood(), is(Double.NEGATIVE_INFINITY));
+		assertThat(posteriors.getPath(), is(Arrays.asList((WikipediaState) null, null)));
+	}
+
+	@Test
+	public void tooSmallProbabilitiesIsNotOk() {
+		ForwardBackward<WikipediaState, WikipediaObservation> forwardBackward = new ForwardBackward<>(CompiledViterbiModel.compile(TestModels.wikipedia()));
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("probabilities should hold at least 6 values, has 5");
+		forwardBackward.posteriors(TestModels.wikipediaObservations(), new double[5]);
+	}
+
+	// unnormalized posteriors: the summed probability of every path through each cell
+	private static double[] bruteForce(CompiledViterbiModel<RandomState, RandomObservation> model, List<RandomObservation> observations) {
+		final int stateCount = model.stateCount;
+		final int length = observations.size();
+		final double[] ret = new double[length * stateCount];
+		final int[] path = new int[length];
+		int pathCount = 1;
+		for (int i = 0; i < length; ++i) {
+			pathCount *= stateCount;
+		}
+		for (int code = 0; code < pathCount; ++code) {
+			int rest = code;
+			for (int i = 0; i < length; ++i) {
+				path[i] = rest % stateCount;
+				rest /= stateCount;
+			}
+			double prob = model.initialDistributions[path[0]];
+			for (int i = 0; i < length; ++i) {
+				if (i > 0) {
+					prob *= model.getTransitionProbability(RandomState.values()[path[i - 1]], RandomState.values()[path[i]]);
+				}
+				prob *= model.getEmissionProbability(RandomState.values()[path[i]], observations.get(i));
+			}
+			for (int i = 0; i < length; ++i) {
+				ret[i * stateCount + path[i]] += prob;
+			}
+		}
+		return ret;
+	}
+}
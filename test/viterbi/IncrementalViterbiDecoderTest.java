@@ -0,0 +1,135 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+
+import com.google.common.collect.ImmutableList;
+
+public class IncrementalViterbiDecoderTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void wikipediaSample() {
+		IncrementalViterbiDecoder<WikipediaState, WikipediaObservation> decoder = new IncrementalViterbiDecoder<>(CompiledViterbiModel.compile(TestModels.wikipedia()));
+
+		decoder.append(WikipediaObservation.OK);
+		decoder.appendAll(ImmutableList.of(WikipediaObservation.COLD, WikipediaObservation.DIZZY));
+
+		final List<WikipediaState> expected = ImmutableList.of(WikipediaState.HEALTHY, WikipediaState.HEALTHY, WikipediaState.FEVER);
+		assertThat(decoder.getPath(), is(expected));
+	}
+
+	@Test
+	public void sameAsFullDecodeWithoutEdits() {
+		for (long seed = 0; seed < 20; ++seed) {
+			CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(seed, seed % 2 == 0 ? 0.0 : 0.6, false));
+			IncrementalViterbiDecoder<RandomState, RandomObservation> decoder = new IncrementalViterbiDecoder<>(model);
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed * 13 % 100));
+			decoder.appendAll(observations);
+
+			assertThat(decoder.getPath(), is(model.newMachine(observations).calculate()));
+		}
+	}
+
+	@Test
+	public void bestPathsAfterEdits() {
+		for (long seed = 0; seed < 20; ++seed) {
+			CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(seed, seed % 2 == 0 ? 0.0 : 0.6, seed % 3 != 0));
+			IncrementalViterbiDecoder<RandomState, RandomObservation> decoder = new IncrementalViterbiDecoder<>(model);
+			List<RandomObservation> observations = new ArrayList<>(TestModels.randomObservations(seed, 1 + (int) (seed * 7 % 50)));
+			decoder.appendAll(observations);
+			Random random = new Random(seed);
+
+			for (int edit = 0; edit < 40; ++edit) {
+				RandomObservation observation = RandomObservation.values()[random.nextInt(RandomObservation.values().length)];
+				if (random.nextInt(3) == 0) {
+					observations.add(observation);
+					decoder.append(observation);
+				} else {
+					int position = random.nextInt(observations.size());
+					observations.set(position, observation);
+					decoder.set(position, observation);
+				}
+				if (random.nextBoolean()) {
+					assertBestPath(model, decoder.getPath(), observations);
+				}
+			}
+			assertBestPath(model, decoder.getPath(), observations);
+		}
+	}
+
+	@Test
+	public void editsStopOnceColumnsMatch() {
+		CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(3, 0.0, true));
+		IncrementalViterbiDecoder<RandomState, RandomObservation> decoder = new IncrementalViterbiDecoder<>(model);
+		ImmutableList<RandomObservation> observations = TestModels.randomObservations(3, 2000);
+		decoder.appendAll(observations);
+		assertThat(decoder.getLastRecomputedColumns(), is(2000));
+
+		decoder.set(1000, observations.get(1000));
+		assertThat(decoder.getLastRecomputedColumns(), is(1));
+
+		RandomObservation other = RandomObservation.values()[(observations.get(500).ordinal() + 1) % RandomObservation.values().length];
+		decoder.set(500, other);
+		assertThat(decoder.getLastRecomputedColumns() < 1500, is(true));
+
+		List<RandomObservation> edited = new ArrayList<>(observations);
+		edited.set(500, other);
+		assertBestPath(model, decoder.getPath(), edited);
+	}
+
+	@Test
+	public void editOutsideTheSequenceIsNotOk() {
+		IncrementalViterbiDecoder<WikipediaState, WikipediaObservation> decoder = new IncrementalViterbiDecoder<>(CompiledViterbiModel.compile(TestModels.wikipedia()));
+		decoder.append(WikipediaObservation.OK);
+
+		thrown.expect(IndexOutOfBoundsException.class);
+		decoder.set(1, WikipediaObservation.COLD);
+	}
+
+	@Test
+	public void pathOfNoObservationsIsNotOk() {
+		IncrementalViterbiDecoder<WikipediaState, WikipediaObservation> decoder = new IncrementalViterbiDecoder<>(CompiledViterbiModel.compile(TestModels.wikipedia()));
+
+		thrown.expect(IllegalStateException.class);
+		thrown.expectMessage("no observations yet");
+		decoder.getPath();
+	}
+
+	// paths of (nearly) equal score may be resolved differently than a full decode, so the scores are compared
+	private static void assertBestPath(CompiledViterbiModel<RandomState, RandomObservation> model, List<RandomState> path, List<RandomObservation> observations) {
+		final double expected = logScore(model, model.newMachine(observations).calculate(), observations);
+		assertThat(logScore(model, path, observations), is(closeTo(expected, 1e-9 * Math.abs(expected))));
+	}
+
+	private static double logScore(CompiledViterbiModel<RandomState, RandomObservation> model, List<RandomState> path, List<RandomObservation> observations) {
+		double score = value(model, model.getInitialDistribution(path.get(0)));
+		for (int i = 0; i < path.size(); ++i) {
+			if (i > 0) {
+				score += value(model, model.getTransitionProbability(path.get(i - 1), path.get(i)));
+			}
+			score += value(model, model.getEmissionProbability(path.get(i), observations.get(i)));
+		}
+		return score;
+	}
+
+	private static double value(CompiledViterbiModel<?, ?> model, double stored) {
+		return model.isLogSpace() ? stored : Math.log(stored);
+	}
+}
@@ -0,0 +1,133 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.KBestViterbiDecoder.ScoredPath;
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+
+import com.google.common.collect.ImmutableList;
+
+public class KBestViterbiDecoderTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void wikipediaSample() {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+
+		Iterator<ScoredPath<WikipediaState>> paths = new KBestViterbiDecoder<>(model, 2).decode(TestModels.wikipediaObservations());
+
+		ScoredPath<WikipediaState> best = paths.next();
+		assertThat(best.getStates(), is((List<WikipediaState>) ImmutableList.of(WikipediaState.HEALTHY, WikipediaState.HEALTHY, WikipediaState.FEVER)));
+		assertThat(best.getScore(), is(closeTo(Math.log(0.01512), 1e-12)));
+		ScoredPath<WikipediaState> second = paths.next();
+		assertThat(second.getStates(), is((List<WikipediaState>) ImmutableList.of(WikipediaState.HEALTHY, WikipediaState.FEVER, WikipediaState.FEVER)));
+		assertThat(second.getScore(), is(closeTo(Math.log(0.00972), 1e-12)));
+		assertThat(paths.hasNext(), is(false));
+	}
+
+	@Test
+	public void sameAsBruteForce() {
+		for (long seed = 0; seed < 30; ++seed) {
+			boolean logSpace = seed % 3 == 0;
+			CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(seed, seed % 2 == 0 ? 0.0 : 0.7, logSpace));
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed % 4));
+			int k = 1 + (int) (seed * 7 % 40);
+
+			List<Double> expected = bruteForce(model, observations);
+			Iterator<ScoredPath<RandomState>> paths = new KBestViterbiDecoder<>(model, k).decode(observations);
+			int count = 0;
+			while (paths.hasNext()) {
+				ScoredPath<RandomState> path = paths.next();
+				double expectedScore = expected.get(count);
+				assertThat(Math.exp(path.getScore()), is(closeTo(expectedScore, expectedScore * 1e-9)));
+				assertThat(score(model, path.getStates(), observations), is(closeTo(expectedScore, expectedScore * 1e-9)));
+				++count;
+			}
+			assertThat(count, is(Math.min(k, expected.size())));
+		}
+	}
+
+	@Test
+	public void bestPathIsViterbiPath() {
+		for (long seed = 0; seed < 30; ++seed) {
+			CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(seed, seed % 2 == 0 ? 0.0 : 0.6, true));
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed * 13 % 200));
+
+			ScoredPath<RandomState> best = new KBestViterbiDecoder<>(model, 5).decode(observations).next();
+			assertThat(best.getStates(), is(model.newMachine(observations).calculate()));
+		}
+	}
+
+	@Test
+	public void nonPositiveKIsNotOk() {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("k should be positive, was 0");
+		new KBestViterbiDecoder<>(model, 0);
+	}
+
+	// probabilities of every possible path, best first
+	private static List<Double> bruteForce(CompiledViterbiModel<RandomState, RandomObservation> model, List<RandomObservation> observations) {
+		final RandomState[] states = RandomState.values();
+		final List<Double> ret = new ArrayList<>();
+		int pathCount = 1;
+		for (int i = 0; i < observations.size(); ++i) {
+			pathCount *= states.length;
+		}
+		for (int code = 0; code < pathCount; ++code) {
+			final List<RandomState> path = new ArrayList<>();
+			int rest = code;
+			for (int i = 0; i < observations.size(); ++i) {
+				path.add(states[rest % states.length]);
+				rest /= states.length;
+			}
+			final double prob = score(model, path, observations);
+			if (prob > 0.0) {
+				ret.add(prob);
+			}
+		}
+		Collections.sort(ret, Collections.reverseOrder());
+		return ret;
+	}
+
+	private static double score(CompiledViterbiModel<RandomState, RandomObservation> model, List<RandomState> path, List<RandomObservation> observations) {
+		double prob = value(model, model.getInitialDistribution(path.get(0)));
+		for (int i = 0; i < path.size(); ++i) {
+			if (i > 0) {
+				prob *= value(model, model.getTransitionProbability(path.get(i - 1), path.get(i)));
+			}
+			prob *= value(model, model.getEmissionProbability(path.get(i), observations.get(i)));
+		}
+		return prob;
+	}
+
+	private static double value(CompiledViterbiModel<?, ?> model, double stored) {
+		return model.isLogSpace() ? Math.exp(stored) : stored;
+	}
+
+	@Test
+	public void trellisLargerThanAnArrayIsNotOk() {
+		KBestViterbiDecoder<WikipediaState, WikipediaObservation> decoder = new KBestViterbiDecoder<>(CompiledViterbiModel.compile(TestModels.wikipedia()), 1 << 30);
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("a trellis of 2 x 1073741824 cells does not fit in an array");
+		decoder.decode(TestModels.wikipediaObservations());
+	}
+}
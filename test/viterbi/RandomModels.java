@@ -0,0 +1,57 @@
+package viterbi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// small runtime-vocabulary models for comparing decoders with exhaustive search
+final class RandomModels {
+
+	private RandomModels() {
+	}
+
+	// states s0, s1, .., observations o0, o1, ..; without selfTransitions every transition row leaves the state
+	static CompiledViterbiModel<String, String> firstOrder(Random random, int stateCount, int observationCount, boolean selfTransitions) {
+		final CompiledViterbiModel.Builder<String, String> builder = CompiledViterbiModel.builder(labels("s", stateCount), labels("o", observationCount));
+		final double[] initial = TestModels.randomRow(random, stateCount, 0.0);
+		for (int src = 0; src < stateCount; ++src) {
+			builder.withInitialDistribution(src, initial[src]);
+			final double[] transitions = TestModels.randomRow(random, selfTransitions ? stateCount : stateCount - 1, 0.3);
+			for (int dest = 0, i = 0; dest < stateCount; ++dest) {
+				if (selfTransitions || dest != src) {
+					builder.withTransitionProbability(src, dest, transitions[i++]);
+				}
+			}
+			final double[] emissions = TestModels.randomRow(random, observationCount, 0.3);
+			for (int observation = 0; observation < observationCount; ++observation) {
+				builder.withEmissionProbability(src, observation, emissions[observation]);
+			}
+		}
+		return builder.build();
+	}
+
+	static Vocabulary<String> labels(String prefix, int count) {
+		final List<String> ret = new ArrayList<>(count);
+		for (int i = 0; i < count; ++i) {
+			ret.add(prefix + i);
+		}
+		return Vocabulary.of(ret);
+	}
+
+	// every state sequence of the given length
+	static List<int[]> allPaths(int stateCount, int length) {
+		final List<int[]> ret = new ArrayList<>();
+		final int[] path = new int[length];
+		while (true) {
+			ret.add(path.clone());
+			int i = length - 1;
+			while (i >= 0 && path[i] == stateCount - 1) {
+				path[i--] = 0;
+			}
+			if (i < 0) {
+				return ret;
+			}
+			++path[i];
+		}
+	}
+}
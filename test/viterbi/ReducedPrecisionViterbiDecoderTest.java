@@ -0,0 +1,104 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.ReducedPrecisionViterbiDecoder.Precision;
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+import viterbi.Viterbi.ViterbiModel.TransitionStorage;
+
+import com.google.common.collect.ImmutableList;
+
+public class ReducedPrecisionViterbiDecoderTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void wikipediaSample() {
+		final List<WikipediaState> expected = ImmutableList.of(WikipediaState.HEALTHY, WikipediaState.HEALTHY, WikipediaState.FEVER);
+		for (Precision precision : Precision.values()) {
+			ReducedPrecisionViterbiDecoder<WikipediaState, WikipediaObservation> decoder =
+					new ReducedPrecisionViterbiDecoder<>(CompiledViterbiModel.compile(TestModels.wikipedia()), precision);
+			assertThat(decoder.decode(TestModels.wikipediaObservations()), is(expected));
+		}
+	}
+
+	// near-ties may be resolved differently, so the paths are compared by their double precision scores.
+	// probability-space sequences are kept short enough for the double precision decode not to underflow
+	@Test
+	public void pathsScoreAsWellAsDoublePrecisionPaths() {
+		for (long seed = 0; seed < 40; ++seed) {
+			boolean logSpace = seed % 3 != 0;
+			CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.randomBuilder(seed, seed % 2 == 0 ? 0.0 : 0.6, 0.3)
+					.withLogSpace(logSpace).withTransitionStorage(seed % 4 < 2 ? TransitionStorage.DENSE : TransitionStorage.SPARSE).build());
+			int length = 1 + (int) (seed * 37 % (logSpace ? 500 : 100));
+			int[] observations = TestModels.randomObservations(seed, length).stream().mapToInt(RandomObservation::ordinal).toArray();
+			int[] expected = new ViterbiDecoder<>(model).decode(observations);
+			for (Precision precision : Precision.values()) {
+				int[] path = new ReducedPrecisionViterbiDecoder<>(model, precision).decode(observations);
+				if (expected[length - 1] == -1) {
+					assertThat(path, is(expected));
+				} else {
+					double expectedScore = score(model, expected, observations);
+					assertThat(score(model, path, observations), is(closeTo(expectedScore, 1e-5 * observations.length)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void manyStatesUseShortBackPointers() {
+		CompiledViterbiModel<String, String> model = RandomModels.firstOrder(new Random(3), 200, 4, true);
+		ReducedPrecisionViterbiDecoder<String, String> decoder = new ReducedPrecisionViterbiDecoder<>(model, Precision.QUANTIZED);
+		assertThat(decoder.backPointerBytes(), is(2));
+		assertThat(new ReducedPrecisionViterbiDecoder<>(CompiledViterbiModel.compile(TestModels.wikipedia()), Precision.FLOAT).backPointerBytes(), is(1));
+
+		int[] observations = new Random(4).ints(50, 0, 4).toArray();
+		int[] expected = new ViterbiDecoder<>(model).decode(observations);
+		assertThat(score(model, decoder.decode(observations), observations), is(closeTo(score(model, expected, observations), 1e-2)));
+	}
+
+	@Test
+	public void quantizedLogProbabilities() {
+		assertThat(ReducedPrecisionViterbiDecoder.quantize(Double.NEGATIVE_INFINITY), is(ReducedPrecisionViterbiDecoder.IMPOSSIBLE));
+		assertThat(ReducedPrecisionViterbiDecoder.quantize(-1e300), is(ReducedPrecisionViterbiDecoder.IMPOSSIBLE + 1));
+		assertThat(ReducedPrecisionViterbiDecoder.quantize(Math.log(0.5)), is(-45426));
+	}
+
+	@Test
+	public void emptyObservationsAreNotOk() {
+		ReducedPrecisionViterbiDecoder<WikipediaState, WikipediaObservation> decoder =
+				new ReducedPrecisionViterbiDecoder<>(CompiledViterbiModel.compile(TestModels.wikipedia()), Precision.FLOAT);
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("at least one observation should be provided, 0 given");
+		decoder.decode(ImmutableList.of());
+	}
+
+	private static double score(CompiledViterbiModel<?, ?> model, int[] path, int[] observations) {
+		double score = log(model, model.initialDistributions[path[0]]);
+		for (int i = 0; i < path.length; ++i) {
+			if (i > 0) {
+				score += log(model, model.transitionProbability(path[i - 1], path[i]));
+			}
+			score += log(model, model.emissionColumns[observations[i] * model.stateCount + path[i]]);
+		}
+		return score;
+	}
+
+	private static double log(CompiledViterbiModel<?, ?> model, double value) {
+		return model.logSpace ? value : Math.log(value);
+	}
+}
@@ -0,0 +1,152 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+
+import com.google.common.collect.ImmutableList;
+
+public class SecondOrderViterbiDecoderTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void firstOrderTransitionsGiveTheFirstOrderPaths() {
+		for (long seed = 0; seed < 20; ++seed) {
+			CompiledViterbiModel<RandomState, RandomObservation> firstOrder = CompiledViterbiModel.compile(TestModels.random(seed, seed % 2 == 0 ? 0.0 : 0.5, true));
+			SecondOrderViterbiModel.Builder<RandomState, RandomObservation> builder = SecondOrderViterbiModel.builder(firstOrder);
+			for (int prev2 = 0; prev2 < firstOrder.stateCount; ++prev2) {
+				for (int prev1 = 0; prev1 < firstOrder.stateCount; ++prev1) {
+					for (int dest = 0; dest < firstOrder.stateCount; ++dest) {
+						builder.withTransitionProbability(prev2, prev1, dest, Math.exp(firstOrder.transitionProbability(prev1, dest)));
+					}
+				}
+			}
+			SecondOrderViterbiDecoder<RandomState, RandomObservation> decoder = new SecondOrderViterbiDecoder<>(builder.build());
+
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed * 7 % 60));
+			assertThat(decoder.decode(observations), is(firstOrder.newMachine(observations).calculate()));
+		}
+	}
+
+	@Test
+	public void bestPathsOfSmallModels() {
+		for (long seed = 0; seed < 30; ++seed) {
+			final Random random = new Random(seed);
+			SecondOrderViterbiModel<String, String> model = randomModel(random, 3, 3);
+			int[] observations = random.ints(1 + random.nextInt(6), 0, 3).toArray();
+
+			int[] path = new SecondOrderViterbiDecoder<>(model).decode(observations);
+			double expected = bruteForce(model, observations);
+			if (expected == Double.NEGATIVE_INFINITY) {
+				assertThat(Arrays.stream(path).allMatch(state -> state == ViterbiKernel.NO_STATE), is(true));
+			} else {
+				assertThat(score(model, path, observations), is(closeTo(expected, 1e-9)));
+			}
+		}
+	}
+
+	@Test
+	public void impossibleSequencesHaveNoPath() {
+		// no state emits o1
+		CompiledViterbiModel<String, String> firstOrder = CompiledViterbiModel.builder(RandomModels.labels("s", 2), RandomModels.labels("o", 2))
+				.withInitialDistribution(0, 0.5)
+				.withInitialDistribution(1, 0.5)
+				.withTransitionProbability(0, 1, 1.0)
+				.withTransitionProbability(1, 0, 1.0)
+				.withEmissionProbability(0, 0, 1.0)
+				.withEmissionProbability(1, 0, 1.0)
+				.build();
+		SecondOrderViterbiModel.Builder<String, String> builder = SecondOrderViterbiModel.builder(firstOrder);
+		for (int prev2 = 0; prev2 < 2; ++prev2) {
+			for (int prev1 = 0; prev1 < 2; ++prev1) {
+				builder.withTransitionProbability(prev2, prev1, 1 - prev1, 1.0);
+			}
+		}
+		SecondOrderViterbiDecoder<String, String> decoder = new SecondOrderViterbiDecoder<>(builder.build());
+
+		assertThat(Arrays.equals(decoder.decode(new int[] { 0, 0, 0 }), new int[] { 1, 0, 1 }), is(true));
+		assertThat(Arrays.equals(decoder.decode(new int[] { 0, 0, 1 }), new int[] { -1, -1, -1 }), is(true));
+		assertThat(Arrays.equals(decoder.decode(new int[] { 0, 1, 0, 0 }), new int[] { -1, -1, -1, -1 }), is(true));
+		assertThat(Arrays.equals(decoder.decode(new int[] { 1 }), new int[] { -1 }), is(true));
+	}
+
+	@Test
+	public void transitionTablesBeyondAnArrayAreNotOk() {
+		final int stateCount = 1300;
+		CompiledViterbiModel.Builder<String, String> firstOrder = CompiledViterbiModel.builder(RandomModels.labels("s", stateCount), RandomModels.labels("o", 1))
+				.withInitialDistribution(0, 1.0);
+		for (int state = 0; state < stateCount; ++state) {
+			firstOrder.withTransitionProbability(state, state, 1.0).withEmissionProbability(state, 0, 1.0);
+		}
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("a second-order transition table of 1690000 x 1300 cells does not fit in an array");
+		SecondOrderViterbiModel.builder(firstOrder.build());
+	}
+
+	@Test
+	public void transitionsNotSummingToOneIsNotOk() {
+		CompiledViterbiModel<String, String> firstOrder = randomModel(new Random(1), 2, 2).firstOrder;
+		SecondOrderViterbiModel.Builder<String, String> builder = SecondOrderViterbiModel.builder(firstOrder)
+				.withTransitionProbability(0, 0, 0, 1.0)
+				.withTransitionProbability(0, 1, 1, 1.0)
+				.withTransitionProbability(1, 0, 0, 0.5)
+				.withTransitionProbability(1, 1, 0, 1.0);
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("sum of transition probabilities for each state pair should be one, was 0.5 for states s1, s0");
+		builder.build();
+	}
+
+	private static SecondOrderViterbiModel<String, String> randomModel(Random random, int stateCount, int observationCount) {
+		final CompiledViterbiModel<String, String> firstOrder = RandomModels.firstOrder(random, stateCount, observationCount, false);
+		final SecondOrderViterbiModel.Builder<String, String> builder = SecondOrderViterbiModel.builder(firstOrder);
+		for (int prev2 = 0; prev2 < stateCount; ++prev2) {
+			for (int prev1 = 0; prev1 < stateCount; ++prev1) {
+				final double[] row = TestModels.randomRow(random, stateCount, 0.3);
+				for (int dest = 0; dest < stateCount; ++dest) {
+					builder.withTransitionProbability(prev2, prev1, dest, row[dest]);
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	private static double score(SecondOrderViterbiModel<String, String> model, int[] path, int[] observations) {
+		final CompiledViterbiModel<String, String> firstOrder = model.firstOrder;
+		final int stateCount = firstOrder.stateCount;
+		if (Arrays.stream(path).anyMatch(state -> state == ViterbiKernel.NO_STATE)) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		double score = Math.log(firstOrder.initialDistributions[path[0]]);
+		for (int i = 0; i < path.length; ++i) {
+			if (i == 1) {
+				score += Math.log(firstOrder.transitionProbability(path[0], path[1]));
+			} else if (i > 1) {
+				score += Math.log(model.transitionProbabilities[(path[i - 2] * stateCount + path[i - 1]) * stateCount + path[i]]);
+			}
+			score += Math.log(firstOrder.emissionColumns[observations[i] * firstOrder.stateCount + path[i]]);
+		}
+		return score;
+	}
+
+	private static double bruteForce(SecondOrderViterbiModel<String, String> model, int[] observations) {
+		double best = Double.NEGATIVE_INFINITY;
+		for (int[] path : RandomModels.allPaths(model.stateCount, observations.length)) {
+			best = Math.max(best, score(model, path, observations));
+		}
+		return best;
+	}
+}
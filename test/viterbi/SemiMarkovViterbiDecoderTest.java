@@ -0,0 +1,138 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.google.common.collect.ImmutableList;
+
+public class SemiMarkovViterbiDecoderTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void bestSegmentationsOfSmallModels() {
+		for (long seed = 0; seed < 40; ++seed) {
+			final Random random = new Random(seed);
+			SemiMarkovViterbiModel<String, String> model = randomModel(random, 3, 3, 1 + random.nextInt(4));
+			int[] observations = random.ints(1 + random.nextInt(7), 0, 3).toArray();
+
+			int[] path = new SemiMarkovViterbiDecoder<>(model).decode(observations);
+			double expected = bruteForce(model, observations);
+			if (expected == Double.NEGATIVE_INFINITY) {
+				assertThat(Arrays.stream(path).allMatch(state -> state == ViterbiKernel.NO_STATE), is(true));
+			} else {
+				assertThat(score(model, path, observations), is(closeTo(expected, 1e-9)));
+			}
+		}
+	}
+
+	@Test
+	public void durationsLongerThanOneObservation() {
+		// s0 only lasts exactly 3 observations, s1 exactly 1, and both emit everything alike
+		CompiledViterbiModel<String, String> firstOrder = CompiledViterbiModel.builder(RandomModels.labels("s", 2), RandomModels.labels("o", 1))
+				.withInitialDistribution(0, 0.5)
+				.withInitialDistribution(1, 0.5)
+				.withTransitionProbability(0, 1, 1.0)
+				.withTransitionProbability(1, 0, 1.0)
+				.withEmissionProbability(0, 0, 1.0)
+				.withEmissionProbability(1, 0, 1.0)
+				.build();
+		SemiMarkovViterbiModel<String, String> model = SemiMarkovViterbiModel.builder(firstOrder, 3)
+				.withDurationProbability(0, 3, 1.0)
+				.withDurationProbability(1, 1, 1.0)
+				.build();
+
+		assertThat(new SemiMarkovViterbiDecoder<>(model).decode(ImmutableList.of("o0", "o0", "o0", "o0", "o0")),
+				is(ImmutableList.of("s1", "s0", "s0", "s0", "s1")));
+		assertThat(Arrays.equals(new SemiMarkovViterbiDecoder<>(model).decode(new int[] { 0, 0 }), new int[] { -1, -1 }), is(true));
+	}
+
+	@Test
+	public void selfTransitionsAreNotOk() {
+		CompiledViterbiModel<String, String> firstOrder = RandomModels.firstOrder(new Random(1), 2, 2, true);
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("self transitions should be zero in an explicit-duration model");
+		SemiMarkovViterbiModel.builder(firstOrder, 2).withDurationProbability(0, 1, 1.0).withDurationProbability(1, 1, 1.0).build();
+	}
+
+	@Test
+	public void durationsNotSummingToOneIsNotOk() {
+		CompiledViterbiModel<String, String> firstOrder = RandomModels.firstOrder(new Random(1), 2, 2, false);
+		SemiMarkovViterbiModel.Builder<String, String> builder = SemiMarkovViterbiModel.builder(firstOrder, 2)
+				.withDurationProbability(0, 1, 1.0)
+				.withDurationProbability(1, 2, 0.5);
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("sum of duration probabilities for each state should be one, was 0.5 for state s1");
+		builder.build();
+	}
+
+	@Test
+	public void durationTablesBeyondAnArrayAreNotOk() {
+		CompiledViterbiModel<String, String> firstOrder = RandomModels.firstOrder(new Random(1), 2, 2, false);
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("a duration table of 2 x 1073741823 cells does not fit in an array");
+		SemiMarkovViterbiModel.builder(firstOrder, Integer.MAX_VALUE / 2);
+	}
+
+	@Test
+	public void durationOutsideTheMaximumIsNotOk() {
+		SemiMarkovViterbiModel.Builder<String, String> builder = SemiMarkovViterbiModel.builder(RandomModels.firstOrder(new Random(1), 2, 2, false), 2);
+
+		thrown.expect(IndexOutOfBoundsException.class);
+		builder.withDurationProbability(0, 3, 1.0);
+	}
+
+	private static SemiMarkovViterbiModel<String, String> randomModel(Random random, int stateCount, int observationCount, int maxDuration) {
+		final CompiledViterbiModel<String, String> firstOrder = RandomModels.firstOrder(random, stateCount, observationCount, false);
+		final SemiMarkovViterbiModel.Builder<String, String> builder = SemiMarkovViterbiModel.builder(firstOrder, maxDuration);
+		for (int state = 0; state < stateCount; ++state) {
+			final double[] row = TestModels.randomRow(random, maxDuration, 0.3);
+			for (int duration = 1; duration <= maxDuration; ++duration) {
+				builder.withDurationProbability(state, duration, row[duration - 1]);
+			}
+		}
+		return builder.build();
+	}
+
+	// the segments of a path are its runs of one state, since a state never follows itself
+	private static double score(SemiMarkovViterbiModel<String, String> model, int[] path, int[] observations) {
+		final CompiledViterbiModel<String, String> firstOrder = model.firstOrder;
+		double score = 0.0;
+		for (int start = 0, end; start < path.length; start = end) {
+			end = start + 1;
+			while (end < path.length && path[end] == path[start]) {
+				++end;
+			}
+			final int state = path[start];
+			if (end - start > model.maxDuration) {
+				return Double.NEGATIVE_INFINITY;
+			}
+			score += Math.log(start == 0 ? firstOrder.initialDistributions[state] : firstOrder.transitionProbability(path[start - 1], state));
+			score += Math.log(model.durationProbabilities[state * model.maxDuration + end - start - 1]);
+			for (int i = start; i < end; ++i) {
+				score += Math.log(firstOrder.emissionColumns[observations[i] * firstOrder.stateCount + state]);
+			}
+		}
+		return score;
+	}
+
+	private static double bruteForce(SemiMarkovViterbiModel<String, String> model, int[] observations) {
+		double best = Double.NEGATIVE_INFINITY;
+		for (int[] path : RandomModels.allPaths(model.firstOrder.stateCount, observations.length)) {
+			best = Math.max(best, score(model, path, observations));
+		}
+		return best;
+	}
+}
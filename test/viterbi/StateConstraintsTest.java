@@ -0,0 +1,79 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.TestModels.WikipediaState;
+
+import com.google.common.collect.ImmutableList;
+
+public class StateConstraintsTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void allowedStatesPerPosition() {
+		BitSet first = new BitSet();
+		first.set(0);
+		first.set(2);
+		BitSet second = new BitSet();
+		second.set(1);
+		second.set(2);
+		StateConstraints<String> constraints = StateConstraints.builder(RandomModels.labels("s", 3), 4)
+				.allow(1, first)
+				.allow(1, second)
+				.allow(3, ImmutableList.of("s2", "s0"))
+				.build();
+
+		assertThat(constraints.isConstrained(0), is(false));
+		assertThat(constraints.isAllowed(0, "s1"), is(true));
+		assertThat(constraints.isAllowed(1, "s0"), is(false));
+		assertThat(constraints.isAllowed(1, "s2"), is(true));
+		assertThat(Arrays.equals(constraints.allowedOffsets, new int[] { 0, 0, 1, 1, 3 }), is(true));
+		assertThat(Arrays.equals(constraints.allowedStates, new int[] { 2, 0, 2 }), is(true));
+	}
+
+	@Test
+	public void forcedStates() {
+		StateConstraints<WikipediaState> constraints = StateConstraints.builder(Vocabulary.ofEnum(WikipediaState.class), 2)
+				.force(1, WikipediaState.FEVER)
+				.build();
+
+		assertThat(constraints.isAllowed(1, WikipediaState.HEALTHY), is(false));
+		assertThat(constraints.isAllowed(1, WikipediaState.FEVER), is(true));
+	}
+
+	@Test
+	public void noAllowedStateIsNotOk() {
+		StateConstraints.Builder<String> builder = StateConstraints.builder(RandomModels.labels("s", 3), 4)
+				.force(2, 0)
+				.force(2, 1);
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("no state allowed at position 2");
+		builder.build();
+	}
+
+	@Test
+	public void stateOutOfRangeIsNotOk() {
+		BitSet states = new BitSet();
+		states.set(3);
+
+		thrown.expect(IndexOutOfBoundsException.class);
+		StateConstraints.builder(RandomModels.labels("s", 3), 4).allow(0, states);
+	}
+
+	@Test
+	public void positionOutOfRangeIsNotOk() {
+		thrown.expect(IndexOutOfBoundsException.class);
+		StateConstraints.builder(RandomModels.labels("s", 3), 4).force(4, 0);
+	}
+}
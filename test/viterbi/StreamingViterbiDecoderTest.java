@@ -0,0 +1,148 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class StreamingViterbiDecoderTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void wikipediaSample() {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+
+		List<WikipediaState> states = Lists.newArrayList(StreamingViterbiDecoder.decode(model, 0, TestModels.wikipediaObservations().iterator()));
+		final List<WikipediaState> expected = ImmutableList.of(WikipediaState.HEALTHY, WikipediaState.HEALTHY, WikipediaState.FEVER);
+		assertThat(states, is(expected));
+	}
+
+	@Test
+	public void samePathsAsCompiledViterbiMachine() {
+		for (long seed = 0; seed < 30; ++seed) {
+			CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(seed, seed % 2 == 0 ? 0.0 : 0.6, seed % 3 == 0));
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed % 60));
+
+			List<RandomState> expected = model.newMachine(observations).calculate();
+			assertThat(Lists.newArrayList(StreamingViterbiDecoder.decode(model, 0, observations.iterator())), is(expected));
+		}
+	}
+
+	@Test
+	public void statesAreEmittedBeforeTheEndOfTheStream() {
+		CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(1, 0.6, true));
+		ImmutableList<RandomObservation> observations = TestModels.randomObservations(1, 5000);
+		List<RandomState> states = new ArrayList<>();
+		StreamingViterbiDecoder<RandomState, RandomObservation> decoder = new StreamingViterbiDecoder<>(model, states::add);
+
+		for (RandomObservation observation : observations) {
+			decoder.push(observation);
+		}
+		int emittedBeforeFlush = states.size();
+		decoder.flush();
+
+		assertThat(emittedBeforeFlush > 4000, is(true));
+		assertThat(states, is(model.newMachine(observations).calculate()));
+	}
+
+	@Test
+	public void pendingObservationsEndWhereTheSurvivingPathsMerge() {
+		for (long seed = 0; seed < 10; ++seed) {
+			CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(seed, 0.6, true));
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 300);
+			StreamingViterbiDecoder<RandomState, RandomObservation> decoder = new StreamingViterbiDecoder<>(model, state -> { });
+			final int stateCount = model.stateCount;
+			int[] backPointers = new int[observations.size() * stateCount];
+			double[] previous = new double[stateCount];
+			double[] current = new double[stateCount];
+
+			for (int length = 1; length <= observations.size(); ++length) {
+				int symbol = model.observation(observations.get(length - 1));
+				if (length == 1) {
+					ViterbiKernel.initialize(model, symbol, current);
+				} else {
+					double[] tmp = previous;
+					previous = current;
+					current = tmp;
+					ViterbiKernel.step(model, previous, current, backPointers, (length - 1) * stateCount, symbol);
+				}
+				decoder.push(observations.get(length - 1));
+				assertThat(decoder.getPendingCount(), is(length - 1 - mergePosition(backPointers, current, stateCount, length)));
+			}
+		}
+	}
+
+	// the latest position that every surviving path runs through, by walking all of them back; -1 if there is none
+	private static int mergePosition(int[] backPointers, double[] last, int stateCount, int length) {
+		Set<Integer> cells = new HashSet<>();
+		for (int state = 0; state < stateCount; ++state) {
+			if (last[state] > Double.NEGATIVE_INFINITY) {
+				cells.add(state);
+			}
+		}
+		for (int position = length - 1; position >= 0; --position) {
+			if (cells.size() == 1) {
+				return position;
+			}
+			Set<Integer> predecessors = new HashSet<>();
+			for (int state : cells) {
+				predecessors.add(backPointers[position * stateCount + state]);
+			}
+			cells = predecessors;
+		}
+		return -1;
+	}
+
+	@Test
+	public void fixedLagBoundsPendingObservations() {
+		CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(2, 0.0, true));
+		ImmutableList<RandomObservation> observations = TestModels.randomObservations(2, 1000);
+		List<RandomState> states = new ArrayList<>();
+		StreamingViterbiDecoder<RandomState, RandomObservation> decoder = new StreamingViterbiDecoder<>(model, 4, states::add);
+
+		for (RandomObservation observation : observations) {
+			decoder.push(observation);
+			assertThat(decoder.getPendingCount(), lessThanOrEqualTo(4));
+		}
+		decoder.flush();
+
+		assertThat(states.size(), is(observations.size()));
+		assertThat(states.contains(null), is(false));
+	}
+
+	@Test
+	public void longProbabilitySpaceStreamDoesNotUnderflow() {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+
+		List<WikipediaState> states = Lists.newArrayList(StreamingViterbiDecoder.decode(model, 0, Collections.nCopies(5000, WikipediaObservation.DIZZY).iterator()));
+		assertThat(states, is(Collections.nCopies(5000, WikipediaState.FEVER)));
+	}
+
+	@Test
+	public void negativeMaxLagIsNotOk() {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("maxLag should not be negative, was -1");
+		new StreamingViterbiDecoder<>(model, -1, state -> { });
+	}
+}
@@ -0,0 +1,157 @@
+package viterbi;
+
+import java.util.Random;
+
+import viterbi.Viterbi.ViterbiModel;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+final class TestModels {
+
+	enum WikipediaState { HEALTHY, FEVER };
+	enum WikipediaObservation { OK, COLD, DIZZY };
+
+	enum RandomState { S0, S1, S2, S3, S4, S5, S6, S7 };
+	enum RandomObservation { O0, O1, O2, O3, O4 };
+
+	private TestModels() {
+	}
+
+	static ViterbiModel<WikipediaState, WikipediaObservation> wikipedia() {
+		return wikipediaBuilder().build();
+	}
+
+	static ViterbiModel.Builder<WikipediaState, WikipediaObservation> wikipediaBuilder() {
+		return wikipediaTransitions(0.4)
+				.withEmissionProbability(WikipediaState.HEALTHY, WikipediaObservation.OK, 0.5)
+				.withEmissionProbability(WikipediaState.HEALTHY, WikipediaObservation.COLD, 0.4)
+				.withEmissionProbability(WikipediaState.HEALTHY, WikipediaObservation.DIZZY, 0.1)
+				.withEmissionProbability(WikipediaState.FEVER, WikipediaObservation.OK, 0.1)
+				.withEmissionProbability(WikipediaState.FEVER, WikipediaObservation.COLD, 0.3)
+				.withEmissionProbability(WikipediaState.FEVER, WikipediaObservation.DIZZY, 0.6);
+	}
+
+	// the wikipedia model where healthy is never dizzy and fever is never ok, so ok and dizzy each have one emitting state;
+	// fever turns healthy with probability recovery, which is 0.4 in the wikipedia model
+	static ViterbiModel.Builder<WikipediaState, WikipediaObservation> partialWikipediaBuilder(double recovery) {
+		return wikipediaTransitions(recovery)
+				.withEmissionProbability(WikipediaState.HEALTHY, WikipediaObservation.OK, 0.6)
+				.withEmissionProbability(WikipediaState.HEALTHY, WikipediaObservation.COLD, 0.4)
+				.withEmissionProbability(WikipediaState.FEVER, WikipediaObservation.COLD, 0.3)
+				.withEmissionProbability(WikipediaState.FEVER, WikipediaObservation.DIZZY, 0.7);
+	}
+
+	// the wikipedia model where no state is ever dizzy, so every sequence with dizzy in it is impossible
+	static ViterbiModel.Builder<WikipediaState, WikipediaObservation> neverDizzyWikipediaBuilder() {
+		return wikipediaTransitions(0.4)
+				.withEmissionProbability(WikipediaState.HEALTHY, WikipediaObservation.OK, 0.6)
+				.withEmissionProbability(WikipediaState.HEALTHY, WikipediaObservation.COLD, 0.4)
+				.withEmissionProbability(WikipediaState.FEVER, WikipediaObservation.OK, 0.2)
+				.withEmissionProbability(WikipediaState.FEVER, WikipediaObservation.COLD, 0.8);
+	}
+
+	private static ViterbiModel.Builder<WikipediaState, WikipediaObservation> wikipediaTransitions(double recovery) {
+		final ViterbiModel.Builder<WikipediaState, WikipediaObservation> builder = ViterbiModel.<WikipediaState, WikipediaObservation>builder()
+				.withInitialDistributions(ImmutableMap.<WikipediaState, Double>builder()
+						.put(WikipediaState.HEALTHY, 0.6)
+						.put(WikipediaState.FEVER, 0.4)
+						.build())
+				.withTransitionProbability(WikipediaState.HEALTHY, WikipediaState.HEALTHY, 0.7)
+				.withTransitionProbability(WikipediaState.HEALTHY, WikipediaState.FEVER, 0.3)
+				.withTransitionProbability(WikipediaState.FEVER, WikipediaState.FEVER, 1.0 - recovery);
+		return recovery > 0.0 ? builder.withTransitionProbability(WikipediaState.FEVER, WikipediaState.HEALTHY, recovery) : builder;
+	}
+
+	static ImmutableList<WikipediaObservation> wikipediaObservations() {
+		return ImmutableList.of(WikipediaObservation.OK, WikipediaObservation.COLD, WikipediaObservation.DIZZY);
+	}
+
+	// emissions are dense, every transition row keeps at least one non-zero entry and drops the others with probability zeroRatio
+	static ViterbiModel<RandomState, RandomObservation> random(long seed, double zeroRatio) {
+		return randomBuilder(seed, zeroRatio).build();
+	}
+
+	static ViterbiModel<RandomState, RandomObservation> random(long seed, double zeroRatio, boolean logSpace) {
+		return randomBuilder(seed, zeroRatio).withLogSpace(logSpace).build();
+	}
+
+	static ViterbiModel.Builder<RandomState, RandomObservation> randomBuilder(long seed, double zeroRatio) {
+		return randomBuilder(seed, zeroRatio, 0.0);
+	}
+
+	// emission rows too keep at least one non-zero entry and drop the others with probability emissionZeroRatio
+	static ViterbiModel.Builder<RandomState, RandomObservation> randomBuilder(long seed, double zeroRatio, double emissionZeroRatio) {
+		final Random random = new Random(seed);
+		final RandomState[] states = RandomState.values();
+		final RandomObservation[] observations = RandomObservation.values();
+
+		final ViterbiModel.Builder<RandomState, RandomObservation> builder = ViterbiModel.builder();
+
+		final double[] initial = randomRow(random, states.length, 0.0);
+		final ImmutableMap.Builder<RandomState, Double> initialDistributions = ImmutableMap.builder();
+		for (RandomState state : states) {
+			initialDistributions.put(state, initial[state.ordinal()]);
+		}
+		builder.withInitialDistributions(initialDistributions.build());
+
+		for (RandomState src : states) {
+			final double[] row = randomRow(random, states.length, zeroRatio);
+			for (RandomState dest : states) {
+				if (row[dest.ordinal()] > 0.0) {
+					builder.withTransitionProbability(src, dest, row[dest.ordinal()]);
+				}
+			}
+		}
+		for (RandomState state : states) {
+			final double[] row = randomRow(random, observations.length, emissionZeroRatio);
+			for (RandomObservation observation : observations) {
+				if (row[observation.ordinal()] > 0.0) {
+					builder.withEmissionProbability(state, observation, row[observation.ordinal()]);
+				}
+			}
+		}
+		return builder;
+	}
+
+	static ImmutableList<RandomObservation> randomObservations(long seed, int length) {
+		final Random random = new Random(seed);
+		final RandomObservation[] observations = RandomObservation.values();
+		final ImmutableList.Builder<RandomObservation> ret = ImmutableList.builder();
+		for (int i = 0; i < length; ++i) {
+			ret.add(observations[random.nextInt(observations.length)]);
+		}
+		return ret.build();
+	}
+
+	// runs of one symbol, of 1 to maxRun observations each
+	static ImmutableList<RandomObservation> randomRuns(long seed, int length, int maxRun) {
+		final Random random = new Random(seed);
+		final RandomObservation[] observations = RandomObservation.values();
+		final ImmutableList.Builder<RandomObservation> ret = ImmutableList.builder();
+		for (int i = 0; i < length;) {
+			final RandomObservation observation = observations[random.nextInt(observations.length)];
+			for (int run = 1 + random.nextInt(maxRun); run > 0 && i < length; --run, ++i) {
+				ret.add(observation);
+			}
+		}
+		return ret.build();
+	}
+
+	// keeps at least one entry, drops the others with probability zeroRatio
+	static double[] randomRow(Random random, int length, double zeroRatio) {
+		final double[] row = new double[length];
+		final int kept = random.nextInt(length);
+		double sum = 0.0;
+		for (int i = 0; i < length; ++i) {
+			if (i == kept || random.nextDouble() >= zeroRatio) {
+				row[i] = 0.05 + random.nextDouble();
+				sum += row[i];
+			}
+		}
+		for (int i = 0; i < length; ++i) {
+			row[i] /= sum;
+		}
+		return row;
+	}
+}
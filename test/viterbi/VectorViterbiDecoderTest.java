@@ -0,0 +1,99 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+
+import com.google.common.collect.ImmutableList;
+
+public class VectorViterbiDecoderTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void wikipediaSample() {
+		VectorViterbiDecoder<WikipediaState, WikipediaObservation> decoder = new VectorViterbiDecoder<>(CompiledViterbiModel.compile(TestModels.wikipedia()));
+
+		final List<WikipediaState> expected = ImmutableList.of(WikipediaState.HEALTHY, WikipediaState.HEALTHY, WikipediaState.FEVER);
+		assertThat(decoder.decode(TestModels.wikipediaObservations()), is(expected));
+	}
+
+	@Test
+	public void samePathsAsViterbiDecoder() {
+		for (long seed = 0; seed < 40; ++seed) {
+			CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(seed, seed % 2 == 0 ? 0.0 : 0.6, seed % 3 != 0));
+			ViterbiDecoder<RandomState, RandomObservation> expected = new ViterbiDecoder<>(model);
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed * 13 % 100));
+
+			assertThat(new VectorViterbiDecoder<>(model).decode(observations), is(expected.decode(observations)));
+			assertThat(new VectorViterbiDecoder<>(model, new ScalarMaxProductKernel()).decode(observations), is(expected.decode(observations)));
+		}
+	}
+
+	@Test
+	public void samePathsAsViterbiDecoderWithLaneRemainders() {
+		// state counts that leave a scalar tail after the full vectors of every lane width
+		for (int stateCount : new int[] { 1, 3, 7, 13, 37, 64 }) {
+			for (boolean logSpace : new boolean[] { false, true }) {
+				CompiledViterbiModel<String, String> model = randomModel(stateCount, 6, logSpace, stateCount);
+				ViterbiDecoder<String, String> expected = new ViterbiDecoder<>(model);
+				int[] observations = new Random(stateCount).ints(200, 0, 6).toArray();
+
+				assertThat(new VectorViterbiDecoder<>(model).decode(observations), is(expected.decode(observations)));
+				assertThat(new VectorViterbiDecoder<>(model, new ScalarMaxProductKernel()).decode(observations), is(expected.decode(observations)));
+			}
+		}
+	}
+
+	@Test
+	public void vectorizedWhenTheModuleIsAvailable() {
+		boolean available;
+		try {
+			Class.forName("jdk.incubator.vector.DoubleVector");
+			available = true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			available = false;
+		}
+
+		assertThat(new VectorViterbiDecoder<>(CompiledViterbiModel.compile(TestModels.wikipedia())).isVectorized(), is(available));
+	}
+
+	@Test
+	public void emptyObservationsAreNotOk() {
+		VectorViterbiDecoder<WikipediaState, WikipediaObservation> decoder = new VectorViterbiDecoder<>(CompiledViterbiModel.compile(TestModels.wikipedia()));
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("at least one observation should be provided, 0 given");
+		decoder.decode(ImmutableList.<WikipediaObservation>of());
+	}
+
+	private static CompiledViterbiModel<String, String> randomModel(int stateCount, int observationCount, boolean logSpace, long seed) {
+		final Random random = new Random(seed);
+		final CompiledViterbiModel.Builder<String, String> builder = CompiledViterbiModel.builder(RandomModels.labels("s", stateCount), RandomModels.labels("o", observationCount)).withLogSpace(logSpace);
+		final double[] initial = TestModels.randomRow(random, stateCount, 0.0);
+		for (int src = 0; src < stateCount; ++src) {
+			builder.withInitialDistribution(src, initial[src]);
+			final double[] transitions = TestModels.randomRow(random, stateCount, 0.0);
+			for (int dest = 0; dest < stateCount; ++dest) {
+				builder.withTransitionProbability(src, dest, transitions[dest]);
+			}
+			final double[] emissions = TestModels.randomRow(random, observationCount, 0.0);
+			for (int observation = 0; observation < observationCount; ++observation) {
+				builder.withEmissionProbability(src, observation, emissions[observation]);
+			}
+		}
+		return builder.build();
+	}
+}
@@ -0,0 +1,249 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+import viterbi.Viterbi.ViterbiMachine;
+import viterbi.Viterbi.ViterbiModel;
+import viterbi.Viterbi.ViterbiModel.TransitionStorage;
+
+import com.google.common.collect.ImmutableList;
+
+public class ViterbiDecoderTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void wikipediaSample() {
+		ViterbiDecoder<WikipediaState, WikipediaObservation> decoder = ViterbiDecoder.of(TestModels.wikipedia());
+
+		List<WikipediaState> states = decoder.decode(TestModels.wikipediaObservations());
+		final List<WikipediaState> expected = ImmutableList.of(WikipediaState.HEALTHY, WikipediaState.HEALTHY, WikipediaState.FEVER);
+		assertThat(states, is(expected));
+	}
+
+	@Test
+	public void decodeAllSamePathsAsCompiledViterbiMachine() {
+		CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(7, 0.4, true));
+		ViterbiDecoder<RandomState, RandomObservation> decoder = new ViterbiDecoder<>(model, new ForkJoinPool(4));
+
+		List<List<RandomObservation>> sequences = new ArrayList<>();
+		List<List<RandomState>> expected = new ArrayList<>();
+		for (long seed = 0; seed < 500; ++seed) {
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed % 80));
+			sequences.add(observations);
+			expected.add(model.newMachine(observations).calculate());
+		}
+
+		assertThat(decoder.decodeAll(sequences), is(expected));
+	}
+
+	@Test
+	public void sparseEmissionsAndRunsSamePathsAsCompiledViterbiMachine() {
+		for (long seed = 0; seed < 60; ++seed) {
+			CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.randomBuilder(seed, seed % 2 == 0 ? 0.0 : 0.3, 0.6)
+					.withLogSpace(seed % 3 == 0).withTransitionStorage(TransitionStorage.DENSE).build());
+			ViterbiDecoder<RandomState, RandomObservation> decoder = new ViterbiDecoder<>(model);
+
+			// includes a sequence no path can emit, which the decoder re-runs with the full kernel to trace back the path of the machine
+			ImmutableList<RandomObservation> observations = TestModels.randomRuns(seed, 1 + (int) (seed * 7 % 120), 20);
+			assertThat(decoder.decode(observations), is(model.newMachine(observations).calculate()));
+		}
+	}
+
+	@Test
+	public void impossibleSequencesTraceBackTheSamePathInEveryEngine() {
+		// no state is ever dizzy: the first sequence is impossible in its last step only, the second one in the middle
+		final List<ImmutableList<WikipediaObservation>> sequences = ImmutableList.of(
+				ImmutableList.of(WikipediaObservation.OK, WikipediaObservation.OK, WikipediaObservation.COLD, WikipediaObservation.DIZZY),
+				ImmutableList.of(WikipediaObservation.OK, WikipediaObservation.COLD, WikipediaObservation.DIZZY, WikipediaObservation.OK));
+		final List<List<WikipediaState>> expected = ImmutableList.<List<WikipediaState>>of(
+				ImmutableList.of(WikipediaState.HEALTHY, WikipediaState.HEALTHY, WikipediaState.HEALTHY, WikipediaState.HEALTHY),
+				Arrays.asList(null, null, null, WikipediaState.HEALTHY));
+		for (TransitionStorage storage : TransitionStorage.values()) {
+			ViterbiModel<WikipediaState, WikipediaObservation> model = TestModels.neverDizzyWikipediaBuilder().withTransitionStorage(storage).build();
+			CompiledViterbiModel<WikipediaState, WikipediaObservation> compiled = CompiledViterbiModel.compile(model);
+			for (int i = 0; i < sequences.size(); ++i) {
+				ImmutableList<WikipediaObservation> observations = sequences.get(i);
+				List<WikipediaState> path = expected.get(i);
+
+				assertThat(new ViterbiMachine<>(model, observations).calculate(), is(path));
+				assertThat(compiled.newMachine(observations).calculate(), is(path));
+				assertThat(ViterbiDecoder.of(model).decode(observations), is(path));
+				assertThat(ViterbiDecoder.of(model).decodeWithScores(observations, true).getPath(), is(path));
+				List<WikipediaState> sessionPath = new ArrayList<>();
+				try (DecoderSession<WikipediaState, WikipediaObservation> session = new DecoderSession<>(compiled)) {
+					session.reset(observations).decode(sessionPath);
+				}
+				assertThat(sessionPath, is(path));
+				assertThat(new VectorViterbiDecoder<>(compiled).decode(observations), is(path));
+				assertThat(new CheckpointedViterbiDecoder<>(compiled, 2).decode(observations), is(path));
+				IncrementalViterbiDecoder<WikipediaState, WikipediaObservation> incremental = new IncrementalViterbiDecoder<>(compiled);
+				incremental.appendAll(observations);
+				assertThat(incremental.getPath(), is(path));
+				assertThat(new BeamViterbiDecoder<>(compiled, 2, Double.POSITIVE_INFINITY).decode(observations).getStates(), is(path));
+				for (ReducedPrecisionViterbiDecoder.Precision precision : ReducedPrecisionViterbiDecoder.Precision.values()) {
+					assertThat(new ReducedPrecisionViterbiDecoder<>(compiled, precision).decode(observations), is(path));
+				}
+				// the k best paths are possible ones only
+				assertThat(new KBestViterbiDecoder<>(compiled, 1).decode(observations).hasNext(), is(false));
+			}
+			// a streaming decoder commits the converged prefix before the impossible step arrives, so only a sequence
+			// that turns impossible in its last step traces back alike
+			List<WikipediaState> streamed = new ArrayList<>();
+			StreamingViterbiDecoder<WikipediaState, WikipediaObservation> streaming = new StreamingViterbiDecoder<>(compiled, streamed::add);
+			for (WikipediaObservation observation : sequences.get(0)) {
+				streaming.push(observation);
+			}
+			streaming.flush();
+			assertThat(streamed, is(expected.get(0)));
+		}
+	}
+
+	@Test
+	public void constrainedPathsAreTheBestAllowedOnes() {
+		for (long seed = 0; seed < 60; ++seed) {
+			Random random = new Random(seed);
+			CompiledViterbiModel<String, String> model = RandomModels.firstOrder(random, 3, 3, true);
+			int[] observations = random.ints(1 + random.nextInt(6), 0, 3).toArray();
+			StateConstraints.Builder<String> constraints = StateConstraints.builder(model.getStateVocabulary(), observations.length);
+			for (int position = 0; position < observations.length; ++position) {
+				BitSet allowed = new BitSet();
+				allowed.set(random.nextInt(3));
+				allowed.set(random.nextInt(3));
+				if (random.nextBoolean()) {
+					constraints.allow(position, allowed);
+				}
+			}
+			StateConstraints<String> built = constraints.build();
+
+			int[] path = new ViterbiDecoder<>(model).decode(observations, built);
+			double best = Double.NEGATIVE_INFINITY;
+			for (int[] candidate : RandomModels.allPaths(3, observations.length)) {
+				if (allowed(built, model, candidate)) {
+					best = Math.max(best, score(model, candidate, observations));
+				}
+			}
+			if (best == Double.NEGATIVE_INFINITY) {
+				assertThat(Arrays.stream(path).allMatch(state -> state == -1), is(true));
+			} else {
+				assertThat(allowed(built, model, path), is(true));
+				assertThat(score(model, path, observations), is(closeTo(best, 1e-9)));
+			}
+		}
+	}
+
+	@Test
+	public void forcingTheBestPathKeepsIt() {
+		for (long seed = 0; seed < 20; ++seed) {
+			CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.randomBuilder(seed, 0.6)
+					.withLogSpace(seed % 2 == 0).withTransitionStorage(seed % 3 == 0 ? TransitionStorage.DENSE : TransitionStorage.SPARSE).build());
+			ViterbiDecoder<RandomState, RandomObservation> decoder = new ViterbiDecoder<>(model);
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed * 7 % 60));
+			List<RandomState> expected = decoder.decode(observations);
+
+			StateConstraints.Builder<RandomState> constraints = StateConstraints.builder(model.getStateVocabulary(), observations.size());
+			for (int position = 0; position < observations.size(); position += 3) {
+				constraints.force(position, expected.get(position));
+			}
+			assertThat(decoder.decode(observations, constraints.build()), is(expected));
+			assertThat(decoder.decode(observations, StateConstraints.builder(model.getStateVocabulary(), observations.size()).build()), is(expected));
+		}
+	}
+
+	@Test
+	public void forcedStatesAreKept() {
+		ViterbiDecoder<WikipediaState, WikipediaObservation> decoder = ViterbiDecoder.of(TestModels.wikipedia());
+		StateConstraints<WikipediaState> constraints = StateConstraints.builder(Vocabulary.ofEnum(WikipediaState.class), 3)
+				.force(1, WikipediaState.FEVER)
+				.build();
+
+		final List<WikipediaState> expected = ImmutableList.of(WikipediaState.HEALTHY, WikipediaState.FEVER, WikipediaState.FEVER);
+		assertThat(decoder.decode(TestModels.wikipediaObservations(), constraints), is(expected));
+	}
+
+	@Test
+	public void constraintsOfAnotherLengthAreNotOk() {
+		ViterbiDecoder<WikipediaState, WikipediaObservation> decoder = ViterbiDecoder.of(TestModels.wikipedia());
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("constraints cover 2 positions, 3 observations given");
+		decoder.decode(TestModels.wikipediaObservations(), StateConstraints.builder(Vocabulary.ofEnum(WikipediaState.class), 2).build());
+	}
+
+	private static boolean allowed(StateConstraints<String> constraints, CompiledViterbiModel<String, String> model, int[] path) {
+		for (int position = 0; position < path.length; ++position) {
+			if (path[position] < 0 || !constraints.isAllowed(position, model.state(path[position]))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static double score(CompiledViterbiModel<String, String> model, int[] path, int[] observations) {
+		double score = Math.log(model.initialDistributions[path[0]]);
+		for (int i = 0; i < path.length; ++i) {
+			if (i > 0) {
+				score += Math.log(model.transitionProbability(path[i - 1], path[i]));
+			}
+			score += Math.log(model.emissionColumns[observations[i] * model.stateCount + path[i]]);
+		}
+		return score;
+	}
+
+	@Test
+	public void decodeFromManyThreads() throws Exception {
+		CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(8, 0.0, true));
+		ViterbiDecoder<RandomState, RandomObservation> decoder = new ViterbiDecoder<>(model);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> futures = new ArrayList<>();
+			for (long seed = 0; seed < 200; ++seed) {
+				final ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed % 120));
+				final List<RandomState> expected = model.newMachine(observations).calculate();
+				futures.add(executor.submit(() -> decoder.decode(observations).equals(expected)));
+			}
+			for (Future<Boolean> future : futures) {
+				assertThat(future.get(), is(true));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void decodeAllWithNoSequences() {
+		ViterbiDecoder<WikipediaState, WikipediaObservation> decoder = ViterbiDecoder.of(TestModels.wikipedia());
+
+		assertThat(decoder.decodeAll(ImmutableList.<List<WikipediaObservation>>of()).isEmpty(), is(true));
+	}
+
+	@Test
+	public void decodeAllWithEmptySequenceIsNotOk() {
+		ViterbiDecoder<WikipediaState, WikipediaObservation> decoder = ViterbiDecoder.of(TestModels.wikipedia());
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("at least one observation should be provided, 0 given");
+		decoder.decodeAll(ImmutableList.<List<WikipediaObservation>>of(TestModels.wikipediaObservations(), ImmutableList.<WikipediaObservation>of()));
+	}
+}
@@ -0,0 +1,148 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+
+import com.google.common.collect.ImmutableList;
+
+public class ViterbiDecodingServiceTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void wikipediaSample() throws Exception {
+		try (ViterbiDecodingService service = new ViterbiDecodingService(2, 8, 1, TimeUnit.MILLISECONDS, 100)) {
+			CompletableFuture<List<WikipediaState>> path = service.decode(CompiledViterbiModel.compile(TestModels.wikipedia()), TestModels.wikipediaObservations());
+
+			assertThat(path.get(10, TimeUnit.SECONDS), is(ImmutableList.of(WikipediaState.HEALTHY, WikipediaState.HEALTHY, WikipediaState.FEVER)));
+		}
+	}
+
+	@Test
+	public void samePathsAsViterbiDecoderForSeveralModels() throws Exception {
+		List<CompiledViterbiModel<RandomState, RandomObservation>> models = new ArrayList<>();
+		for (long seed = 0; seed < 3; ++seed) {
+			models.add(CompiledViterbiModel.compile(TestModels.random(seed, 0.3, true)));
+		}
+		try (ViterbiDecodingService service = new ViterbiDecodingService(3, 16, 2, TimeUnit.MILLISECONDS, 1000)) {
+			List<CompletableFuture<List<RandomState>>> futures = new ArrayList<>();
+			List<List<RandomState>> expected = new ArrayList<>();
+			for (long seed = 0; seed < 300; ++seed) {
+				CompiledViterbiModel<RandomState, RandomObservation> model = models.get((int) (seed % 3));
+				ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed % 50));
+				futures.add(service.decode(model, observations));
+				expected.add(new ViterbiDecoder<>(model).decode(observations));
+			}
+			for (int i = 0; i < futures.size(); ++i) {
+				assertThat(futures.get(i).get(10, TimeUnit.SECONDS), is(expected.get(i)));
+			}
+			assertThat(service.getPendingRequests(), is(0));
+		}
+	}
+
+	@Test
+	public void incompleteBatchRunsAfterMaxDelay() throws Exception {
+		try (ViterbiDecodingService service = new ViterbiDecodingService(1, 1000, 20, TimeUnit.MILLISECONDS, 1000)) {
+			CompletableFuture<List<WikipediaState>> path = service.decode(CompiledViterbiModel.compile(TestModels.wikipedia()), TestModels.wikipediaObservations());
+
+			assertThat(path.get(10, TimeUnit.SECONDS).size(), is(3));
+		}
+	}
+
+	@Test
+	public void requestsBeyondMaxPendingAreRejected() throws Exception {
+		// a batch that is never full and a delay that never ends keep the first requests pending
+		ViterbiDecodingService service = new ViterbiDecodingService(1, 1000, 1, TimeUnit.HOURS, 2);
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+		CompletableFuture<List<WikipediaState>> first = service.decode(model, TestModels.wikipediaObservations());
+		CompletableFuture<List<WikipediaState>> second = service.decode(model, TestModels.wikipediaObservations());
+		CompletableFuture<List<WikipediaState>> third = service.decode(model, TestModels.wikipediaObservations());
+
+		assertThat(service.getPendingRequests(), is(2));
+		assertThat(first.isDone(), is(false));
+		assertThat(third.isCompletedExceptionally(), is(true));
+		assertThat(cause(third), is(instanceOf(RejectedExecutionException.class)));
+
+		// closing runs the incomplete batch
+		service.close();
+		assertThat(second.get(10, TimeUnit.SECONDS).size(), is(3));
+		assertThat(service.decode(model, TestModels.wikipediaObservations()).isCompletedExceptionally(), is(true));
+	}
+
+	@Test
+	public void decodeErrorsFailTheirFutureOnly() throws Exception {
+		try (ViterbiDecodingService service = new ViterbiDecodingService(1, 4, 1, TimeUnit.MILLISECONDS, 100)) {
+			CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+			CompletableFuture<List<WikipediaState>> empty = service.decode(model, ImmutableList.of());
+			CompletableFuture<List<WikipediaState>> path = service.decode(model, TestModels.wikipediaObservations());
+
+			assertThat(path.get(10, TimeUnit.SECONDS).size(), is(3));
+			assertThat(cause(empty), is(instanceOf(IllegalArgumentException.class)));
+		}
+	}
+
+	@Test
+	public void errorsFailTheirFutureAndReleaseTheirPermit() throws Exception {
+		List<WikipediaObservation> broken = new AbstractList<WikipediaObservation>() {
+			@Override
+			public WikipediaObservation get(int index) {
+				throw new AssertionError("broken sequence");
+			}
+
+			@Override
+			public int size() {
+				return 3;
+			}
+		};
+		CompletableFuture<Error> handled = new CompletableFuture<>();
+		try (ViterbiDecodingService service = new ViterbiDecodingService(1, 2, 1, TimeUnit.HOURS, 2, handled::complete)) {
+			CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+			CompletableFuture<List<WikipediaState>> failed = service.decode(model, broken);
+			CompletableFuture<List<WikipediaState>> path = service.decode(model, TestModels.wikipediaObservations());
+
+			assertThat(path.get(10, TimeUnit.SECONDS).size(), is(3));
+			assertThat(cause(failed), is(instanceOf(AssertionError.class)));
+			assertThat(handled.get(10, TimeUnit.SECONDS), is(sameInstance(cause(failed))));
+			assertThat(service.getPendingRequests(), is(0));
+		}
+	}
+
+	@Test
+	public void zeroMaxPendingRequestsIsNotOk() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("maxPendingRequests should be positive, was 0");
+		new ViterbiDecodingService(1, 1, 1, TimeUnit.MILLISECONDS, 0);
+	}
+
+	private static Throwable cause(CompletableFuture<?> future) throws InterruptedException {
+		try {
+			future.get(10, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			return e.getCause();
+		} catch (TimeoutException e) {
+			throw new AssertionError(e);
+		}
+		throw new AssertionError("future should have failed");
+	}
+}
@@ -0,0 +1,184 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+import viterbi.Viterbi.ViterbiModel.TransitionStorage;
+
+import com.google.common.collect.ImmutableList;
+
+public class ViterbiModelFormatTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void denseRoundTrip() throws IOException {
+		CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.randomBuilder(1, 0.0)
+				.withTransitionStorage(TransitionStorage.DENSE).build());
+		Path path = folder.newFile().toPath();
+
+		ViterbiModelFormat.write(model, path);
+		CompiledViterbiModel<RandomState, RandomObservation> loaded = ViterbiModelFormat.read(path, RandomState.class, RandomObservation.class);
+
+		assertThat(loaded.isSparse(), is(false));
+		assertThat(loaded.isLogSpace(), is(false));
+		assertThat(loaded.getStates(), is(model.getStates()));
+		assertThat(loaded.getObservations(), is(model.getObservations()));
+		assertThat(Arrays.equals(loaded.initialDistributions, model.initialDistributions), is(true));
+		assertThat(Arrays.equals(loaded.transitionProbabilities, model.transitionProbabilities), is(true));
+		assertThat(Arrays.equals(loaded.emissionColumns, model.emissionColumns), is(true));
+	}
+
+	@Test
+	public void sparseLogSpaceRoundTrip() throws IOException {
+		CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.randomBuilder(2, 0.7)
+				.withTransitionStorage(TransitionStorage.SPARSE).withLogSpace(true).build());
+		Path path = folder.newFile().toPath();
+
+		ViterbiModelFormat.write(model, path);
+		CompiledViterbiModel<RandomState, RandomObservation> loaded = ViterbiModelFormat.read(path, RandomState.class, RandomObservation.class);
+
+		assertThat(loaded.isSparse(), is(true));
+		assertThat(loaded.isLogSpace(), is(true));
+		assertThat(Arrays.equals(loaded.predecessorOffsets, model.predecessorOffsets), is(true));
+		assertThat(Arrays.equals(loaded.predecessors, model.predecessors), is(true));
+		assertThat(Arrays.equals(loaded.predecessorProbabilities, model.predecessorProbabilities), is(true));
+		assertThat(Arrays.equals(loaded.successorOffsets, model.successorOffsets), is(true));
+		assertThat(Arrays.equals(loaded.successors, model.successors), is(true));
+		assertThat(Arrays.equals(loaded.successorProbabilities, model.successorProbabilities), is(true));
+
+		for (long seed = 0; seed < 20; ++seed) {
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed * 13 % 100));
+			assertThat(loaded.newMachine(observations).calculate(), is(model.newMachine(observations).calculate()));
+		}
+	}
+
+	@Test
+	public void singlePrecisionRoundTrip() throws IOException {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+		Path path = folder.newFile().toPath();
+
+		ViterbiModelFormat.write(model, path, true);
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> loaded = ViterbiModelFormat.read(path, WikipediaState.class, WikipediaObservation.class);
+
+		assertThat(loaded.getTransitionProbability(WikipediaState.HEALTHY, WikipediaState.FEVER), is(closeTo(0.3, 1e-7)));
+		assertThat(loaded.getEmissionProbability(WikipediaState.FEVER, WikipediaObservation.DIZZY), is(closeTo(0.6, 1e-7)));
+		assertThat(loaded.newMachine(TestModels.wikipediaObservations()).calculate(),
+				is(ImmutableList.of(WikipediaState.HEALTHY, WikipediaState.HEALTHY, WikipediaState.FEVER)));
+	}
+
+	@Test
+	public void runtimeVocabulariesRoundTrip() throws IOException {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+		Path path = folder.newFile().toPath();
+		ViterbiModelFormat.write(model, path);
+
+		CompiledViterbiModel<String, String> runtime = ViterbiModelFormat.read(path);
+		assertThat(runtime.getStates(), is(ImmutableList.of("HEALTHY", "FEVER")));
+		assertThat(runtime.getTransitionProbability("HEALTHY", "FEVER"), is(0.3));
+
+		// written without enum type names, the names alone are checked against the enums
+		Path runtimePath = folder.newFile().toPath();
+		ViterbiModelFormat.write(runtime, runtimePath);
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> loaded = ViterbiModelFormat.read(runtimePath, WikipediaState.class, WikipediaObservation.class);
+		assertThat(loaded.getEmissionProbability(WikipediaState.FEVER, WikipediaObservation.DIZZY), is(0.6));
+	}
+
+	@Test
+	public void otherEnumTypeIsNotOk() throws IOException {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+		Path path = folder.newFile().toPath();
+		ViterbiModelFormat.write(model, path);
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("model file was written for viterbi.TestModels$WikipediaState, not viterbi.TestModels$RandomState");
+		ViterbiModelFormat.read(path, RandomState.class, WikipediaObservation.class);
+	}
+
+	@Test
+	public void otherFileIsNotOk() throws IOException {
+		File file = folder.newFile();
+		Files.write(file.toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+
+		thrown.expect(IOException.class);
+		thrown.expectMessage("is not a viterbi model file");
+		ViterbiModelFormat.read(file.toPath(), WikipediaState.class, WikipediaObservation.class);
+	}
+
+	@Test
+	public void truncatedFileIsNotOk() throws IOException {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+		Path path = folder.newFile().toPath();
+		ViterbiModelFormat.write(model, path);
+		byte[] bytes = Files.readAllBytes(path);
+		Files.write(path, Arrays.copyOf(bytes, bytes.length - 8));
+
+		thrown.expect(IOException.class);
+		thrown.expectMessage("truncated model file");
+		ViterbiModelFormat.read(path, WikipediaState.class, WikipediaObservation.class);
+	}
+
+	@Test
+	public void corruptCountsAreNotOk() throws IOException {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+		Path path = folder.newFile().toPath();
+		ViterbiModelFormat.write(model, path);
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+		// the state count, after the magic number, the version and the flags
+		bytes.putInt(12, 100000000);
+		Files.write(path, bytes.array());
+
+		thrown.expect(IOException.class);
+		thrown.expectMessage("truncated model file");
+		ViterbiModelFormat.read(path);
+	}
+
+	@Test
+	public void unsortedPredecessorsAreNotOk() throws IOException {
+		CompiledViterbiModel<String, String> model = CompiledViterbiModel.builder(Vocabulary.of(ImmutableList.of("a", "b")), Vocabulary.of(ImmutableList.of("x")))
+				.withInitialDistribution(0, 1.0)
+				.withTransitionProbability(0, 0, 0.5)
+				.withTransitionProbability(0, 1, 0.5)
+				.withTransitionProbability(1, 0, 1.0)
+				.withEmissionProbability(0, 0, 1.0)
+				.withEmissionProbability(1, 0, 1.0)
+				.withTransitionStorage(TransitionStorage.SPARSE)
+				.build();
+		Path path = folder.newFile().toPath();
+		ViterbiModelFormat.write(model, path);
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+		// 24 header bytes and 23 bytes of names, aligned to 48; the initial and emission blocks; the predecessor offsets
+		// aligned to 96; then the predecessors of a, which are a and b
+		assertThat(bytes.getInt(96), is(0));
+		assertThat(bytes.getInt(100), is(1));
+		bytes.putInt(96, 1);
+		bytes.putInt(100, 0);
+		Files.write(path, bytes.array());
+
+		thrown.expect(IOException.class);
+		thrown.expectMessage("corrupt sparse transition block");
+		ViterbiModelFormat.read(path);
+	}
+}
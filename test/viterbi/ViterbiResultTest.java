@@ -0,0 +1,126 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+import viterbi.KBestViterbiDecoder.ScoredPath;
+import viterbi.Viterbi.ViterbiMachine;
+import viterbi.Viterbi.ViterbiModel;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Table;
+
+public class ViterbiResultTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	// healthy, healthy, fever: 0.6 * 0.5, then * 0.7 * 0.4, then * 0.3 * 0.6
+	private static final double[] WIKIPEDIA_STEP_SCORES = { Math.log(0.3), Math.log(0.084), Math.log(0.01512) };
+
+	@Test
+	public void wikipediaScores() {
+		CompiledViterbiModel<WikipediaState, WikipediaObservation> model = CompiledViterbiModel.compile(TestModels.wikipedia());
+		assertWikipedia(new ViterbiMachine<>(TestModels.wikipedia(), TestModels.wikipediaObservations()).calculateResult(true));
+		assertWikipedia(model.newMachine(TestModels.wikipediaObservations()).calculateResult(true));
+		assertWikipedia(new ViterbiDecoder<>(model).decodeWithScores(TestModels.wikipediaObservations(), true));
+	}
+
+	private static void assertWikipedia(ViterbiResult<WikipediaState> result) {
+		assertThat(result.getPath(), is(ImmutableList.of(WikipediaState.HEALTHY, WikipediaState.HEALTHY, WikipediaState.FEVER)));
+		assertThat(result.getLogScore(), is(closeTo(Math.log(0.01512), 1e-12)));
+		assertThat(result.hasStepLogScores(), is(true));
+		for (int i = 0; i < WIKIPEDIA_STEP_SCORES.length; ++i) {
+			assertThat(result.getStepLogScore(i), is(closeTo(WIKIPEDIA_STEP_SCORES[i], 1e-12)));
+		}
+	}
+
+	@Test
+	public void trellisScoresMatchPathScores() {
+		for (long seed = 0; seed < 20; ++seed) {
+			CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(seed, 0.3, true));
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed * 17 % 200));
+			ViterbiResult<RandomState> expected = new ViterbiMachine<>(TestModels.random(seed, 0.3, true), observations).calculateResult(true);
+			ViterbiResult<RandomState> result = new ViterbiDecoder<>(model).decodeWithScores(observations, true);
+
+			assertThat(result.getPath(), is(expected.getPath()));
+			assertThat(result.getLogScore(), is(closeTo(expected.getLogScore(), 1e-9 * observations.size())));
+			for (int i = 0; i < observations.size(); ++i) {
+				assertThat(result.getStepLogScore(i), is(closeTo(expected.getStepLogScore(i), 1e-9 * observations.size())));
+			}
+		}
+	}
+
+	@Test
+	public void probabilitySpaceScoresAreLogScores() {
+		CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(TestModels.random(4, 0.0));
+		CompiledViterbiModel<RandomState, RandomObservation> logModel = CompiledViterbiModel.compile(TestModels.random(4, 0.0, true));
+		ImmutableList<RandomObservation> observations = TestModels.randomObservations(4, 100);
+
+		ViterbiResult<RandomState> expected = new ViterbiDecoder<>(logModel).decodeWithScores(observations, false);
+		ViterbiResult<RandomState> result = new ViterbiDecoder<>(model).decodeWithScores(observations, false);
+		assertThat(result.getPath(), is(expected.getPath()));
+		assertThat(result.getLogScore(), is(closeTo(expected.getLogScore(), 1e-9)));
+		assertThat(result.hasStepLogScores(), is(false));
+	}
+
+	@Test
+	public void everyEngineReportsTheSameLogScore() {
+		for (long seed = 0; seed < 30; ++seed) {
+			ViterbiModel<RandomState, RandomObservation> tableModel = TestModels.random(seed, seed % 2 == 0 ? 0.0 : 0.4, seed % 3 == 0);
+			CompiledViterbiModel<RandomState, RandomObservation> model = CompiledViterbiModel.compile(tableModel);
+			// short enough that the probability-space trellis of the table machine does not underflow
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 1 + (int) (seed * 11 % 60));
+			ViterbiResult<RandomState> expected = new ViterbiMachine<>(tableModel, observations).calculateResult(true);
+			ScoredPath<RandomState> best = new KBestViterbiDecoder<>(model, 1).decode(observations).next();
+
+			assertThat(best.getStates(), is(expected.getPath()));
+			assertThat(best.getScore(), is(closeTo(expected.getLogScore(), 1e-9)));
+			for (ViterbiResult<RandomState> result : ImmutableList.of(
+					model.newMachine(observations).calculateResult(true),
+					new ViterbiDecoder<>(model).decodeWithScores(observations, true))) {
+				assertThat(result.getPath(), is(expected.getPath()));
+				assertThat(result.getLogScore(), is(closeTo(expected.getLogScore(), 1e-9)));
+				for (int i = 0; i < observations.size(); ++i) {
+					assertThat(result.getStepLogScore(i), is(closeTo(expected.getStepLogScore(i), 1e-9)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void trellisViewsAreLive() {
+		ViterbiMachine<WikipediaState, WikipediaObservation> machine = new ViterbiMachine<>(TestModels.wikipedia(), TestModels.wikipediaObservations());
+		Table<WikipediaState, Integer, Double> probabilities = machine.getProbabilitiesForObservationsView();
+		assertThat(probabilities.columnKeySet().size(), is(1));
+
+		machine.nextStep();
+		assertThat(probabilities.get(WikipediaState.HEALTHY, 1), is(closeTo(0.084, 1e-12)));
+		assertThat(machine.getPreviousStatesObservationsView().get(WikipediaState.HEALTHY, 1).get(), is(WikipediaState.HEALTHY));
+		assertThat(probabilities, is(machine.getProbabilitiesForObservations()));
+
+		thrown.expect(UnsupportedOperationException.class);
+		probabilities.clear();
+	}
+
+	@Test
+	public void stepScoresNotRequested() {
+		List<WikipediaObservation> observations = TestModels.wikipediaObservations();
+		ViterbiResult<WikipediaState> result = ViterbiDecoder.of(TestModels.wikipedia()).decodeWithScores(observations, false);
+
+		thrown.expect(IllegalStateException.class);
+		thrown.expectMessage("step scores were not requested");
+		result.getStepLogScore(0);
+	}
+}
@@ -0,0 +1,141 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+import viterbi.Viterbi.ViterbiMachine;
+import viterbi.Viterbi.ViterbiModel;
+import viterbi.Viterbi.ViterbiModel.TransitionStorage;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class ViterbiStatisticsTest {
+
+	@Test
+	public void viterbiMachineReportsEveryPhase() {
+		ViterbiStatistics statistics = new ViterbiStatistics();
+
+		new ViterbiMachine<>(TestModels.wikipedia(), TestModels.wikipediaObservations(), statistics).calculate();
+
+		assertThat(statistics.getValidations(), is(1L));
+		assertThat(statistics.getInitializations(), is(1L));
+		assertThat(statistics.getSteps(), is(2L));
+		assertThat(statistics.getCellsEvaluated(), is(8L));
+		assertThat(statistics.getZeroProbabilityCells(), is(0L));
+		assertThat(statistics.getFinishes(), is(1L));
+		assertThat(statistics.getMaxTrellisBytes(), greaterThan(0L));
+		assertThat(statistics.getStepsPerSecond() > 0.0, is(true));
+	}
+
+	enum PostaggaState { P, V, N, D };
+	enum PostaggaObservation { Je, Mange, Une, Pomme };
+
+	@Test
+	public void zeroProbabilityCellsAreCounted() {
+		ViterbiModel<PostaggaState, PostaggaObservation> model = ViterbiModel.<PostaggaState, PostaggaObservation>builder()
+				.withInitialDistributions(ImmutableMap.<PostaggaState, Double>builder()
+						.put(PostaggaState.P, 1.0)
+						.put(PostaggaState.V, 0.0)
+						.put(PostaggaState.N, 0.0)
+						.put(PostaggaState.D, 0.0)
+						.build())
+				.withTransitionProbability(PostaggaState.P, PostaggaState.V, 1.0)
+				.withTransitionProbability(PostaggaState.V, PostaggaState.D, 1.0)
+				.withTransitionProbability(PostaggaState.D, PostaggaState.N, 1.0)
+				.withTransitionProbability(PostaggaState.N, PostaggaState.N, 1.0)
+				.withEmissionProbability(PostaggaState.P, PostaggaObservation.Je, 1.0)
+				.withEmissionProbability(PostaggaState.V, PostaggaObservation.Mange, 1.0)
+				.withEmissionProbability(PostaggaState.D, PostaggaObservation.Une, 1.0)
+				.withEmissionProbability(PostaggaState.N, PostaggaObservation.Pomme, 1.0)
+				.build();
+		ImmutableList<PostaggaObservation> observations = ImmutableList.of(PostaggaObservation.Je, PostaggaObservation.Mange, PostaggaObservation.Une, PostaggaObservation.Pomme);
+		ViterbiStatistics statistics = new ViterbiStatistics();
+		ViterbiStatistics compiledStatistics = new ViterbiStatistics();
+
+		new ViterbiMachine<>(model, observations, statistics).calculate();
+		new CompiledViterbiMachine<>(CompiledViterbiModel.compile(model), observations, compiledStatistics).calculate();
+
+		// only one state is reachable at every step
+		assertThat(statistics.getZeroProbabilityCells(), is(9L));
+		assertThat(compiledStatistics.getZeroProbabilityCells(), is(9L));
+		// sparse storage only evaluates the 4 non-zero transitions per step
+		assertThat(compiledStatistics.getCellsEvaluated(), is(12L));
+	}
+
+	@Test
+	public void decoderReportsAggregatedSteps() {
+		ViterbiStatistics statistics = new ViterbiStatistics();
+		ViterbiDecoder<RandomState, RandomObservation> decoder = new ViterbiDecoder<>(CompiledViterbiModel.compile(TestModels.random(5, 0.0, true)),
+				ForkJoinPool.commonPool(), statistics);
+
+		decoder.decode(TestModels.randomObservations(5, 100));
+		decoder.decode(TestModels.randomObservations(6, 50));
+
+		assertThat(statistics.getInitializations(), is(2L));
+		assertThat(statistics.getSteps(), is(148L));
+		assertThat(statistics.getCellsEvaluated(), is(148L * 64));
+		assertThat(statistics.getFinishes(), is(2L));
+	}
+
+	@Test
+	public void decoderReportsOnlyTheCellsOfEmittingStates() {
+		ViterbiModel<WikipediaState, WikipediaObservation> model = TestModels.partialWikipediaBuilder(0.4).withTransitionStorage(TransitionStorage.DENSE).build();
+		ViterbiStatistics statistics = new ViterbiStatistics();
+
+		new ViterbiDecoder<>(CompiledViterbiModel.compile(model), ForkJoinPool.commonPool(), statistics)
+				.decode(ImmutableList.of(WikipediaObservation.OK, WikipediaObservation.OK, WikipediaObservation.COLD, WikipediaObservation.DIZZY));
+
+		// 1 x 1 inside the run of ok, then 1 x 2 and 2 x 1 emitting states instead of 3 full steps of 4
+		assertThat(statistics.getCellsEvaluated(), is(5L));
+	}
+
+	@Test
+	public void streamingDecoderReportsConvergenceLag() {
+		ViterbiStatistics statistics = new ViterbiStatistics();
+		List<WikipediaState> states = new ArrayList<>();
+		StreamingViterbiDecoder<WikipediaState, WikipediaObservation> decoder = new StreamingViterbiDecoder<>(CompiledViterbiModel.compile(TestModels.wikipedia()), 0, states::add, statistics);
+
+		for (int i = 0; i < 100; ++i) {
+			decoder.push(i % 3 == 0 ? WikipediaObservation.OK : WikipediaObservation.DIZZY);
+		}
+		decoder.flush();
+
+		assertThat(states.size(), is(100));
+		assertThat(statistics.getSteps(), is(99L));
+		assertThat(statistics.getMaxConvergenceLag(), greaterThan(0L));
+		assertThat(statistics.getMeanConvergenceLag() > 0.0, is(true));
+		assertThat(statistics.getFinishes(), is(1L));
+		assertThat(statistics.getMaxTrellisBytes(), greaterThan(0L));
+	}
+
+	@Test
+	public void decoderReportsTrellisBytesOfEachSequence() {
+		final List<Long> trellisBytes = new ArrayList<>();
+		ViterbiMetrics metrics = new ViterbiMetrics() {
+			@Override
+			public void finished(long nanos, int length, long bytes) {
+				trellisBytes.add(bytes);
+			}
+		};
+		ViterbiDecoder<RandomState, RandomObservation> decoder = new ViterbiDecoder<>(CompiledViterbiModel.compile(TestModels.random(5, 0.0, true)),
+				ForkJoinPool.commonPool(), metrics);
+
+		decoder.decode(TestModels.randomObservations(5, 100));
+		decoder.decode(TestModels.randomObservations(6, 50));
+
+		// backpointers and two score rows of 8 states
+		assertThat(trellisBytes, is(ImmutableList.of(4L * 100 * 8 + 8 * 2 * 8, 4L * 50 * 8 + 8 * 2 * 8)));
+	}
+}
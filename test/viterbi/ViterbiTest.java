@@ -1,14 +1,18 @@
 package viterbi;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
 import viterbi.Viterbi.ViterbiMachine;
 import viterbi.Viterbi.ViterbiModel;
 
@@ -357,6 +361,42 @@ public class ViterbiTest {
 		assertThat(states, is(expected));
 	}
 	
+	@Test
+	public void wikipediaSampleLogSpace() {
+		ViterbiModel<TestModels.WikipediaState, TestModels.WikipediaObservation> model = TestModels.wikipediaBuilder().withLogSpace(true).build();
+		
+		ImmutableList<TestModels.WikipediaObservation> observations = TestModels.wikipediaObservations();
+		
+		ViterbiMachine<TestModels.WikipediaState, TestModels.WikipediaObservation> machine = new ViterbiMachine<>(model, observations);
+		List<TestModels.WikipediaState> states = machine.calculate();
+		final List<TestModels.WikipediaState> expected = ImmutableList.of(TestModels.WikipediaState.HEALTHY, TestModels.WikipediaState.HEALTHY, TestModels.WikipediaState.FEVER);
+		assertThat(states, is(expected));
+	}
+
+	@Test
+	public void longSequenceDoesNotUnderflowInLogSpace() {
+		ViterbiModel<TestModels.WikipediaState, TestModels.WikipediaObservation> model = TestModels.wikipediaBuilder().withLogSpace(true).build();
+		
+		ImmutableList<TestModels.WikipediaObservation> observations = ImmutableList.copyOf(Collections.nCopies(2000, TestModels.WikipediaObservation.DIZZY));
+		
+		ViterbiMachine<TestModels.WikipediaState, TestModels.WikipediaObservation> machine = new ViterbiMachine<>(model, observations);
+		List<TestModels.WikipediaState> states = machine.calculate();
+		final List<TestModels.WikipediaState> expected = Collections.nCopies(2000, TestModels.WikipediaState.FEVER);
+		assertThat(states, is(expected));
+	}
+	
+	@Test
+	public void logSpaceMachinesShareLogTablesOfTheirModel() {
+		for (long seed = 0; seed < 10; ++seed) {
+			ViterbiModel<RandomState, RandomObservation> model = TestModels.random(seed, 0.5, true);
+			ImmutableList<RandomObservation> observations = TestModels.randomObservations(seed, 30);
+			List<RandomState> states = new ViterbiMachine<>(model, observations).calculate();
+
+			assertThat(states, is(CompiledViterbiModel.compile(model).newMachine(observations).calculate()));
+			assertThat(model.logTransitions(RandomState.values().length), is(sameInstance(model.logTransitions(RandomState.values().length))));
+		}
+	}
+	
 	enum PostaggaState { P, V, N, D };
 	enum PostaggaObservation { Je, Te, Ma, Mange, Tue, Montre, Pomme, Mouche, Une };
 
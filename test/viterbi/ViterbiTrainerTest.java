@@ -0,0 +1,174 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.google.common.collect.ImmutableList;
+
+import viterbi.TestModels.RandomObservation;
+import viterbi.TestModels.RandomState;
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+import viterbi.Viterbi.ViterbiModel;
+import viterbi.Viterbi.ViterbiModel.TransitionStorage;
+import viterbi.ViterbiTrainer.Iteration;
+import viterbi.ViterbiTrainer.Method;
+
+public class ViterbiTrainerTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private static List<List<RandomObservation>> corpus() {
+		List<List<RandomObservation>> corpus = new ArrayList<>();
+		for (long seed = 0; seed < 40; ++seed) {
+			corpus.add(TestModels.randomObservations(seed, 1 + (int) (seed * 17 % 120)));
+		}
+		return corpus;
+	}
+
+	@Test
+	public void baumWelchLikelihoodDoesNotDecrease() {
+		List<List<RandomObservation>> corpus = corpus();
+		List<Double> logLikelihoods = new ArrayList<>();
+
+		new ViterbiTrainer<RandomState, RandomObservation>(corpus::iterator, Method.BAUM_WELCH)
+				.train(TestModels.random(1, 0.0, true), 8, 0.0, iteration -> logLikelihoods.add(iteration.getLogLikelihood()));
+
+		assertThat(logLikelihoods.size() > 1, is(true));
+		for (int i = 1; i < logLikelihoods.size(); ++i) {
+			assertThat(logLikelihoods.get(i) >= logLikelihoods.get(i - 1) - 1e-9, is(true));
+		}
+	}
+
+	@Test
+	public void viterbiTrainingScoreDoesNotDecrease() {
+		List<List<RandomObservation>> corpus = corpus();
+		List<Double> logLikelihoods = new ArrayList<>();
+
+		new ViterbiTrainer<RandomState, RandomObservation>(corpus::iterator, Method.VITERBI)
+				.train(TestModels.random(2, 0.5, true), 8, 0.0, iteration -> logLikelihoods.add(iteration.getLogLikelihood()));
+
+		for (int i = 1; i < logLikelihoods.size(); ++i) {
+			assertThat(logLikelihoods.get(i) >= logLikelihoods.get(i - 1) - 1e-9, is(true));
+		}
+	}
+
+	@Test
+	public void batchingAndParallelismDoNotChangeTheModel() {
+		List<List<RandomObservation>> corpus = corpus();
+		ViterbiModel<RandomState, RandomObservation> start = TestModels.randomBuilder(3, 0.6).withTransitionStorage(TransitionStorage.SPARSE).build();
+
+		for (Method method : Method.values()) {
+			Iteration<RandomState, RandomObservation> sequential = new ViterbiTrainer<RandomState, RandomObservation>(corpus::iterator, method, new ForkJoinPool(1), 1000)
+					.iterate(start);
+			Iteration<RandomState, RandomObservation> parallel = new ViterbiTrainer<RandomState, RandomObservation>(corpus::iterator, method, new ForkJoinPool(4), 3)
+					.iterate(start);
+
+			assertThat(parallel.getSequenceCount(), is(40L));
+			assertThat(parallel.getLogLikelihood(), is(closeTo(sequential.getLogLikelihood(), 1e-6)));
+			for (RandomState src : RandomState.values()) {
+				for (RandomState dest : RandomState.values()) {
+					Double expected = sequential.getModel().transitionProbabilities.get(src, dest);
+					Double actual = parallel.getModel().transitionProbabilities.get(src, dest);
+					assertThat(actual == null, is(expected == null));
+					if (expected != null) {
+						assertThat(actual, is(closeTo(expected, 1e-9)));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void corpusIsReadOncePerIteration() {
+		List<List<RandomObservation>> corpus = corpus();
+		AtomicInteger reads = new AtomicInteger();
+
+		new ViterbiTrainer<RandomState, RandomObservation>(() -> {
+			reads.incrementAndGet();
+			return corpus.iterator();
+		}, Method.BAUM_WELCH).train(TestModels.random(4, 0.0), 3, Double.NEGATIVE_INFINITY, iteration -> { });
+
+		assertThat(reads.get(), is(3));
+	}
+
+	@Test
+	public void viterbiTrainingSkipsImpossibleSequences() {
+		// only fever emits dizzy and fever never recovers, so nothing can emit dizzy, ok
+		ViterbiModel<WikipediaState, WikipediaObservation> model = TestModels.partialWikipediaBuilder(0.0).build();
+		List<List<WikipediaObservation>> possible = ImmutableList.of(
+				ImmutableList.of(WikipediaObservation.OK, WikipediaObservation.COLD, WikipediaObservation.DIZZY),
+				ImmutableList.of(WikipediaObservation.COLD, WikipediaObservation.OK));
+		List<List<WikipediaObservation>> corpus = ImmutableList.<List<WikipediaObservation>>builder()
+				.addAll(possible)
+				.add(ImmutableList.of(WikipediaObservation.DIZZY, WikipediaObservation.OK))
+				.build();
+
+		Iteration<WikipediaState, WikipediaObservation> expected = new ViterbiTrainer<WikipediaState, WikipediaObservation>(possible::iterator, Method.VITERBI, new ForkJoinPool(1), 10)
+				.iterate(model);
+		Iteration<WikipediaState, WikipediaObservation> actual = new ViterbiTrainer<WikipediaState, WikipediaObservation>(corpus::iterator, Method.VITERBI, new ForkJoinPool(1), 10)
+				.iterate(model);
+
+		assertThat(actual.getSequenceCount(), is(3L));
+		assertThat(actual.getSkippedSequenceCount(), is(1L));
+		assertThat(actual.getLogLikelihood(), is(expected.getLogLikelihood()));
+		assertThat(actual.getModel().initialDistributions, is(expected.getModel().initialDistributions));
+		assertThat(actual.getModel().transitionProbabilities, is(expected.getModel().transitionProbabilities));
+		assertThat(actual.getModel().emissionProbabilities, is(expected.getModel().emissionProbabilities));
+	}
+
+	@Test
+	public void closeableCorpusIsClosedEveryIteration() {
+		List<List<RandomObservation>> corpus = corpus();
+		AtomicInteger closes = new AtomicInteger();
+
+		new ViterbiTrainer<RandomState, RandomObservation>(() -> new ClosingIterator(corpus.iterator(), closes), Method.VITERBI)
+				.train(TestModels.random(5, 0.0), 3, Double.NEGATIVE_INFINITY, iteration -> { });
+
+		assertThat(closes.get(), is(3));
+	}
+
+	private static final class ClosingIterator implements Iterator<List<RandomObservation>>, AutoCloseable {
+		private final Iterator<List<RandomObservation>> iterator;
+		private final AtomicInteger closes;
+
+		ClosingIterator(Iterator<List<RandomObservation>> iterator, AtomicInteger closes) {
+			this.iterator = iterator;
+			this.closes = closes;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		@Override
+		public List<RandomObservation> next() {
+			return iterator.next();
+		}
+
+		@Override
+		public void close() {
+			closes.incrementAndGet();
+		}
+	}
+
+	@Test
+	public void nonPositiveBatchSizeIsNotOk() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("batchSize should be positive, was 0");
+		new ViterbiTrainer<RandomState, RandomObservation>(() -> null, Method.VITERBI, ForkJoinPool.commonPool(), 0);
+	}
+}
@@ -0,0 +1,83 @@
+package viterbi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import viterbi.TestModels.WikipediaObservation;
+import viterbi.TestModels.WikipediaState;
+
+import com.google.common.collect.ImmutableList;
+
+public class VocabularyTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void labelsAreIndexedInOrder() {
+		Vocabulary<String> vocabulary = Vocabulary.of(ImmutableList.of("b", "a", "c"));
+
+		assertThat(vocabulary.size(), is(3));
+		assertThat(vocabulary.indexOf("a"), is(1));
+		assertThat(vocabulary.get(2), is("c"));
+		assertThat(vocabulary.contains("d"), is(false));
+		assertThat(vocabulary.isEnum(), is(false));
+	}
+
+	@Test
+	public void enumsAreIndexedByOrdinal() {
+		Vocabulary<WikipediaState> vocabulary = Vocabulary.ofEnum(WikipediaState.class);
+
+		assertThat(vocabulary.getLabels(), is(ImmutableList.copyOf(WikipediaState.values())));
+		assertThat(vocabulary.indexOf(WikipediaState.FEVER), is(1));
+		assertThat(vocabulary.contains(WikipediaState.HEALTHY), is(true));
+		assertThat(vocabulary.isEnum(), is(true));
+	}
+
+	@Test
+	public void unknownLabelIsNotOk() {
+		Vocabulary<String> vocabulary = Vocabulary.of(ImmutableList.of("a"));
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("unknown label b");
+		vocabulary.indexOf("b");
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Test
+	public void labelOfAnotherEnumIsNotOk() {
+		Vocabulary vocabulary = Vocabulary.ofEnum(WikipediaState.class);
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("unknown label COLD");
+		vocabulary.indexOf(WikipediaObservation.COLD);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Test
+	public void labelsOfAnotherEnumAreNotOk() {
+		Vocabulary vocabulary = Vocabulary.ofEnum(WikipediaState.class);
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("unknown label DIZZY");
+		vocabulary.toIndices(ImmutableList.of(WikipediaState.FEVER, WikipediaObservation.DIZZY), new int[2]);
+	}
+
+	@Test
+	public void duplicateLabelIsNotOk() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("duplicate label a");
+		Vocabulary.of(ImmutableList.of("a", "b", "a"));
+	}
+
+	@Test
+	public void emptyVocabularyIsNotOk() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("a vocabulary should have at least one label");
+		Vocabulary.of(ImmutableList.<String>of());
+	}
+}